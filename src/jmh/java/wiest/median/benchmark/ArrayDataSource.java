@@ -0,0 +1,46 @@
+package wiest.median.benchmark;
+
+import wiest.median.DataSource;
+
+/**
+ * Serves generated values from an array, so benchmarks of the calculators do not measure any parsing.
+ */
+class ArrayDataSource implements DataSource {
+
+    private final double[] values;
+    private int index = 0;
+
+    ArrayDataSource(double[] values) {
+        this.values = values;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return index < values.length;
+    }
+
+    @Override
+    public double getNext() {
+        return values[index++];
+    }
+
+    @Override
+    public int read(double[] buffer, int offset, int length) {
+        if (index >= values.length) {
+            return -1;
+        }
+        int count = Math.min(length, values.length - index);
+        System.arraycopy(values, index, buffer, offset, count);
+        index += count;
+        return count;
+    }
+
+    @Override
+    public long estimatedSize() {
+        return values.length;
+    }
+
+    @Override
+    public void close() {
+    }
+}
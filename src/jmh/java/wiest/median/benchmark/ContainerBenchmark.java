@@ -0,0 +1,105 @@
+package wiest.median.benchmark;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import wiest.median.calculator.file.ContainerFormat;
+import wiest.median.calculator.file.FileDataSetContainer;
+import wiest.median.calculator.file.FileDataSetSettings;
+import wiest.median.calculator.file.StorageMode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of the two operations that rewrite a container file, merging a flushed cache into the file and
+ * splitting the file with its cache into two new files. Each invocation starts from a freshly written container.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ContainerBenchmark {
+
+    private static final int FILE_VALUE_COUNT = 1 << 20;
+    private static final int CACHE_VALUE_COUNT = 1 << 18;
+
+    @Param({"COMPRESSED", "RAW"})
+    public ContainerFormat format;
+
+    @Param({"SORTED", "APPEND"})
+    public StorageMode storageMode;
+
+    private double[] fileValues;
+    private double[] cacheValues;
+    private Path dir;
+    private FileDataSetContainer container;
+    private DoubleArrayList cache;
+
+    @Setup(Level.Trial)
+    public void generateInput() throws IOException {
+        double[] values = DataGenerator.generate(DataGenerator.Distribution.UNIFORM,
+                FILE_VALUE_COUNT + CACHE_VALUE_COUNT, 42);
+        fileValues = Arrays.copyOf(values, FILE_VALUE_COUNT);
+        cacheValues = Arrays.copyOfRange(values, FILE_VALUE_COUNT, values.length);
+        dir = Files.createTempDirectory("median-jmh");
+    }
+
+    @Setup(Level.Invocation)
+    public void createContainer() {
+        var settings = FileDataSetSettings.defaults().withContainerFormat(format).withStorageMode(storageMode);
+        container = new FileDataSetContainer(dir.toString(), Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                settings);
+        container.writeToFile(new DoubleArrayList(fileValues));
+        // Merging and splitting sort the cache in place
+        cache = new DoubleArrayList(cacheValues);
+    }
+
+    @TearDown(Level.Invocation)
+    public void deleteContainer() {
+        container.deleteLocalStorage();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDirectory() {
+        DataGenerator.deleteDirectory(dir);
+    }
+
+    /**
+     * Writes the cache the way a flush does, merged into a sorted file or appended to an appended one
+     * for comparison. Appended files are always raw, so the format makes no difference for them.
+     */
+    @Benchmark
+    public long mergeAndWriteToFile() {
+        if (storageMode == StorageMode.APPEND) {
+            container.appendToFile(cache);
+        } else {
+            container.mergeAndWriteToFile(cache);
+        }
+        return container.getFileSizeBytes();
+    }
+
+    @Benchmark
+    public Object splitInHalf() {
+        var result = container.splitInHalf(cache);
+        result.lowerContainer().deleteLocalStorage();
+        result.upperContainer().deleteLocalStorage();
+        return result;
+    }
+}
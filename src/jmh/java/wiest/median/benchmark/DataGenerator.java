@@ -0,0 +1,78 @@
+package wiest.median.benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Generates reproducible inputs for the benchmarks, so they run without any external data.
+ */
+public final class DataGenerator {
+
+    public enum Distribution {
+        /**
+         * Evenly spread between 0 and 1,000,000
+         */
+        UNIFORM,
+        /**
+         * Log-normal, most values are small with a long tail of large ones
+         */
+        SKEWED,
+        /**
+         * Ascending, every flushed cache only hits the last container
+         */
+        SORTED,
+        /**
+         * Only 16 distinct values, containers cannot be split between equal values
+         */
+        DUPLICATES
+    }
+
+    private DataGenerator() {
+    }
+
+    public static double[] generate(Distribution distribution, int count, long seed) {
+        var random = new Random(seed);
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = switch (distribution) {
+                case UNIFORM -> random.nextDouble() * 1_000_000;
+                case SKEWED -> Math.exp(random.nextGaussian() * 2);
+                case SORTED -> i * 0.5;
+                case DUPLICATES -> random.nextInt(16);
+            };
+        }
+        return values;
+    }
+
+    /**
+     * Writes one value per line, the format read by the text file readers.
+     */
+    public static void writeTextFile(Path file, double[] values) {
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            for (double value : values) {
+                writer.write(Double.toString(value));
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot write benchmark input " + file, e);
+        }
+    }
+
+    /**
+     * Deletes the directory and the files directly inside it, the data sets do not create subdirectories.
+     */
+    public static void deleteDirectory(Path dir) {
+        try (var files = Files.list(dir)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+            Files.delete(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot delete benchmark directory " + dir, e);
+        }
+    }
+}
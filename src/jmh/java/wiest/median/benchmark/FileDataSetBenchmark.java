@@ -0,0 +1,75 @@
+package wiest.median.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import wiest.median.calculator.file.FileDataSet;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Values added per second to a {@link FileDataSet} with different memory limits. The smaller the cache
+ * the more often it is flushed, so this mostly shows the cost of the flushes and container splits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FileDataSetBenchmark {
+
+    private static final int VALUE_COUNT = 1 << 20;
+
+    @Param({"256", "4096", "65536"})
+    public int maxDataInMemoryKb;
+
+    private double[] values;
+    private Path dir;
+    private FileDataSet dataSet;
+
+    @Setup(Level.Trial)
+    public void generateInput() throws IOException {
+        values = DataGenerator.generate(DataGenerator.Distribution.UNIFORM, VALUE_COUNT, 42);
+        dir = Files.createTempDirectory("median-jmh");
+    }
+
+    @Setup(Level.Invocation)
+    public void createDataSet() {
+        dataSet = new FileDataSet(dir.toString(), maxDataInMemoryKb);
+    }
+
+    @TearDown(Level.Invocation)
+    public void destroyDataSet() {
+        dataSet.destroy();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteDirectory() {
+        DataGenerator.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUE_COUNT)
+    public long addNumber() {
+        for (double value : values) {
+            dataSet.addNumber(value);
+        }
+        // Waits for a flush still running in the background
+        return dataSet.getTotalSize();
+    }
+}
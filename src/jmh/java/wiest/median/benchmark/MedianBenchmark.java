@@ -0,0 +1,68 @@
+package wiest.median.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import wiest.median.calculator.file.FileDataSetSettings;
+import wiest.median.calculator.file.FileMedianCalculator;
+import wiest.median.calculator.file.StorageMode;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading generated values into a {@link FileMedianCalculator} and calculating their median, end to end.
+ * The memory limit is a fraction of the input, so the values are stored on disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MedianBenchmark {
+
+    private static final int VALUE_COUNT = 4 << 20;
+    private static final int MAX_DATA_IN_MEMORY_KB = 4096;
+
+    @Param({"UNIFORM", "SKEWED", "SORTED", "DUPLICATES"})
+    public DataGenerator.Distribution distribution;
+
+    @Param({"SORTED", "APPEND"})
+    public StorageMode storageMode;
+
+    private double[] values;
+    private Path dir;
+
+    @Setup
+    public void generateInput() throws IOException {
+        values = DataGenerator.generate(distribution, VALUE_COUNT, 42);
+        dir = Files.createTempDirectory("median-jmh");
+    }
+
+    @TearDown
+    public void deleteDirectory() {
+        DataGenerator.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    public double calculateMedian() {
+        var calc = new FileMedianCalculator(dir.toString(), MAX_DATA_IN_MEMORY_KB,
+                FileDataSetSettings.defaults().withStorageMode(storageMode));
+        calc.loadSource(new ArrayDataSource(values));
+        double median = calc.calculateMedian();
+        calc.destroy();
+        return median;
+    }
+}
@@ -0,0 +1,77 @@
+package wiest.median.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import wiest.median.DataSource;
+import wiest.median.filereader.ByteNumberFileReader;
+import wiest.median.filereader.NumberFileReader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse throughput of the text readers in values per second, the scanner based {@link NumberFileReader}
+ * next to the {@link ByteNumberFileReader} as reference.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class NumberFileReaderBenchmark {
+
+    private static final int VALUE_COUNT = 200_000;
+
+    @Param({"scanner", "bytes"})
+    public String reader;
+
+    private Path file;
+
+    @Setup
+    public void writeInput() throws IOException {
+        file = Files.createTempFile("median-jmh", ".txt");
+        DataGenerator.writeTextFile(file, DataGenerator.generate(DataGenerator.Distribution.UNIFORM, VALUE_COUNT, 42));
+    }
+
+    @TearDown
+    public void deleteInput() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUE_COUNT)
+    public double parse() {
+        DataSource source = reader.equals("scanner")
+                ? new NumberFileReader(file.toString())
+                : new ByteNumberFileReader(file.toString());
+        double[] batch = new double[8192];
+        double sum = 0;
+        int count;
+        while ((count = source.read(batch, 0, batch.length)) > 0) {
+            for (int i = 0; i < count; i++) {
+                sum += batch[i];
+            }
+        }
+        source.close();
+        return sum;
+    }
+}
@@ -0,0 +1,100 @@
+package wiest.median.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import wiest.median.DataSource;
+import wiest.median.LazyDataSource;
+import wiest.median.calculator.file.FileMedianCalculator;
+import wiest.median.filereader.ByteNumberFileReader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load throughput of a {@link FileMedianCalculator} in values per second with one to four loader threads.
+ * The input is either a single text file split into one chunk per thread or many smaller files opened lazily,
+ * like the application does for a directory. The memory limit is a fraction of the input,
+ * so the values are stored on disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParallelLoadBenchmark {
+
+    private static final int VALUE_COUNT = 2 << 20;
+    private static final int MAX_DATA_IN_MEMORY_KB = 4096;
+    private static final int FILE_COUNT = 32;
+
+    public enum Layout {
+        CHUNKS,
+        FILES
+    }
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    @Param
+    public Layout layout;
+
+    private Path dir;
+    private Path file;
+    private final List<Path> files = new ArrayList<>();
+
+    @Setup
+    public void writeInput() throws IOException {
+        dir = Files.createTempDirectory("median-jmh");
+        file = dir.resolve("values.txt");
+        double[] values = DataGenerator.generate(DataGenerator.Distribution.UNIFORM, VALUE_COUNT, 42);
+        if (layout == Layout.CHUNKS) {
+            DataGenerator.writeTextFile(file, values);
+            return;
+        }
+        int valuesPerFile = VALUE_COUNT / FILE_COUNT;
+        for (int i = 0; i < FILE_COUNT; i++) {
+            var part = dir.resolve("values-" + i + ".txt");
+            DataGenerator.writeTextFile(part, Arrays.copyOfRange(values, i * valuesPerFile, (i + 1) * valuesPerFile));
+            files.add(part);
+        }
+    }
+
+    @TearDown
+    public void deleteDirectory() {
+        DataGenerator.deleteDirectory(dir);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(VALUE_COUNT)
+    public double load() {
+        var calc = new FileMedianCalculator(dir.toString(), MAX_DATA_IN_MEMORY_KB);
+        calc.loadSources(openSources(), threads);
+        double median = calc.calculateMedian();
+        calc.destroy();
+        return median;
+    }
+
+    private List<? extends DataSource> openSources() {
+        if (layout == Layout.CHUNKS) {
+            return ByteNumberFileReader.openChunks(file.toString(), threads);
+        }
+        return files.stream().map(part -> new LazyDataSource(() -> new ByteNumberFileReader(part.toString()))).toList();
+    }
+}
@@ -1,34 +1,382 @@
 package wiest.median;
 
+import wiest.median.calculator.distributed.ShardCoordinator;
+import wiest.median.calculator.distributed.ShardWorker;
+import wiest.median.calculator.file.ContainerFormat;
+import wiest.median.calculator.file.FileDataSetSettings;
 import wiest.median.calculator.file.FileMedianCalculator;
-import wiest.median.filereader.NumberFileReader;
+import wiest.median.calculator.file.GroupedFileMedianCalculator;
+import wiest.median.calculator.file.StorageMode;
+import wiest.median.calculator.radix.RadixMedianCalculator;
+import wiest.median.calculator.rolling.RollingMedianCalculator;
+import wiest.median.calculator.rolling.RollingMedianSettings;
+import wiest.median.calculator.sketch.KllSketch;
+import wiest.median.calculator.sketch.SketchMedianCalculator;
+import wiest.median.filereader.BinaryFormat;
+import wiest.median.filereader.BinaryNumberFileReader;
+import wiest.median.filereader.ByteNumberFileReader;
+import wiest.median.filereader.GzipNumberFileReader;
+import wiest.median.filereader.InputFiles;
+import wiest.median.filereader.KeyValueFileReader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 public class Application {
 
     public static void main(String[] args) {
 
-        if (args.length < 1) {
+        List<String> arguments = new ArrayList<>();
+        int threads = 1;
+        String calculator = "file";
+        var settings = FileDataSetSettings.defaults();
+        double[] quantiles = null;
+        double epsilon = 0.01;
+        List<String> sketchesToMerge = List.of();
+        String sketchOutput = null;
+        String format = "text";
+        ByteOrder byteOrder = ByteOrder.LITTLE_ENDIAN;
+        boolean groupByKey = false;
+        RollingMedianSettings rollingSettings = null;
+        int stride = 1;
+        Duration metricsInterval = null;
+        String datasetDir = null;
+        Integer workerPort = null;
+        List<InetSocketAddress> workerAddresses = null;
+        boolean stopWorkers = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--calculator") && i + 1 < args.length) {
+                calculator = args[++i];
+            } else if (args[i].equals("--quantiles") && i + 1 < args.length) {
+                quantiles = Arrays.stream(args[++i].split(",")).mapToDouble(Double::parseDouble).toArray();
+            } else if (args[i].equals("--epsilon") && i + 1 < args.length) {
+                epsilon = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("--sketch-merge") && i + 1 < args.length) {
+                sketchesToMerge = List.of(args[++i].split(","));
+            } else if (args[i].equals("--sketch-save") && i + 1 < args.length) {
+                sketchOutput = args[++i];
+            } else if (args[i].equals("--storage-format") && i + 1 < args.length) {
+                settings = settings.withContainerFormat(ContainerFormat.valueOf(args[++i].toUpperCase()));
+            } else if (args[i].equals("--format") && i + 1 < args.length) {
+                format = args[++i].toLowerCase();
+            } else if (args[i].equals("--byte-order") && i + 1 < args.length) {
+                byteOrder = args[++i].equalsIgnoreCase("big") ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            } else if (args[i].equals("--rolling-window") && i + 1 < args.length) {
+                rollingSettings = RollingMedianSettings.countWindow(Long.parseLong(args[++i]));
+            } else if (args[i].equals("--rolling-seconds") && i + 1 < args.length) {
+                rollingSettings = RollingMedianSettings.timeWindow(Duration.ofMillis((long) (Double.parseDouble(args[++i]) * 1000)));
+            } else if (args[i].equals("--stride") && i + 1 < args.length) {
+                stride = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--metrics-interval") && i + 1 < args.length) {
+                metricsInterval = Duration.ofMillis((long) (Double.parseDouble(args[++i]) * 1000));
+            } else if (args[i].equals("--dataset") && i + 1 < args.length) {
+                datasetDir = args[++i];
+            } else if (args[i].equals("--worker") && i + 1 < args.length) {
+                workerPort = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--coordinator") && i + 1 < args.length) {
+                workerAddresses = parseAddresses(args[++i]);
+            } else if (args[i].equals("--stop-workers")) {
+                stopWorkers = true;
+            } else if (args[i].equals("--group-by-key")) {
+                groupByKey = true;
+            } else if (args[i].equals("--storage-mode") && i + 1 < args.length) {
+                settings = settings.withStorageMode(StorageMode.valueOf(args[++i].toUpperCase()));
+            } else {
+                arguments.add(args[i]);
+            }
+        }
+
+        if (workerAddresses != null) {
+            calculateDistributed(workerAddresses, quantiles, stopWorkers);
+            return;
+        }
+
+        if (arguments.size() < 1 && datasetDir == null) {
             System.out.println(
                     """
-                    Run with arguments [filename] [memory]
+                    Run with arguments [input]... [memory] {--threads n} {--calculator file|radix|sketch}
+                    \t{--storage-format compressed|raw} {--storage-mode sorted|append} {--quantiles q1,q2,...}
+                    \t{--epsilon e} {--sketch-merge file1,file2,...} {--sketch-save file}
+                    \t{--format text|double|float|int32|int64} {--byte-order little|big} {--group-by-key}
+                    \t{--rolling-window n | --rolling-seconds s} {--stride n} {--metrics-interval s} {--dataset dir}
+                    \t{--worker port} {--coordinator host:port,host:port,...} {--stop-workers}
+                    [input] = file, directory or glob pattern like 'shards/2024-*.txt' - all inputs are combined
                     [memory] = max amount of input data stored in memory in megabytes - default 2048
                     NOTE: \tThere will also be some overhead - a few bytes * (file size / memory size)
-                    \tThis should be at most half of your available memory
+                    \tThe file calculator allocates this memory off-heap, see -XX:MaxDirectMemorySize
+                    --threads = number of threads parsing the input in parallel - default 1
+                    \t\ta single text or binary file is split into chunks, otherwise whole files are read in parallel
+                    --format = text: one number per line, optionally gzip compressed - default
+                    \t\tdouble, float, int32, int64: binary values without separators
+                    --byte-order = byte order of binary values - default little
+                    --calculator = file: stores the values sorted on disk - default
+                    \t\tradix: repeatedly narrows down the median with histograms while re-reading the input
+                    \t\tsketch: approximates the median in a single pass without using the disk
+                    --storage-format = how the file calculator stores values on disk - default compressed
+                    --storage-mode = sorted: keeps the files of the file calculator sorted - default
+                    \t\tappend: only appends to the files and sorts just the file containing the median
+                    --quantiles = comma separated quantiles between 0 and 1 to print, e.g. 0.5,0.9,0.99,0.999
+                    --epsilon = maximum rank error of the sketch calculator - default 0.01
+                    --sketch-merge = sketches saved by previous runs to merge into the result of the sketch calculator
+                    --sketch-save = file to save the sketch of the sketch calculator to
+                    --group-by-key = reads text lines of the form key,value and prints the result of each key
+                    \t\tall keys share the memory, the files are read one after another with the file calculator
+                    --rolling-window = prints the median of the last n values while reading, input - reads from stdin
+                    --rolling-seconds = prints the median of the values read within the last s seconds
+                    --stride = number of values between two printed rolling medians - default 1
+                    \t\tthe rolling window is spilled to disk if it does not fit into [memory]
+                    --metrics-interval = prints how the file calculator stored the values so far every s seconds
+                    --dataset = keeps the values of the file calculator in the directory, a later run with the same
+                    \t\tdirectory adds its input to them - without input the stored values are only queried
+                    --worker = loads the input as one shard with the file calculator and answers the count queries
+                    \t\tof coordinators on the port of localhost until a coordinator stops it, 0 picks a free port
+                    --coordinator = finds the exact median or quantiles of the shards of the workers at the addresses
+                    \t\tby a few rounds of count queries, no input is read and no values are transferred
+                    --stop-workers = stops the workers after the coordinator printed the result
                     """);
             System.exit(1);
         }
 
-        String filename = args[0];
-        int memory = args.length > 1 ? Integer.parseInt(args[1]) : 2048;
+        int memory = 2048;
+        String lastArgument = arguments.isEmpty() ? "" : arguments.get(arguments.size() - 1);
+        if ((arguments.size() > 1 || datasetDir != null) && lastArgument.matches("\\d+") && !Files.exists(Path.of(lastArgument))) {
+            memory = Integer.parseInt(lastArgument);
+            arguments.remove(arguments.size() - 1);
+        }
+        String inputName = arguments.isEmpty() ? datasetDir : String.join(" ", arguments);
+        if (rollingSettings != null) {
+            calculateRolling(arguments, format, byteOrder, rollingSettings.withStride(stride)
+                    .withMemoryBytes(memory * 1024L * 1024));
+            return;
+        }
+        List<Path> files = InputFiles.resolve(arguments);
+
+        if (groupByKey) {
+            calculateGroups(files, memory, settings, quantiles);
+            return;
+        }
+
+        if (workerPort != null) {
+            serveShard(files, format, byteOrder, threads, memory, settings, datasetDir, workerPort);
+            return;
+        }
+
+        MedianCalculator calc = switch (calculator) {
+            case "file" -> datasetDir == null
+                    ? new FileMedianCalculator("./storageData", memory * 1024, settings)
+                    : FileMedianCalculator.open(datasetDir, memory * 1024, settings);
+            case "radix" -> new RadixMedianCalculator("./storageData", memory * 1024);
+            case "sketch" -> new SketchMedianCalculator(epsilon);
+            default -> throw new IllegalArgumentException("Unknown calculator " + calculator);
+        };
+
+        if (metricsInterval != null && calc instanceof FileMedianCalculator fileCalc) {
+            fileCalc.setMetricsListener(metricsInterval, metrics -> System.out.println("Metrics: " + metrics));
+        }
 
-        MedianCalculator calc = new FileMedianCalculator("./storageData", memory * 1024);
+        try {
+            calc.loadSources(openSources(files, format, byteOrder, threads), threads);
+            if (metricsInterval != null && calc instanceof FileMedianCalculator fileCalc) {
+                System.out.println("Metrics: " + fileCalc.getMetrics());
+            }
+            if (calc instanceof SketchMedianCalculator sketchCalc) {
+                mergeAndSaveSketches(sketchCalc, sketchesToMerge, sketchOutput);
+            }
+            if (quantiles == null) {
+                System.out.printf("Median of file %s is %f\n", inputName, calc.calculateMedian());
+            } else {
+                var values = calc.calculateQuantiles(quantiles);
+                for (int i = 0; i < quantiles.length; i++) {
+                    System.out.printf("Quantile %s of file %s is %f\n", quantiles[i], inputName, values[i]);
+                }
+            }
+        } finally {
+            if (datasetDir != null && calc instanceof FileMedianCalculator fileCalc) {
+                fileCalc.close();
+            } else {
+                calc.destroy();
+            }
+        }
+    }
 
+    /**
+     * Loads the shard like the file calculator and answers count queries until a coordinator stops the worker.
+     * The values are kept in the dataset directory if there is one.
+     */
+    private static void serveShard(List<Path> files, String format, ByteOrder byteOrder, int threads, int memory,
+                                   FileDataSetSettings settings, String datasetDir, int port) {
+        var calc = datasetDir == null
+                ? new FileMedianCalculator("./storageData", memory * 1024, settings)
+                : FileMedianCalculator.open(datasetDir, memory * 1024, settings);
         try {
-            var dataSource = new NumberFileReader(filename);
-            calc.loadSource(dataSource);
-            System.out.printf("Median of file %s is %f\n", filename, calc.calculateMedian());
+            calc.loadSources(openSources(files, format, byteOrder, threads), threads);
+            try (var worker = new ShardWorker(calc, port)) {
+                System.out.printf("Worker with %d values listening on port %d\n", calc.getTotalSize(), worker.getPort());
+                worker.awaitShutdown();
+            }
+        } finally {
+            if (datasetDir != null) {
+                calc.close();
+            } else {
+                calc.destroy();
+            }
+        }
+    }
+
+    private static void calculateDistributed(List<InetSocketAddress> workerAddresses, double[] quantiles,
+                                             boolean stopWorkers) {
+        String workers = workerAddresses.size() + " workers";
+        try (var coordinator = new ShardCoordinator(workerAddresses)) {
+            if (quantiles == null) {
+                System.out.printf("Median of %s is %f\n", workers, coordinator.calculateMedian());
+            } else {
+                var values = coordinator.calculateQuantiles(quantiles);
+                for (int i = 0; i < quantiles.length; i++) {
+                    System.out.printf("Quantile %s of %s is %f\n", quantiles[i], workers, values[i]);
+                }
+            }
+            if (stopWorkers) {
+                coordinator.shutdownWorkers();
+            }
+        }
+    }
+
+    /**
+     * @param addresses comma separated host:port pairs, a port alone means localhost
+     */
+    private static List<InetSocketAddress> parseAddresses(String addresses) {
+        List<InetSocketAddress> result = new ArrayList<>();
+        for (var address : addresses.split(",")) {
+            int separator = address.lastIndexOf(':');
+            String host = separator < 0 ? "localhost" : address.substring(0, separator);
+            result.add(new InetSocketAddress(host, Integer.parseInt(address.substring(separator + 1))));
+        }
+        return result;
+    }
+
+    /**
+     * A single file is split into chunks to parse it on several threads. Multiple files are opened one by one
+     * when they are read, so thousands of files are never open at the same time.
+     */
+    private static List<? extends ReopenableDataSource> openSources(List<Path> files, String format,
+                                                                    ByteOrder byteOrder, int threads) {
+        if (files.size() == 1) {
+            return openChunks(files.get(0).toString(), format, byteOrder, threads);
+        }
+        List<ReopenableDataSource> sources = new ArrayList<>(files.size());
+        for (var file : files) {
+            sources.add(new LazyDataSource(() -> openFile(file.toString(), format, byteOrder)));
+        }
+        return sources;
+    }
+
+    private static List<? extends ReopenableDataSource> openChunks(String filename, String format,
+                                                                   ByteOrder byteOrder, int chunkCount) {
+        if (format.equals("text")) {
+            // A compressed file can only be read from the start, its reader decompresses and parses on own threads
+            if (GzipNumberFileReader.isGzipFile(filename)) {
+                return List.of(new GzipNumberFileReader(filename));
+            }
+            return ByteNumberFileReader.openChunks(filename, chunkCount);
+        }
+        return BinaryNumberFileReader.openChunks(filename, BinaryFormat.valueOf(format.toUpperCase()), byteOrder, chunkCount);
+    }
+
+    private static ReopenableDataSource openFile(String filename, String format, ByteOrder byteOrder) {
+        if (format.equals("text")) {
+            return GzipNumberFileReader.isGzipFile(filename)
+                    ? new GzipNumberFileReader(filename)
+                    : new ByteNumberFileReader(filename);
+        }
+        return new BinaryNumberFileReader(filename, BinaryFormat.valueOf(format.toUpperCase()), byteOrder);
+    }
+
+    private static void calculateGroups(List<Path> files, int memory, FileDataSetSettings settings, double[] quantiles) {
+        var calc = new GroupedFileMedianCalculator("./storageData", memory * 1024, settings);
+        try {
+            for (var file : files) {
+                calc.loadSource(openKeyValueFile(file.toString()));
+            }
+            if (quantiles == null) {
+                calc.calculateMedians().forEach((key, median) -> System.out.printf("Median of key %s is %f\n", key, median));
+            } else {
+                calc.calculateQuantiles(quantiles).forEach((key, values) -> {
+                    for (int i = 0; i < quantiles.length; i++) {
+                        System.out.printf("Quantile %s of key %s is %f\n", quantiles[i], key, values[i]);
+                    }
+                });
+            }
         } finally {
             calc.destroy();
         }
     }
+
+    /**
+     * Reads the inputs one after another as a single stream, the heaps around the median take about
+     * two doubles per value in memory.
+     */
+    private static void calculateRolling(List<String> inputs, String format, ByteOrder byteOrder,
+                                         RollingMedianSettings settings) {
+        var calc = new RollingMedianCalculator("./storageData", settings);
+        RollingMedianCalculator.MedianListener printer =
+                (count, median) -> System.out.printf("Rolling median after %d values is %f\n", count, median);
+        try {
+            if (inputs.equals(List.of("-"))) {
+                calc.loadSource(new ByteNumberFileReader(Channels.newChannel(System.in), 1 << 16), printer);
+                return;
+            }
+            for (var file : InputFiles.resolve(inputs)) {
+                calc.loadSource(openFile(file.toString(), format, byteOrder), printer);
+            }
+        } finally {
+            calc.destroy();
+        }
+    }
+
+    private static KeyValueFileReader openKeyValueFile(String filename) {
+        if (!GzipNumberFileReader.isGzipFile(filename)) {
+            return new KeyValueFileReader(filename);
+        }
+        try {
+            return new KeyValueFileReader(Channels.newChannel(new GZIPInputStream(new FileInputStream(filename), 1 << 16)), 1 << 20);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open file " + filename, e);
+        }
+    }
+
+    private static void mergeAndSaveSketches(SketchMedianCalculator calc, List<String> sketchFiles, String outputFile) {
+        for (var sketchFile : sketchFiles) {
+            try (var input = new DataInputStream(new BufferedInputStream(new FileInputStream(sketchFile)))) {
+                calc.merge(KllSketch.readFrom(input));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot read sketch " + sketchFile, e);
+            }
+        }
+
+        if (outputFile != null) {
+            try (var output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outputFile)))) {
+                calc.getSketch().writeTo(output);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Cannot write sketch " + outputFile, e);
+            }
+        }
+    }
 }
@@ -6,6 +6,28 @@ public interface DataSource {
 
     double getNext();
 
+    /**
+     * Reads up to length values into the buffer, sources should override this to avoid the calls per value.
+     * @return the number of values read, -1 if the source has no more values
+     */
+    default int read(double[] buffer, int offset, int length) {
+        if (!hasNext()) {
+            return -1;
+        }
+        int count = 0;
+        while (count < length && hasNext()) {
+            buffer[offset + count++] = getNext();
+        }
+        return count;
+    }
+
+    /**
+     * @return the approximate number of values of this source including the ones already read, -1 if unknown
+     */
+    default long estimatedSize() {
+        return -1;
+    }
+
     void close();
 
 }
@@ -0,0 +1,16 @@
+package wiest.median;
+
+/**
+ * Source of values that each belong to a key, e.g. the latency of a request and its endpoint.
+ */
+public interface KeyValueSource {
+
+    /**
+     * Reads up to length pairs, the key of the value at values[offset + i] is keys[offset + i].
+     * @return the number of pairs read, -1 if the source has no more pairs
+     */
+    int read(String[] keys, double[] values, int offset, int length);
+
+    void close();
+
+}
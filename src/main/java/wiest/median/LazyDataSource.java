@@ -0,0 +1,59 @@
+package wiest.median;
+
+import java.util.function.Supplier;
+
+/**
+ * Opens the actual source only when it is read for the first time, so many sources can be handed
+ * to a calculator without keeping all of them open at once.
+ */
+public class LazyDataSource implements ReopenableDataSource {
+
+    private final Supplier<? extends DataSource> opener;
+    private DataSource source;
+
+    /**
+     * @param opener opens a new source returning the values from the start each time it is called
+     */
+    public LazyDataSource(Supplier<? extends DataSource> opener) {
+        this.opener = opener;
+    }
+
+    private DataSource source() {
+        if (source == null) {
+            source = opener.get();
+        }
+        return source;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return source().hasNext();
+    }
+
+    @Override
+    public double getNext() {
+        return source().getNext();
+    }
+
+    @Override
+    public int read(double[] buffer, int offset, int length) {
+        return source().read(buffer, offset, length);
+    }
+
+    @Override
+    public long estimatedSize() {
+        return source().estimatedSize();
+    }
+
+    @Override
+    public DataSource reopen() {
+        return new LazyDataSource(opener);
+    }
+
+    @Override
+    public void close() {
+        if (source != null) {
+            source.close();
+        }
+    }
+}
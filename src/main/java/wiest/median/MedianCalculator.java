@@ -1,11 +1,26 @@
 package wiest.median;
 
+import java.util.List;
+
 public interface MedianCalculator {
 
     void loadSource(DataSource source);
 
+    /**
+     * Loads all sources, implementations may read up to threadCount sources in parallel.
+     */
+    default void loadSources(List<? extends DataSource> sources, int threadCount) {
+        sources.forEach(this::loadSource);
+    }
+
     double calculateMedian();
 
+    /**
+     * @param quantiles between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return the value of each quantile, interpolated linearly between the two closest values
+     */
+    double[] calculateQuantiles(double... quantiles);
+
     void destroy();
 
 }
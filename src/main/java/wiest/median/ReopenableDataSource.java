@@ -0,0 +1,20 @@
+package wiest.median;
+
+/**
+ * A data source that can be read more than once, e.g. because it is backed by a file.
+ */
+public interface ReopenableDataSource extends DataSource {
+
+    /**
+     * @return a new source returning the same values from the start, independent of this source
+     */
+    DataSource reopen();
+
+    /**
+     * @return false if this instance cannot be reopened after all, e.g. a reader of a channel instead of a file
+     */
+    default boolean canReopen() {
+        return true;
+    }
+
+}
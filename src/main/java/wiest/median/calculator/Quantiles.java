@@ -0,0 +1,54 @@
+package wiest.median.calculator;
+
+/**
+ * Turns quantiles into the ranks of the sorted data and interpolates between the two values around each quantile.
+ * The quantile q of n values lies at position q * (n - 1), so the 0.5 quantile is the median.
+ */
+public final class Quantiles {
+
+    /**
+     * Looks up the values at the given ranks of the sorted data
+     */
+    @FunctionalInterface
+    public interface RankLookup {
+        double[] valuesAt(long[] ranks);
+    }
+
+    private Quantiles() {
+    }
+
+    /**
+     * @param size number of values in the data set
+     * @param quantiles quantiles between 0 and 1
+     * @param lookup used once for all ranks needed
+     * @return the interpolated value of each quantile, 0 for an empty data set
+     */
+    public static double[] calculate(long size, double[] quantiles, RankLookup lookup) {
+        for (double quantile : quantiles) {
+            if (!(quantile >= 0 && quantile <= 1)) {
+                throw new IllegalArgumentException("Quantiles have to be between 0 and 1 but got " + quantile);
+            }
+        }
+
+        double[] result = new double[quantiles.length];
+        if (size == 0) {
+            return result;
+        }
+
+        long[] ranks = new long[quantiles.length * 2];
+        for (int i = 0; i < quantiles.length; i++) {
+            double position = quantiles[i] * (size - 1);
+            ranks[2 * i] = (long) Math.floor(position);
+            ranks[2 * i + 1] = (long) Math.ceil(position);
+        }
+
+        double[] values = lookup.valuesAt(ranks);
+        for (int i = 0; i < quantiles.length; i++) {
+            double fraction = quantiles[i] * (size - 1) - ranks[2 * i];
+            double lower = values[2 * i];
+            double upper = values[2 * i + 1];
+            result[i] = fraction == 0 ? lower : lower * (1 - fraction) + upper * fraction;
+        }
+        return result;
+    }
+}
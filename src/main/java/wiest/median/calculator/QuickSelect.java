@@ -0,0 +1,131 @@
+package wiest.median.calculator;
+
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+
+import java.util.Arrays;
+
+/**
+ * In-place selection of the k-th smallest element of an unsorted array in expected linear time.
+ * Uses the same order as {@link Double#compare(double, double)}, i.e. the order of a sorted array.
+ */
+public final class QuickSelect {
+
+    private QuickSelect() {
+    }
+
+    /**
+     * Reorders the range [from, to) of the array so the element at index k is the one a sorted range would have there.
+     * @param k absolute index within [from, to)
+     * @return the k-th smallest element
+     */
+    public static double select(double[] data, int from, int to, int k) {
+        if (k < from || k >= to) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+
+        int low = from;
+        int high = to - 1;
+        while (low < high) {
+            double pivot = medianOfThree(data[low], data[(low + high) >>> 1], data[high]);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (Double.compare(data[i], pivot) < 0) {
+                    i++;
+                }
+                while (Double.compare(data[j], pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    double tmp = data[i];
+                    data[i] = data[j];
+                    data[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                // Everything between j and i equals the pivot
+                return data[k];
+            }
+        }
+        return data[k];
+    }
+
+    /**
+     * Like {@link #select(double[], int, int, int)} for values that are not stored in a single array.
+     */
+    public static double select(DoubleList data, int from, int to, int k) {
+        if (k < from || k >= to) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+
+        int low = from;
+        int high = to - 1;
+        while (low < high) {
+            double pivot = medianOfThree(data.getDouble(low), data.getDouble((low + high) >>> 1), data.getDouble(high));
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (Double.compare(data.getDouble(i), pivot) < 0) {
+                    i++;
+                }
+                while (Double.compare(data.getDouble(j), pivot) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    data.set(i, data.set(j, data.getDouble(i)));
+                    i++;
+                    j--;
+                }
+            }
+
+            if (k <= j) {
+                high = j;
+            } else if (k >= i) {
+                low = i;
+            } else {
+                return data.getDouble(k);
+            }
+        }
+        return data.getDouble(k);
+    }
+
+    /**
+     * Selects the positions in ascending order, each quickselect only has to look at the part of the data
+     * behind the previously selected position.
+     * @return the value for each position in the order of the given positions
+     */
+    public static double[] selectAll(DoubleList data, int[] ks) {
+        Integer[] order = new Integer[ks.length];
+        for (int i = 0; i < ks.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(ks[a], ks[b]));
+
+        double[] result = new double[ks.length];
+        int from = 0;
+        for (int i : order) {
+            result[i] = select(data, from, data.size(), ks[i]);
+            from = ks[i];
+        }
+        return result;
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        if (Double.compare(a, b) > 0) {
+            double tmp = a;
+            a = b;
+            b = tmp;
+        }
+        if (Double.compare(b, c) > 0) {
+            b = c;
+        }
+        return Double.compare(a, b) > 0 ? a : b;
+    }
+}
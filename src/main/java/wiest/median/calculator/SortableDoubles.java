@@ -0,0 +1,22 @@
+package wiest.median.calculator;
+
+/**
+ * Maps doubles to longs whose unsigned order matches the order of {@link Double#compare(double, double)}.
+ * This allows bucketing and delta encoding of doubles based on their IEEE-754 bit patterns.
+ */
+public final class SortableDoubles {
+
+    private SortableDoubles() {
+    }
+
+    public static long toSortableLong(double value) {
+        long bits = Double.doubleToLongBits(value);
+        // Positive values only get their sign bit set, negative values get all bits flipped
+        return bits ^ ((bits >> 63) | Long.MIN_VALUE);
+    }
+
+    public static double fromSortableLong(long sortable) {
+        long bits = sortable ^ ((~sortable >> 63) | Long.MIN_VALUE);
+        return Double.longBitsToDouble(bits);
+    }
+}
@@ -0,0 +1,10 @@
+package wiest.median.calculator.distributed;
+
+public class DistributedMedianException extends RuntimeException {
+    public DistributedMedianException(String message) {
+        super(message);
+    }
+    public DistributedMedianException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,106 @@
+package wiest.median.calculator.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+/**
+ * The connection of the coordinator to one {@link ShardWorker}. Requests and responses are separate calls,
+ * so the coordinator can send a request to every worker before it waits for the first response.
+ */
+class ShardClient implements AutoCloseable {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+
+    private final String name;
+    private final Socket socket;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+
+    ShardClient(InetSocketAddress address) {
+        name = address.getHostString() + ":" + address.getPort();
+        socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(address, CONNECT_TIMEOUT_MILLIS);
+            input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.writeInt(ShardProtocol.MAGIC);
+            output.writeInt(ShardProtocol.VERSION);
+            output.flush();
+            ShardProtocol.readStatus(input, name);
+        } catch (IOException e) {
+            close();
+            throw new DistributedMedianException("Cannot connect to worker " + name, e);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    String getName() {
+        return name;
+    }
+
+    void sendSize() throws IOException {
+        output.writeByte(ShardProtocol.SIZE);
+        output.flush();
+    }
+
+    void sendCountAtMost(double boundary) throws IOException {
+        output.writeByte(ShardProtocol.COUNT_AT_MOST);
+        output.writeDouble(boundary);
+        output.flush();
+    }
+
+    void sendCountRanges(double[] boundaries) throws IOException {
+        output.writeByte(ShardProtocol.COUNT_RANGES);
+        output.writeInt(boundaries.length);
+        for (double boundary : boundaries) {
+            output.writeDouble(boundary);
+        }
+        output.flush();
+    }
+
+    void sendShutdown() throws IOException {
+        output.writeByte(ShardProtocol.SHUTDOWN);
+        output.flush();
+    }
+
+    /**
+     * Receives the response to {@link #sendSize()} or {@link #sendCountAtMost(double)}
+     */
+    long receiveCount() throws IOException {
+        ShardProtocol.readStatus(input, name);
+        return input.readLong();
+    }
+
+    /**
+     * @param boundaryCount number of boundaries sent, there is one range more
+     */
+    long[] receiveRangeCounts(int boundaryCount) throws IOException {
+        ShardProtocol.readStatus(input, name);
+        long[] counts = new long[boundaryCount + 1];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = input.readLong();
+        }
+        return counts;
+    }
+
+    void receiveShutdown() throws IOException {
+        ShardProtocol.readStatus(input, name);
+    }
+
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            throw new DistributedMedianException("Cannot close connection to worker " + name, e);
+        }
+    }
+}
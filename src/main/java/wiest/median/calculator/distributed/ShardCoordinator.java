@@ -0,0 +1,282 @@
+package wiest.median.calculator.distributed;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiest.median.calculator.Quantiles;
+import wiest.median.calculator.SortableDoubles;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Finds the exact median and quantiles of values sharded over several {@link ShardWorker}s without moving the values.
+ *
+ * Each rank is searched in the 64 bit keys of {@link SortableDoubles}: the interval of keys known to contain
+ * the value at the rank is split into {@link #RANGES_PER_ROUND} ranges, the workers count their values per range
+ * and the interval shrinks to the range in which the rank falls. As every round resolves 8 bits of the key,
+ * any rank is found after at most 8 rounds. All ranks share the rounds and every round sends a single request
+ * to each worker, the workers answer in parallel.
+ *
+ * NaN values are not supported, like by the {@link wiest.median.calculator.file.FileDataSet} of the workers.
+ */
+public class ShardCoordinator implements AutoCloseable {
+
+    /**
+     * Number of ranges the key interval of a rank is split into per round
+     */
+    private static final int RANGES_PER_ROUND = 256;
+
+    /**
+     * Keys of all values from negative to positive infinity, the keys beyond are NaNs
+     */
+    private static final long MIN_KEY = SortableDoubles.toSortableLong(Double.NEGATIVE_INFINITY);
+    private static final long MAX_KEY = SortableDoubles.toSortableLong(Double.POSITIVE_INFINITY);
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    @FunctionalInterface
+    private interface Request {
+        void send(ShardClient worker) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Response<T> {
+        T receive(ShardClient worker) throws IOException;
+    }
+
+    private final List<ShardClient> workers = new ArrayList<>();
+    private int lastRoundCount = 0;
+
+    /**
+     * Connects to all workers right away
+     */
+    public ShardCoordinator(List<InetSocketAddress> workerAddresses) {
+        if (workerAddresses.isEmpty()) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        try {
+            for (var address : workerAddresses) {
+                workers.add(new ShardClient(address));
+            }
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of values of all workers
+     */
+    public long getTotalSize() {
+        return queryAll(ShardClient::sendSize, ShardClient::receiveCount).stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * @return the number of values of all workers that are not greater than the boundary
+     */
+    public long countAtMost(double boundary) {
+        return queryAll(worker -> worker.sendCountAtMost(boundary), ShardClient::receiveCount).stream()
+                .mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * @param boundaries sorted ascending without duplicates
+     * @return the number of values of all workers in (-Infinity, b0], (b0, b1], ..., (bn-1, Infinity]
+     */
+    public long[] countRanges(double[] boundaries) {
+        long[] counts = new long[boundaries.length + 1];
+        for (long[] workerCounts : queryAll(worker -> worker.sendCountRanges(boundaries),
+                worker -> worker.receiveRangeCounts(boundaries.length))) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += workerCounts[i];
+            }
+        }
+        return counts;
+    }
+
+    public double calculateMedian() {
+        long size = getTotalSize();
+
+        if (size == 0) {
+            return 0;
+        }
+
+        if (size % 2 == 1) {
+            return valuesAt(new long[] {size/2})[0];
+        } else {
+            var middleEntries = valuesAt(new long[] {size/2-1, size/2});
+            return (middleEntries[0] + middleEntries[1]) / 2;
+        }
+    }
+
+    /**
+     * All ranks needed are searched together, so the number of rounds does not grow with the number of quantiles.
+     */
+    public double[] calculateQuantiles(double... quantiles) {
+        return Quantiles.calculate(getTotalSize(), quantiles, this::valuesAt);
+    }
+
+    /**
+     * @return the number of count rounds the last median or quantile calculation took
+     */
+    public int getLastRoundCount() {
+        return lastRoundCount;
+    }
+
+    /**
+     * Finds the value at each rank of the sorted values of all workers, the smallest key whose count of values
+     * at most that key exceeds the rank.
+     */
+    private double[] valuesAt(long[] ranks) {
+        // The value at each rank has a key within [low, high]
+        long[] low = new long[ranks.length];
+        long[] high = new long[ranks.length];
+        Arrays.fill(low, MIN_KEY);
+        Arrays.fill(high, MAX_KEY);
+        lastRoundCount = 0;
+
+        while (true) {
+            var candidates = new DoubleArrayList();
+            for (int i = 0; i < ranks.length; i++) {
+                if (low[i] != high[i]) {
+                    addCandidates(low[i], high[i], candidates);
+                }
+            }
+            if (candidates.isEmpty()) {
+                break;
+            }
+
+            double[] boundaries = distinctSorted(candidates);
+            long[] rangeCounts = countRanges(boundaries);
+            long[] atMost = new long[boundaries.length];
+            long count = 0;
+            for (int i = 0; i < boundaries.length; i++) {
+                count += rangeCounts[i];
+                atMost[i] = count;
+            }
+            lastRoundCount++;
+
+            for (int i = 0; i < ranks.length; i++) {
+                if (low[i] != high[i]) {
+                    narrow(ranks[i], low, high, i, boundaries, atMost);
+                }
+            }
+        }
+        LOG.debug("Found {} ranks in {} rounds", ranks.length, lastRoundCount);
+
+        double[] result = new double[ranks.length];
+        for (int i = 0; i < ranks.length; i++) {
+            result[i] = SortableDoubles.fromSortableLong(low[i]);
+        }
+        return result;
+    }
+
+    private static void addCandidates(long low, long high, DoubleArrayList candidates) {
+        for (long key : candidateKeys(low, high)) {
+            candidates.add(SortableDoubles.fromSortableLong(key));
+        }
+    }
+
+    /**
+     * Splits the interval [low, high] into at most {@link #RANGES_PER_ROUND} ranges of equal size.
+     * Keys are compared unsigned, all of them lie between {@link #MIN_KEY} and {@link #MAX_KEY}.
+     * @return the last key of every range but the last one, which ends at high
+     */
+    private static long[] candidateKeys(long low, long high) {
+        long width = high - low;
+        // Keys per range rounded up, so the ranges cover all width + 1 keys
+        long step = Long.divideUnsigned(width + RANGES_PER_ROUND, RANGES_PER_ROUND);
+        long[] keys = new long[RANGES_PER_ROUND - 1];
+        int count = 0;
+        while (count < keys.length && Long.compareUnsigned((count + 1) * step - 1, width) < 0) {
+            keys[count] = low + (count + 1) * step - 1;
+            count++;
+        }
+        return Arrays.copyOf(keys, count);
+    }
+
+    /**
+     * Shrinks the interval of the rank to the first range whose end has more values at most than the rank.
+     */
+    private static void narrow(long rank, long[] low, long[] high, int index, double[] boundaries, long[] atMost) {
+        long rangeStart = low[index];
+        for (long key : candidateKeys(low[index], high[index])) {
+            int position = Arrays.binarySearch(boundaries, SortableDoubles.fromSortableLong(key));
+            if (atMost[position] > rank) {
+                high[index] = key;
+                low[index] = rangeStart;
+                return;
+            }
+            rangeStart = key + 1;
+        }
+        low[index] = rangeStart;
+    }
+
+    private static double[] distinctSorted(DoubleArrayList values) {
+        double[] sorted = values.toDoubleArray();
+        Arrays.sort(sorted);
+        int distinctCount = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || Double.compare(sorted[i - 1], sorted[i]) != 0) {
+                sorted[distinctCount++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, distinctCount);
+    }
+
+    /**
+     * Asks every worker to stop, the coordinator cannot be used afterwards
+     */
+    public void shutdownWorkers() {
+        queryAll(ShardClient::sendShutdown, worker -> {
+            worker.receiveShutdown();
+            return null;
+        });
+        close();
+    }
+
+    /**
+     * Sends the request to every worker before receiving the responses. A worker reporting an error is only
+     * thrown after all responses are read, so the connections stay usable.
+     */
+    private <T> List<T> queryAll(Request request, Response<T> response) {
+        try {
+            for (var worker : workers) {
+                request.send(worker);
+            }
+            List<T> results = new ArrayList<>(workers.size());
+            DistributedMedianException failure = null;
+            for (var worker : workers) {
+                try {
+                    results.add(response.receive(worker));
+                } catch (DistributedMedianException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return results;
+        } catch (IOException e) {
+            throw new DistributedMedianException("Lost connection to a worker", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (var worker : workers) {
+            try {
+                worker.close();
+            } catch (DistributedMedianException e) {
+                LOG.warn("Cannot close connection to worker {}", worker.getName(), e);
+            }
+        }
+        workers.clear();
+    }
+}
@@ -0,0 +1,54 @@
+package wiest.median.calculator.distributed;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+
+/**
+ * The binary protocol between the {@link ShardCoordinator} and its {@link ShardWorker}s over a TCP connection,
+ * all numbers are written by {@link java.io.DataOutputStream} in big endian byte order.
+ *
+ * After connecting the coordinator sends {@link #MAGIC} and {@link #VERSION}, the worker answers with a status.
+ * Every request is a command byte followed by its arguments, every response a status byte followed by the result
+ * or by an error message:
+ * <pre>
+ * SIZE                                 -> long number of values
+ * COUNT_AT_MOST double x               -> long number of values not greater than x
+ * COUNT_RANGES int n, double[n] bounds -> long[n + 1] values in (-Infinity, b0], (b0, b1], ..., (bn-1, Infinity]
+ * SHUTDOWN                             -> nothing, the worker stops after answering
+ * </pre>
+ * Only counts are transferred, the values of a shard never leave its worker.
+ */
+final class ShardProtocol {
+
+    static final int MAGIC = 0x4D454431;
+    static final int VERSION = 1;
+
+    static final byte SIZE = 1;
+    static final byte COUNT_AT_MOST = 2;
+    static final byte COUNT_RANGES = 3;
+    static final byte SHUTDOWN = 4;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+
+    /**
+     * Limits the memory a single request can make the worker allocate
+     */
+    static final int MAX_BOUNDARY_COUNT = 1 << 20;
+
+    private ShardProtocol() {
+    }
+
+    /**
+     * Reads the status of a response and throws the error message sent by the worker
+     */
+    static void readStatus(DataInputStream input, String worker) throws IOException {
+        byte status = input.readByte();
+        if (status == STATUS_ERROR) {
+            throw new DistributedMedianException("Worker " + worker + " failed: " + input.readUTF());
+        }
+        if (status != STATUS_OK) {
+            throw new DistributedMedianException("Unexpected status " + status + " from worker " + worker);
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package wiest.median.calculator.distributed;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiest.median.calculator.file.FileMedianCalculator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Answers the count queries of a {@link ShardCoordinator} about the values of one shard, see {@link ShardProtocol}.
+ * The shard is loaded into the calculator beforehand, the worker only reads it. Every connection is served
+ * on its own thread and the queries of all connections are run one at a time.
+ */
+public class ShardWorker implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardWorker.class);
+
+    private final FileMedianCalculator calc;
+    private final ServerSocket serverSocket;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+    private volatile boolean running = true;
+
+    /**
+     * Listens on the loopback interface, so only processes of the same machine can connect
+     * @param port 0 to pick a free port, see {@link #getPort()}
+     */
+    public ShardWorker(FileMedianCalculator calc, int port) {
+        this(calc, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Starts listening right away, the calculator is neither closed nor destroyed by the worker
+     */
+    public ShardWorker(FileMedianCalculator calc, InetSocketAddress address) {
+        this.calc = calc;
+        try {
+            serverSocket = new ServerSocket();
+            serverSocket.bind(address);
+        } catch (IOException e) {
+            throw new DistributedMedianException("Cannot listen on " + address, e);
+        }
+
+        var acceptThread = new Thread(this::acceptConnections, "shard-worker-" + getPort());
+        acceptThread.setDaemon(true);
+        acceptThread.start();
+        LOG.info("Worker listening on port {}", getPort());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Blocks until the worker is closed, either by {@link #close()} or by a coordinator sending a shutdown
+     */
+    public void awaitShutdown() {
+        try {
+            stopped.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DistributedMedianException("Interrupted while waiting for the worker to shut down", e);
+        }
+    }
+
+    private void acceptConnections() {
+        while (running) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!running || serverSocket.isClosed()) {
+                    return;
+                }
+                LOG.warn("Cannot accept connection", e);
+                continue;
+            }
+
+            connections.add(socket);
+            if (!running) {
+                connections.remove(socket);
+                closeQuietly(socket);
+                return;
+            }
+            var connectionThread = new Thread(() -> serve(socket), "shard-worker-connection-" + socket.getPort());
+            connectionThread.setDaemon(true);
+            connectionThread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket;
+             var input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             var output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            if (input.readInt() != ShardProtocol.MAGIC || input.readInt() != ShardProtocol.VERSION) {
+                writeError(output, "Unsupported protocol");
+                return;
+            }
+            output.writeByte(ShardProtocol.STATUS_OK);
+            output.flush();
+
+            while (running) {
+                byte command;
+                try {
+                    command = input.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (!answer(command, input, output)) {
+                    output.flush();
+                    close();
+                    return;
+                }
+                output.flush();
+            }
+        } catch (IOException e) {
+            if (running) {
+                LOG.warn("Connection to coordinator failed", e);
+            }
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Reads the arguments of the command and writes its response, an error of the query is sent to the coordinator.
+     * @return false if the worker has to stop
+     */
+    private boolean answer(byte command, DataInputStream input, DataOutputStream output) throws IOException {
+        switch (command) {
+            case ShardProtocol.SIZE -> {
+                long size;
+                try {
+                    size = getTotalSize();
+                } catch (RuntimeException e) {
+                    writeError(output, e);
+                    return true;
+                }
+                output.writeByte(ShardProtocol.STATUS_OK);
+                output.writeLong(size);
+            }
+            case ShardProtocol.COUNT_AT_MOST -> {
+                double boundary = input.readDouble();
+                long count;
+                try {
+                    count = countAtMost(boundary)[0];
+                } catch (RuntimeException e) {
+                    writeError(output, e);
+                    return true;
+                }
+                output.writeByte(ShardProtocol.STATUS_OK);
+                output.writeLong(count);
+            }
+            case ShardProtocol.COUNT_RANGES -> {
+                int boundaryCount = input.readInt();
+                if (boundaryCount < 0 || boundaryCount > ShardProtocol.MAX_BOUNDARY_COUNT) {
+                    // The rest of the request cannot be skipped safely, so the coordinator is disconnected
+                    writeError(output, "Invalid boundary count " + boundaryCount);
+                    throw new IOException("Invalid boundary count " + boundaryCount);
+                }
+                double[] boundaries = new double[boundaryCount];
+                for (int i = 0; i < boundaryCount; i++) {
+                    boundaries[i] = input.readDouble();
+                }
+                long[] rangeCounts;
+                try {
+                    rangeCounts = countRanges(boundaries);
+                } catch (RuntimeException e) {
+                    writeError(output, e);
+                    return true;
+                }
+                output.writeByte(ShardProtocol.STATUS_OK);
+                for (long count : rangeCounts) {
+                    output.writeLong(count);
+                }
+            }
+            case ShardProtocol.SHUTDOWN -> {
+                output.writeByte(ShardProtocol.STATUS_OK);
+                return false;
+            }
+            default -> {
+                writeError(output, "Unknown command " + command);
+                throw new IOException("Unknown command " + command);
+            }
+        }
+        return true;
+    }
+
+    private long getTotalSize() {
+        synchronized (calc) {
+            return calc.getTotalSize();
+        }
+    }
+
+    private long[] countAtMost(double... boundaries) {
+        synchronized (calc) {
+            return calc.countAtMost(boundaries);
+        }
+    }
+
+    /**
+     * @return the number of values in each range between two boundaries, one more than there are boundaries
+     */
+    private long[] countRanges(double[] boundaries) {
+        long[] atMost;
+        long totalSize;
+        synchronized (calc) {
+            atMost = calc.countAtMost(boundaries);
+            totalSize = calc.getTotalSize();
+        }
+
+        long[] rangeCounts = new long[boundaries.length + 1];
+        long previous = 0;
+        for (int i = 0; i < atMost.length; i++) {
+            rangeCounts[i] = atMost[i] - previous;
+            previous = atMost[i];
+        }
+        rangeCounts[boundaries.length] = totalSize - previous;
+        return rangeCounts;
+    }
+
+    private static void writeError(DataOutputStream output, RuntimeException e) throws IOException {
+        writeError(output, e.getClass().getSimpleName() + ": " + e.getMessage());
+    }
+
+    private static void writeError(DataOutputStream output, String message) throws IOException {
+        output.writeByte(ShardProtocol.STATUS_ERROR);
+        output.writeUTF(message);
+        output.flush();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            LOG.debug("Cannot close connection", e);
+        }
+    }
+
+    /**
+     * Stops listening and disconnects all coordinators
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            throw new DistributedMedianException("Cannot close worker on port " + getPort(), e);
+        } finally {
+            connections.forEach(ShardWorker::closeQuietly);
+            stopped.countDown();
+        }
+    }
+}
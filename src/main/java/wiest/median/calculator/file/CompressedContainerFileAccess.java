@@ -0,0 +1,136 @@
+package wiest.median.calculator.file;
+
+import wiest.median.calculator.SortableDoubles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static wiest.median.calculator.file.CompressedContainerFileWriter.BLOCK_HEADER_SIZE;
+import static wiest.median.calculator.file.CompressedContainerFileWriter.BLOCK_SIZE;
+import static wiest.median.calculator.file.CompressedContainerFileWriter.INDEX_ENTRY_SIZE;
+import static wiest.median.calculator.file.CompressedContainerFileWriter.MAGIC;
+import static wiest.median.calculator.file.CompressedContainerFileWriter.TRAILER_SIZE;
+
+/**
+ * Finds values in a file written by {@link CompressedContainerFileWriter} through the sparse index in its footer.
+ * Only the footer and the block holding the requested value are mapped, the last decoded block is kept.
+ */
+class CompressedContainerFileAccess implements ContainerFileAccess {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer footer;
+    private final int blockCount;
+    private final long footerOffset;
+    private final long entryCount;
+
+    private final long[] decodedBlock = new long[BLOCK_SIZE];
+    private int decodedBlockNumber = -1;
+    private long mappedBytes;
+
+    CompressedContainerFileAccess(File file, long entryCount) {
+        this.entryCount = entryCount;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            long fileSize = channel.size();
+            if (fileSize < TRAILER_SIZE) {
+                throw new FileDataSetException("Container file has no footer: " + file.getName());
+            }
+
+            var trailer = channel.map(FileChannel.MapMode.READ_ONLY, fileSize - TRAILER_SIZE, TRAILER_SIZE);
+            blockCount = trailer.getInt(0);
+            footerOffset = trailer.getLong(Integer.BYTES);
+            if (trailer.getInt(Integer.BYTES + Long.BYTES) != MAGIC) {
+                throw new FileDataSetException("Container file has an invalid footer: " + file.getName());
+            }
+            footer = channel.map(FileChannel.MapMode.READ_ONLY, footerOffset, (long) blockCount * INDEX_ENTRY_SIZE);
+            mappedBytes = TRAILER_SIZE + (long) blockCount * INDEX_ENTRY_SIZE;
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot open container file", e);
+        }
+    }
+
+    @Override
+    public double get(long index) {
+        if (index < 0 || index >= entryCount) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+
+        int block = findBlock(index);
+        if (block != decodedBlockNumber) {
+            decodeBlock(block);
+        }
+        return SortableDoubles.fromSortableLong(decodedBlock[(int) (index - firstIndexOfBlock(block))]);
+    }
+
+    /**
+     * @return the last block whose first index is not larger than the given index
+     */
+    private int findBlock(long index) {
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (firstIndexOfBlock(mid) <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private long offsetOfBlock(int block) {
+        return footer.getLong(block * INDEX_ENTRY_SIZE);
+    }
+
+    private long firstIndexOfBlock(int block) {
+        return footer.getLong(block * INDEX_ENTRY_SIZE + Long.BYTES);
+    }
+
+    private void decodeBlock(int block) {
+        long offset = offsetOfBlock(block);
+        long end = block + 1 < blockCount ? offsetOfBlock(block + 1) : footerOffset;
+        MappedByteBuffer data;
+        try {
+            data = channel.map(FileChannel.MapMode.READ_ONLY, offset, end - offset);
+            mappedBytes += end - offset;
+        } catch (IOException e) {
+            throw new FileDataSetException("Error mapping container file", e);
+        }
+
+        int count = data.getInt(0);
+        long value = data.getLong(Integer.BYTES);
+        decodedBlock[0] = value;
+        data.position(BLOCK_HEADER_SIZE);
+        for (int i = 1; i < count; i++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data.get();
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            value += delta;
+            decodedBlock[i] = value;
+        }
+        decodedBlockNumber = block;
+    }
+
+    @Override
+    public long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new FileDataSetException("Error closing container file", e);
+        }
+    }
+}
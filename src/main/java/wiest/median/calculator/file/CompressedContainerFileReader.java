@@ -0,0 +1,103 @@
+package wiest.median.calculator.file;
+
+import wiest.median.calculator.SortableDoubles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the values of a file written by {@link CompressedContainerFileWriter} decoding one block at a time.
+ */
+class CompressedContainerFileReader implements ContainerFileReader {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long remaining;
+    private int remainingInBlock = 0;
+    private long currentValue;
+    private boolean firstInBlock;
+
+    CompressedContainerFileReader(File file, long entryCount) {
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot open container file", e);
+        }
+        remaining = entryCount;
+        buffer.limit(0);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return remaining > 0;
+    }
+
+    @Override
+    public double nextDouble() {
+        if (remainingInBlock == 0) {
+            readBlockHeader();
+        }
+
+        if (firstInBlock) {
+            firstInBlock = false;
+        } else {
+            currentValue += readVarLong();
+        }
+        remainingInBlock--;
+        remaining--;
+        return SortableDoubles.fromSortableLong(currentValue);
+    }
+
+    private void readBlockHeader() {
+        ensureAvailable(CompressedContainerFileWriter.BLOCK_HEADER_SIZE);
+        remainingInBlock = buffer.getInt();
+        currentValue = buffer.getLong();
+        // The payload size is only needed for random access
+        buffer.getInt();
+        firstInBlock = true;
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            ensureAvailable(1);
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private void ensureAvailable(int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+
+        buffer.compact();
+        try {
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new FileDataSetException("Unexpected end of container file");
+                }
+            }
+        } catch (IOException e) {
+            throw new FileDataSetException("Error during loading dataset from file", e);
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new FileDataSetException("Error closing container file", e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package wiest.median.calculator.file;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import wiest.median.calculator.SortableDoubles;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes sorted values in blocks of up to {@link #BLOCK_SIZE} values.
+ * Each block starts with a header containing the number of values in the block, the first value and the payload size.
+ * The payload stores the difference between consecutive values as unsigned varint. The differences are taken
+ * between the order preserving long representations of the doubles (see {@link SortableDoubles}), so they are
+ * never negative and small for close or equal values.
+ *
+ * After the last block a footer with a sparse index is written: the file offset and the index of the first value
+ * of every block, followed by the block count, the offset of the footer and a magic number.
+ * This allows {@link CompressedContainerFileAccess} to find the k-th value by only reading a single block.
+ */
+class CompressedContainerFileWriter implements ContainerFileWriter {
+
+    static final int BLOCK_SIZE = 4096;
+    /**
+     * Value count (int), first value (long), payload size (int)
+     */
+    static final int BLOCK_HEADER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    /**
+     * Offset (long) and index of the first value (long) of a block
+     */
+    static final int INDEX_ENTRY_SIZE = Long.BYTES + Long.BYTES;
+    /**
+     * Block count (int), footer offset (long), magic number (int)
+     */
+    static final int TRAILER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    static final int MAGIC = 0x4D454449;
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private final FileChannel channel;
+    private final long[] blockValues = new long[BLOCK_SIZE];
+    private final ByteBuffer blockBuffer = ByteBuffer.allocate(BLOCK_HEADER_SIZE + BLOCK_SIZE * MAX_VARINT_BYTES);
+    private final LongArrayList blockIndex = new LongArrayList();
+    private int blockCount = 0;
+    private long count = 0;
+    private long writtenBytes = 0;
+
+    CompressedContainerFileWriter(File file) {
+        try {
+            channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot open container file for writing", e);
+        }
+    }
+
+    @Override
+    public void write(double value) {
+        blockValues[blockCount++] = SortableDoubles.toSortableLong(value);
+        count++;
+        if (blockCount == BLOCK_SIZE) {
+            writeBlock();
+        }
+    }
+
+    private void writeBlock() {
+        if (blockCount == 0) {
+            return;
+        }
+
+        blockBuffer.clear();
+        blockBuffer.position(BLOCK_HEADER_SIZE);
+        for (int i = 1; i < blockCount; i++) {
+            putVarLong(blockValues[i] - blockValues[i - 1]);
+        }
+        int payloadSize = blockBuffer.position() - BLOCK_HEADER_SIZE;
+        blockBuffer.putInt(0, blockCount);
+        blockBuffer.putLong(Integer.BYTES, blockValues[0]);
+        blockBuffer.putInt(Integer.BYTES + Long.BYTES, payloadSize);
+        blockBuffer.flip();
+
+        blockIndex.add(writtenBytes);
+        blockIndex.add(count - blockCount);
+        writeBuffer();
+        blockCount = 0;
+    }
+
+    private void writeFooter() {
+        long footerOffset = writtenBytes;
+        blockBuffer.clear();
+        for (int i = 0; i < blockIndex.size(); i++) {
+            if (blockBuffer.remaining() < Long.BYTES) {
+                blockBuffer.flip();
+                writeBuffer();
+                blockBuffer.clear();
+            }
+            blockBuffer.putLong(blockIndex.getLong(i));
+        }
+        if (blockBuffer.remaining() < TRAILER_SIZE) {
+            blockBuffer.flip();
+            writeBuffer();
+            blockBuffer.clear();
+        }
+        blockBuffer.putInt(blockIndex.size() / 2);
+        blockBuffer.putLong(footerOffset);
+        blockBuffer.putInt(MAGIC);
+        blockBuffer.flip();
+        writeBuffer();
+    }
+
+    private void writeBuffer() {
+        try {
+            while (blockBuffer.hasRemaining()) {
+                writtenBytes += channel.write(blockBuffer);
+            }
+        } catch (IOException e) {
+            throw new FileDataSetException("Error during writing dataset to file", e);
+        }
+    }
+
+    private void putVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            blockBuffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        blockBuffer.put((byte) value);
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    @Override
+    public void close() {
+        writeBlock();
+        writeFooter();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new FileDataSetException("Error closing container file", e);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package wiest.median.calculator.file;
+
+/**
+ * Random access to the sorted values of a container file without loading the whole file.
+ */
+interface ContainerFileAccess extends AutoCloseable {
+
+    /**
+     * @return the value at the given position of the sorted file
+     */
+    double get(long index);
+
+    /**
+     * @return the bytes of the file mapped so far, each mapped part counts as read completely
+     */
+    long getMappedBytes();
+
+    @Override
+    void close();
+
+}
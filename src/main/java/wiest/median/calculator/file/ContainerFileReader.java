@@ -0,0 +1,17 @@
+package wiest.median.calculator.file;
+
+/**
+ * Streams the sorted values of a container file in ascending order.
+ */
+interface ContainerFileReader extends AutoCloseable {
+
+    int BUFFER_SIZE = 1 << 16;
+
+    boolean hasNext();
+
+    double nextDouble();
+
+    @Override
+    void close();
+
+}
@@ -0,0 +1,20 @@
+package wiest.median.calculator.file;
+
+/**
+ * Writes values to a container file, they have to be written in ascending order.
+ */
+interface ContainerFileWriter extends AutoCloseable {
+
+    void write(double value);
+
+    long getCount();
+
+    /**
+     * @return number of bytes the written values take up in the file
+     */
+    long getWrittenBytes();
+
+    @Override
+    void close();
+
+}
@@ -0,0 +1,36 @@
+package wiest.median.calculator.file;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded for every container cache written to disk, on the background flusher thread if there is one.
+ */
+@Name("wiest.median.ContainerFlush")
+@Label("Container Flush")
+@Category({"Median", "Storage"})
+@Description("Cached values of a container merged into or appended to its file")
+class ContainerFlushEvent extends Event {
+
+    @Label("Storage Mode")
+    String storageMode;
+
+    @Label("Flushed Entries")
+    long entryCount;
+
+    @Label("File Entries")
+    @Description("Values in the file after the flush")
+    long fileEntryCount;
+
+    @Label("Read")
+    @DataAmount
+    long readBytes;
+
+    @Label("Written")
+    @DataAmount
+    long writtenBytes;
+}
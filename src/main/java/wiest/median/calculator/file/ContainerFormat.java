@@ -0,0 +1,56 @@
+package wiest.median.calculator.file;
+
+import java.io.File;
+
+/**
+ * How the sorted values of a container are stored on disk
+ */
+public enum ContainerFormat {
+
+    /**
+     * Every value as 8 byte big endian double
+     */
+    RAW {
+        @Override
+        ContainerFileReader openReader(File file, long entryCount) {
+            return new RawContainerFileReader(file, entryCount);
+        }
+
+        @Override
+        ContainerFileWriter openWriter(File file) {
+            return new RawContainerFileWriter(file);
+        }
+
+        @Override
+        ContainerFileAccess openAccess(File file, long entryCount) {
+            return new RawContainerFileAccess(file, entryCount);
+        }
+    },
+
+    /**
+     * Blocks of delta encoded values, see {@link CompressedContainerFileWriter}
+     */
+    COMPRESSED {
+        @Override
+        ContainerFileReader openReader(File file, long entryCount) {
+            return new CompressedContainerFileReader(file, entryCount);
+        }
+
+        @Override
+        ContainerFileWriter openWriter(File file) {
+            return new CompressedContainerFileWriter(file);
+        }
+
+        @Override
+        ContainerFileAccess openAccess(File file, long entryCount) {
+            return new CompressedContainerFileAccess(file, entryCount);
+        }
+    };
+
+    abstract ContainerFileReader openReader(File file, long entryCount);
+
+    abstract ContainerFileWriter openWriter(File file);
+
+    abstract ContainerFileAccess openAccess(File file, long entryCount);
+
+}
@@ -0,0 +1,29 @@
+package wiest.median.calculator.file;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded whenever a whole appended container file is loaded, for a split or a median lookup.
+ */
+@Name("wiest.median.ContainerLoad")
+@Label("Container Load")
+@Category({"Median", "Storage"})
+@Description("An appended container file loaded into memory together with the values to process with it")
+class ContainerLoadEvent extends Event {
+
+    @Label("File Entries")
+    long fileEntryCount;
+
+    @Label("Other Entries")
+    @Description("Values loaded together with the file, usually the cache")
+    long otherEntryCount;
+
+    @Label("Read")
+    @DataAmount
+    long readBytes;
+}
@@ -0,0 +1,38 @@
+package wiest.median.calculator.file;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded for every container split into two new containers.
+ */
+@Name("wiest.median.ContainerSplit")
+@Label("Container Split")
+@Category({"Median", "Storage"})
+@Description("A container file and its cache split into two new files at the middle value")
+class ContainerSplitEvent extends Event {
+
+    @Label("Storage Mode")
+    String storageMode;
+
+    @Label("Split Entries")
+    long entryCount;
+
+    @Label("Lower Entries")
+    long lowerEntryCount;
+
+    @Label("Upper Entries")
+    long upperEntryCount;
+
+    @Label("Read")
+    @DataAmount
+    long readBytes;
+
+    @Label("Written")
+    @DataAmount
+    long writtenBytes;
+}
@@ -0,0 +1,156 @@
+package wiest.median.calculator.file;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The durable description of a persistent {@link FileDataSet}: the value range, file and counts of every container.
+ * Container files referenced by a manifest are never rewritten, merges write a new file and appends only add
+ * behind the recorded size. So the manifest always describes a consistent state, even if the process died
+ * while writing a container.
+ *
+ * The manifest is a small text file that replaces the previous one atomically:
+ * <pre>
+ * median-manifest 1
+ * generation 12
+ * format COMPRESSED SORTED
+ * containers 2
+ * -Infinity 0.5 Median_... 1000 3512
+ * 0.5 Infinity Median_... 1000 3498
+ * </pre>
+ *
+ * @param generation incremented with every manifest written
+ * @param containers sorted by their value range
+ */
+record DataSetManifest(long generation, ContainerFormat containerFormat, StorageMode storageMode,
+                       List<ContainerEntry> containers) {
+
+    static final String FILE_NAME = "manifest";
+    private static final String TEMP_FILE_NAME = FILE_NAME + ".tmp";
+    private static final String HEADER = "median-manifest";
+    private static final int VERSION = 1;
+
+    /**
+     * @param fileName name of the container file within the data set directory
+     * @param fileSizeBytes bytes of the file that belong to the container, an appended file may be longer after a crash
+     */
+    record ContainerEntry(double inclusiveMin, double inclusiveMax, String fileName, long fileNumberCount,
+                          long fileSizeBytes) {
+    }
+
+    /**
+     * @return the manifest of the directory, null if there is none
+     */
+    static DataSetManifest read(Path dir) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(dir.resolve(FILE_NAME));
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot read the manifest of " + dir, e);
+        }
+
+        try {
+            String[] header = lines.get(0).split(" ");
+            if (!header[0].equals(HEADER) || Integer.parseInt(header[1]) != VERSION) {
+                throw new FileDataSetException("Unsupported manifest in " + dir + ": " + lines.get(0));
+            }
+            long generation = Long.parseLong(value(lines.get(1), "generation")[0]);
+            String[] format = value(lines.get(2), "format");
+            int containerCount = Integer.parseInt(value(lines.get(3), "containers")[0]);
+            if (lines.size() < 4 + containerCount) {
+                throw new FileDataSetException("Incomplete manifest in " + dir);
+            }
+
+            List<ContainerEntry> containers = new ArrayList<>(containerCount);
+            for (int i = 0; i < containerCount; i++) {
+                String[] fields = lines.get(4 + i).split(" ");
+                containers.add(new ContainerEntry(Double.parseDouble(fields[0]), Double.parseDouble(fields[1]),
+                        fields[2], Long.parseLong(fields[3]), Long.parseLong(fields[4])));
+            }
+            return new DataSetManifest(generation, ContainerFormat.valueOf(format[0]), StorageMode.valueOf(format[1]),
+                    List.copyOf(containers));
+        } catch (RuntimeException e) {
+            if (e instanceof FileDataSetException fileDataSetException) {
+                throw fileDataSetException;
+            }
+            throw new FileDataSetException("Corrupt manifest in " + dir, e);
+        }
+    }
+
+    private static String[] value(String line, String key) {
+        if (!line.startsWith(key + " ")) {
+            throw new FileDataSetException("Expected " + key + " in manifest but got: " + line);
+        }
+        return line.substring(key.length() + 1).split(" ");
+    }
+
+    /**
+     * Writes the manifest to a temporary file, forces it to disk and moves it over the previous manifest.
+     * The move is forced to disk as well, the caller deletes the files the previous manifest referenced afterwards.
+     */
+    void write(Path dir) {
+        var tempFile = dir.resolve(TEMP_FILE_NAME);
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile)) {
+                writer.write(HEADER + " " + VERSION + "\n");
+                writer.write("generation " + generation + "\n");
+                writer.write("format " + containerFormat + " " + storageMode + "\n");
+                writer.write("containers " + containers.size() + "\n");
+                for (var container : containers) {
+                    writer.write(container.inclusiveMin() + " " + container.inclusiveMax() + " " + container.fileName()
+                            + " " + container.fileNumberCount() + " " + container.fileSizeBytes() + "\n");
+                }
+            }
+            sync(tempFile.toFile());
+            Files.move(tempFile, dir.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            syncDirectory(dir);
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot write the manifest of " + dir, e);
+        }
+    }
+
+    static void delete(Path dir) {
+        try {
+            Files.deleteIfExists(dir.resolve(FILE_NAME));
+            Files.deleteIfExists(dir.resolve(TEMP_FILE_NAME));
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot delete the manifest of " + dir, e);
+        }
+    }
+
+    /**
+     * Forces the entries of the directory to disk. Windows cannot open a directory as a channel,
+     * there the durability of the move is left to the file system.
+     */
+    private static void syncDirectory(Path dir) throws IOException {
+        if (File.separatorChar == '\\') {
+            return;
+        }
+        try (var channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Forces the content of the file to disk, so a manifest never references data that is still only in the page cache.
+     */
+    static void sync(File file) {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot sync file " + file.getName(), e);
+        }
+    }
+}
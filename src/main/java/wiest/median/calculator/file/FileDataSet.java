@@ -6,18 +6,36 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- In an optimal implementation we would allocate our memory only for the in-memory cache and the file size:
+ We allocate our memory only for the in-memory cache and the file size:
  We need to be able to load one full file into memory in addition to the full cache.
  Plus we have some small overhead from the {@link FileDataSet#containers} list and
  the {@link FileDataSetContainer} class.
  For simplicity, we divide the memory evenly between the file size and the cache size.
 
- In the worst case scenario the copying from cache to file could increase memory consumption by 100%
+ The cache lives in pages of a {@link MemoryArena} allocated off-heap with a fixed limit, sorting and merging work
+ on these pages in place. Only the append mode loads whole files, into the work buffer of the arena.
+ So apart from a few fixed size read and write buffers no memory depending on the data size is allocated.
+
+ A data set created by {@link #open(String, int, FileDataSetSettings)} is persistent: after every flush a manifest
+ records the containers of the directory, see {@link DataSetManifest}. {@link #close()} keeps the files, so the
+ data set can be reopened later to add more values or to query it again without reading the input again.
 
  Given more time one could certainly optimize some things here :)
  */
@@ -28,66 +46,597 @@ public class FileDataSet {
      */
     private static final int MAGIC_MEMORY_SPLIT_FACTOR = 2;
 
+    /**
+     * Fill level of the cache pages in percent at which a container is handed to the background flusher,
+     * the remaining pages keep the input flowing while the flush is running
+     */
+    private static final int FLUSH_WATERMARK_PERCENT = 75;
+
+    /**
+     * Appended files are loaded into the work buffer of the arena, a single direct buffer holds at most 2 GB.
+     * The memory beyond that goes to the cache.
+     */
+    private static final long MAX_APPEND_FILE_ENTRY_COUNT = Integer.MAX_VALUE / Double.BYTES;
+
+    /**
+     * A container cache is an int indexed list that is loaded together with an appended file,
+     * with more cache memory than this a container writes its cache on its own
+     */
+    private static final int MAX_CONTAINER_CACHE_COUNT = Integer.MAX_VALUE / 2;
+
     private static final Logger LOG = LoggerFactory.getLogger(FileDataSet.class);
 
-    private final int maxCacheEntryCount;
-    private final int maxFileEntryCount;
+    private final long maxCacheEntryCount;
+    private final long maxFileEntryCount;
+    /**
+     * Number of values a single container caches at most, only checked if the cache can hold more in total
+     */
+    private final int maxContainerCacheCount;
+    private final boolean limitContainerCache;
+    private final MemoryArena arena;
+    private final int freePagesAtWatermark;
+    private final String fileDir;
+    private final FileDataSetSettings settings;
+    /**
+     * Containers sorted by their value range, each one caches its own values in memory
+     */
     private final List<FileDataSetContainer> containers = new ArrayList<>();
-    private final DoubleList memoryCache;
+    /**
+     * The inclusive maximum of each container in {@link #containers} to route values by binary search
+     */
+    private final DoubleArrayList containerMaxima = new DoubleArrayList();
+    /**
+     * Writes one container at a time in the background, null if flushes run on the calling thread
+     */
+    private final ExecutorService flusher;
+    /**
+     * The flush running in the background. Only one flush is pending at a time,
+     * so no other container operation has to wait for it unless it touches the flushed container.
+     */
+    private Future<?> pendingFlush;
+    /**
+     * The cache data written by the pending flush, its pages are returned to the arena once the flush is done
+     */
+    private DoubleList pendingFlushData;
+    /**
+     * The container written by the pending flush and the number of values its file holds once the flush is done,
+     * so metrics can be taken without waiting for the flush
+     */
+    private FileDataSetContainer pendingFlushContainer;
+    private long pendingFlushFileCount;
+    /**
+     * Number of values ever added, to relate the bytes written to disk to the input size
+     */
+    private long addedEntryCount = 0;
+    /**
+     * Number of values in the container caches, including the ones of a pending flush until it is done
+     */
+    private long cachedEntryCount = 0;
+    /**
+     * Bytes written to disk, the background flusher adds the bytes of a flush as soon as it is done
+     */
+    private final AtomicLong writtenBytes = new AtomicLong();
+    /**
+     * Bytes read by containers that were replaced by a split, the others keep count themselves
+     */
+    private long replacedReadBytes = 0;
+    private int flushCount = 0;
+    private int splitCount = 0;
+    private final long createdNanos = System.nanoTime();
+    /**
+     * Whether a manifest is written after every flush and the files are kept on {@link #close()}
+     */
+    private final boolean persistent;
+    private long manifestGeneration = 0;
+    /**
+     * Containers whose files changed since the last manifest, they are forced to disk before it is written
+     */
+    private final Set<FileDataSetContainer> unsyncedContainers = new HashSet<>();
+    /**
+     * Files of split containers, deleted once the manifest does not reference them anymore
+     */
+    private final List<File> obsoleteFiles = new ArrayList<>();
+    /**
+     * Set while all caches are written on close, the manifest is written once afterwards
+     */
+    private boolean deferManifest = false;
 
     public FileDataSet(String fileDir, int maxDataInMemoryKb) {
+        this(fileDir, maxDataInMemoryKb, FileDataSetSettings.defaults());
+    }
+
+    public FileDataSet(String fileDir, int maxDataInMemoryKb, FileDataSetSettings settings) {
+        this(fileDir, maxDataInMemoryKb, settings, newArena(maxDataInMemoryKb, settings.storageMode()), List.of());
+    }
+
+    /**
+     * Creates a data set that takes over the containers written by
+     * {@link #writeSorted(String, int, FileDataSetSettings, DoubleList)}.
+     * @param arena created by {@link #newArena(int, StorageMode)} with the same memory and storage mode
+     */
+    FileDataSet(String fileDir, int maxDataInMemoryKb, FileDataSetSettings settings, MemoryArena arena,
+                List<DataSetManifest.ContainerEntry> sortedContainers) {
+        this(fileDir, settings, cacheEntryCountOf(maxDataInMemoryKb, settings.storageMode()),
+                fileEntryCountOf(maxDataInMemoryKb, settings.storageMode()), arena, false, false);
+        LOG.info("Creating dataset that can cache {} doubles in memory and {} in files stored {} {} - up to {} bytes off-heap",
+                maxCacheEntryCount, maxFileEntryCount, settings.storageMode(), settings.effectiveContainerFormat(),
+                arena.getReservedBytes());
+        if (sortedContainers.isEmpty()) {
+            return;
+        }
+
+        containers.get(0).deleteLocalStorage();
+        removeContainer(0);
+        for (var entry : sortedContainers) {
+            addContainer(containers.size(), FileDataSetContainer.restore(fileDir, entry.inclusiveMin(),
+                    entry.inclusiveMax(), settings, arena, new File(fileDir, entry.fileName()),
+                    entry.fileNumberCount(), entry.fileSizeBytes()));
+            addedEntryCount += entry.fileNumberCount();
+            writtenBytes.addAndGet(entry.fileSizeBytes());
+        }
+    }
+
+    /**
+     * @return the off-heap memory of a data set with the given memory, nothing is allocated until it is used
+     */
+    static MemoryArena newArena(int maxDataInMemoryKb, StorageMode storageMode) {
+        return new MemoryArena(cacheEntryCountOf(maxDataInMemoryKb, storageMode),
+                storageMode == StorageMode.APPEND ? (int) fileEntryCountOf(maxDataInMemoryKb, storageMode) : 0);
+    }
+
+    /**
+     * Writes values sorted ascending to containers of half the file size a data set with the given memory uses,
+     * without allocating any memory depending on their number. So the caller can release the values before
+     * the data set taking over the containers needs the memory for its cache.
+     *
+     * @return the containers in ascending order, their ranges cover all values
+     */
+    static List<DataSetManifest.ContainerEntry> writeSorted(String fileDir, int maxDataInMemoryKb,
+                                                            FileDataSetSettings settings, DoubleList sorted) {
+        createDir(fileDir);
+        int containerSize = (int) Math.max(1, fileEntryCountOf(maxDataInMemoryKb, settings.storageMode()) / 2);
+        int count = sorted.size();
+        List<DataSetManifest.ContainerEntry> entries = new ArrayList<>();
+        double min = Double.NEGATIVE_INFINITY;
+        for (int from = 0; from < count; from += containerSize) {
+            int to = (int) Math.min(count, (long) from + containerSize);
+            double max = to == count ? Double.POSITIVE_INFINITY : sorted.getDouble(to - 1);
+            entries.add(FileDataSetContainer.writeSorted(fileDir, min, max, settings.effectiveContainerFormat(),
+                    sorted, from, to));
+            min = max;
+        }
+        return entries;
+    }
+
+    private static void createDir(String fileDir) {
         File dir = new File(fileDir);
         if (!dir.exists()) {
-            if (!dir.mkdir()) {
+            if (!dir.mkdirs()) {
                 throw new FileDataSetException("Cannot create data dir");
             }
         }
+    }
+
+    /**
+     * Creates a data set whose cache lives in an arena shared with other data sets, see {@link GroupedFileDataSet}.
+     * The owner of the arena decides which data set has to free memory, so this data set only writes its own
+     * cache when no page is left at all and it never flushes in the background.
+     */
+    FileDataSet(String fileDir, FileDataSetSettings settings, long maxFileEntryCount, MemoryArena sharedArena) {
+        this(fileDir, settings.withAsyncFlushing(false),
+                (long) sharedArena.getPageCount() * sharedArena.getPageEntries(), maxFileEntryCount, sharedArena,
+                true, false);
+    }
+
+    private FileDataSet(String fileDir, FileDataSetSettings settings, long maxCacheEntryCount, long maxFileEntryCount,
+                        MemoryArena arena, boolean sharedArena, boolean persistent) {
+        this.fileDir = fileDir;
+        this.settings = settings;
+        this.persistent = persistent;
+        createDir(fileDir);
 
-        long entryCount = maxDataInMemoryKb * 1024L / Double.BYTES;
-        if (entryCount > Integer.MAX_VALUE) {
-            throw new FileDataSetException("Cannot store more entries than an Integer can index for now");
+        this.maxCacheEntryCount = maxCacheEntryCount;
+        this.maxFileEntryCount = maxFileEntryCount;
+        maxContainerCacheCount = (int) Math.min(maxFileEntryCount, MAX_CONTAINER_CACHE_COUNT);
+        limitContainerCache = maxCacheEntryCount > maxContainerCacheCount;
+        this.arena = arena;
+        freePagesAtWatermark = sharedArena ? 0 : arena.getPageCount() * (100 - FLUSH_WATERMARK_PERCENT) / 100;
+        flusher = settings.asyncFlushing() ? Executors.newSingleThreadExecutor(runnable -> {
+            var thread = new Thread(runnable, "median-flusher");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        addContainer(0, new FileDataSetContainer(fileDir, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY,
+                settings, arena));
+    }
+
+    /**
+     * Opens the persistent data set stored in the directory, or creates a new one if the directory has no manifest.
+     * A directory holds a single persistent data set, its container files must not be shared with other data sets.
+     *
+     * After a crash the data set is recovered to the last manifest written, i.e. to the last completed flush.
+     * Container files not referenced by the manifest are deleted, appended files are cut to their recorded size.
+     * The container format and storage mode are taken from the manifest, the given settings only apply to a new one.
+     */
+    public static FileDataSet open(String fileDir, int maxDataInMemoryKb, FileDataSetSettings settings) {
+        var manifest = DataSetManifest.read(Path.of(fileDir));
+        if (manifest != null) {
+            settings = settings.withContainerFormat(manifest.containerFormat()).withStorageMode(manifest.storageMode());
+        }
+        var dataSet = new FileDataSet(fileDir, settings, cacheEntryCountOf(maxDataInMemoryKb, settings.storageMode()),
+                fileEntryCountOf(maxDataInMemoryKb, settings.storageMode()),
+                newArena(maxDataInMemoryKb, settings.storageMode()), false, true);
+        if (manifest == null) {
+            dataSet.writeManifest();
+            LOG.info("Created persistent dataset in {}", fileDir);
+        } else {
+            dataSet.restore(manifest);
+            LOG.info("Reopened dataset with {} values in {} containers from {} - manifest generation {}",
+                    dataSet.getTotalSize(), dataSet.getContainerCount(), fileDir, manifest.generation());
         }
+        return dataSet;
+    }
 
-        maxCacheEntryCount = (int) entryCount / MAGIC_MEMORY_SPLIT_FACTOR;
-        maxFileEntryCount = (int) entryCount - maxCacheEntryCount;
-        containers.add(new FileDataSetContainer(fileDir, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
-        LOG.info("Creating dataset that can cache {} doubles in memory and {} in files",
-                maxCacheEntryCount, maxFileEntryCount);
+    /**
+     * Replaces the initial container by the containers of the manifest and deletes all other container files.
+     */
+    private void restore(DataSetManifest manifest) {
+        containers.get(0).deleteLocalStorage();
+        removeContainer(0);
+        manifestGeneration = manifest.generation();
+
+        Set<String> referencedFiles = new HashSet<>();
+        for (var entry : manifest.containers()) {
+            var file = new File(fileDir, entry.fileName());
+            if (!file.exists() || file.length() < entry.fileSizeBytes()) {
+                throw new FileDataSetException("Container file " + entry.fileName() + " of the manifest is missing or incomplete");
+            }
+            if (file.length() > entry.fileSizeBytes()) {
+                // Values appended after the last manifest was written
+                truncate(file, entry.fileSizeBytes());
+            }
+            referencedFiles.add(entry.fileName());
+            var container = FileDataSetContainer.restore(fileDir, entry.inclusiveMin(), entry.inclusiveMax(),
+                    settings, arena, file, entry.fileNumberCount(), entry.fileSizeBytes());
+            if (settings.storageMode() == StorageMode.APPEND && entry.fileNumberCount() > maxFileEntryCount) {
+                restorePartitioned(container, referencedFiles);
+            } else {
+                addContainer(containers.size(), container);
+            }
+        }
+
+        var files = new File(fileDir).listFiles((dir, name) -> name.startsWith("Median_")
+                && !referencedFiles.contains(name));
+        for (var orphan : files == null ? new File[0] : files) {
+            LOG.debug("Deleting container file {} not referenced by the manifest", orphan.getName());
+            FileDataSetContainer.deleteReplacedFile(orphan);
+        }
+        if (!obsoleteFiles.isEmpty()) {
+            writeManifest();
+        }
+    }
+
+    /**
+     * An appended file written with more memory does not fit into the work buffer anymore, so it is partitioned
+     * into containers that do. The file stays until the new manifest references the partitions instead.
+     */
+    private void restorePartitioned(FileDataSetContainer container, Set<String> referencedFiles) {
+        var parts = container.partitionToFit(maxFileEntryCount);
+        for (var part : parts) {
+            addContainer(containers.size(), part);
+            referencedFiles.add(part.getStorageFile().getName());
+            unsyncedContainers.add(part);
+            writtenBytes.addAndGet(part.getWrittenBytes());
+        }
+        writtenBytes.addAndGet(container.getWrittenBytes());
+        replacedReadBytes += container.getReadBytes();
+        obsoleteFiles.add(container.getStorageFile());
+        LOG.info("Partitioned container file {} of {} values into {} containers that fit into memory",
+                container.getStorageFile().getName(), container.getFileNumberCount(), parts.size());
+    }
+
+    private static void truncate(File file, long size) {
+        try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot truncate container file " + file.getName(), e);
+        }
+    }
+
+    /**
+     * @return the number of doubles the in-memory cache can hold with the given memory
+     */
+    static long cacheEntryCountOf(int maxDataInMemoryKb, StorageMode storageMode) {
+        return entryCountOf(maxDataInMemoryKb) - fileEntryCountOf(maxDataInMemoryKb, storageMode);
+    }
+
+    /**
+     * @return the number of doubles a container file can hold with the given memory
+     */
+    static long fileEntryCountOf(int maxDataInMemoryKb, StorageMode storageMode) {
+        long entryCount = entryCountOf(maxDataInMemoryKb);
+        long fileEntryCount = entryCount - entryCount / MAGIC_MEMORY_SPLIT_FACTOR;
+        return storageMode == StorageMode.APPEND ? Math.min(fileEntryCount, MAX_APPEND_FILE_ENTRY_COUNT) : fileEntryCount;
+    }
 
-        memoryCache = new DoubleArrayList(maxCacheEntryCount);
+    static long entryCountOf(int maxDataInMemoryKb) {
+        return maxDataInMemoryKb * 1024L / Double.BYTES;
+    }
+
+    /**
+     * Replaces the single initial container by one container per range between the given boundaries,
+     * so values are distributed right away instead of through a cascade of splits that rewrite the same values.
+     * Containers that still grow too large are split as usual.
+     *
+     * @param boundaries strictly increasing values, each one is the inclusive maximum of a container
+     */
+    public void prePartition(double[] boundaries) {
+        awaitPendingFlush();
+        if (containers.size() != 1 || getTotalSize() != 0) {
+            throw new FileDataSetException("Only an empty data set can be partitioned");
+        }
+        for (int i = 1; i < boundaries.length; i++) {
+            if (!(boundaries[i - 1] < boundaries[i])) {
+                throw new IllegalArgumentException("Partition boundaries have to be strictly increasing");
+            }
+        }
+
+        if (persistent) {
+            // Still referenced by the manifest until the partitioned containers are recorded
+            obsoleteFiles.add(containers.get(0).getStorageFile());
+        } else {
+            containers.get(0).deleteLocalStorage();
+        }
+        removeContainer(0);
+        double min = Double.NEGATIVE_INFINITY;
+        for (double boundary : boundaries) {
+            addContainer(containers.size(), new FileDataSetContainer(fileDir, min, boundary, settings, arena));
+            min = boundary;
+        }
+        addContainer(containers.size(), new FileDataSetContainer(fileDir, min, Double.POSITIVE_INFINITY, settings, arena));
+        flushCompleted();
+        LOG.info("Partitioned dataset into {} containers", containers.size());
     }
 
     public void addNumber(double number) {
         LOG.trace("Adding number: {}", number);
-        if (memoryCache.size() >= maxCacheEntryCount-1) {
-            LOG.debug("Max Cache Count hit - Total entry count: {}", getTotalSize());
-            storeLargestContainer();
+        if (arena.getFreePageCount() <= freePagesAtWatermark) {
+            makeRoomInCache();
+        }
+
+        var container = getMatchingContainer(number);
+        container.addToCache(number);
+        addedEntryCount++;
+        cachedEntryCount++;
+        if (limitContainerCache && container.getCacheNumberCount() >= maxContainerCacheCount) {
+            storeFullContainer(container);
+        }
+    }
+
+    /**
+     * Adds a batch of values. Every value needs at most one new page, so as many values as there are pages
+     * above the flush watermark are routed and added without checking the cache in between.
+     * A value in the range of the container of the previous value skips the search, so sorted batches are
+     * routed by a single pass over the containers.
+     */
+    public void addNumbers(double[] numbers, int offset, int length) {
+        int end = offset + length;
+        int next = offset;
+        while (next < end) {
+            int pagesAboveWatermark = arena.getFreePageCount() - freePagesAtWatermark;
+            if (pagesAboveWatermark <= 0) {
+                makeRoomInCache();
+                pagesAboveWatermark = 1;
+            }
+
+            int chunkEnd = (int) Math.min(end, (long) next + pagesAboveWatermark);
+            FileDataSetContainer container = null;
+            for (int i = next; i < chunkEnd; i++) {
+                double number = numbers[i];
+                if (container == null || !(container.getInclusiveMin() <= number && number <= container.getInclusiveMax())) {
+                    container = getMatchingContainer(number);
+                }
+                container.addToCache(number);
+                if (limitContainerCache && container.getCacheNumberCount() >= maxContainerCacheCount) {
+                    addedEntryCount += i + 1 - next;
+                    cachedEntryCount += i + 1 - next;
+                    next = i + 1;
+                    storeFullContainer(container);
+                    break;
+                }
+            }
+            if (next < chunkEnd) {
+                addedEntryCount += chunkEnd - next;
+                cachedEntryCount += chunkEnd - next;
+                next = chunkEnd;
+            }
         }
+    }
 
-        var matchingContainer = getMatchingContainer(number);
-        matchingContainer.increaseCacheEntryCount();
-        memoryCache.add(number);
+    /**
+     * Keeps at least one free page in the arena since any added value may need a new page.
+     * Once the cache passes the flush watermark the largest container cache is written by the background flusher
+     * while new values go into fresh pages. Only if no page is left the pending flush is awaited.
+     */
+    private void makeRoomInCache() {
+        if (pendingFlush != null && (pendingFlush.isDone() || arena.getFreePageCount() == 0)) {
+            awaitPendingFlush();
+        }
+        if (pendingFlush == null && (flusher != null || arena.getFreePageCount() == 0)) {
+            LOG.debug("Max Cache Count hit - Total entry count: {}", addedEntryCount);
+            storeLargestContainer();
+            if (arena.getFreePageCount() == 0) {
+                awaitPendingFlush();
+            }
+        }
     }
 
+    /**
+     * Containers are sorted and their ranges are adjacent, so the matching container is the first one
+     * whose maximum is not smaller than the number.
+     */
     private FileDataSetContainer getMatchingContainer(double number) {
-        return containers.stream()
-                .filter(ds -> ds.getInclusiveMin() <= number && number <= ds.getInclusiveMax())
-                .findAny()
-                .orElseThrow(() -> new IllegalStateException(String.format("No dataset exists for value %f", number)));
+        int low = 0;
+        int high = containerMaxima.size() - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (containerMaxima.getDouble(mid) < number) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+
+        var container = containers.get(low);
+        if (!(container.getInclusiveMin() <= number && number <= container.getInclusiveMax())) {
+            throw new IllegalStateException(String.format("No dataset exists for value %f", number));
+        }
+        return container;
     }
 
+    /**
+     * Splits synchronously if the container becomes too large, otherwise the cache data is written
+     * by the background flusher if there is one. Must only be called without a pending flush.
+     */
     private void storeLargestContainer() {
-        var maxDataContainer = getLargestContainer();
-        var cacheData = getCacheEntriesForContainer(maxDataContainer);
-        memoryCache.removeAll(cacheData);
+        storeContainer(getLargestContainer());
+    }
+
+    /**
+     * Writes a container whose cache reached the limit of a single container although the cache has room left.
+     */
+    private void storeFullContainer(FileDataSetContainer container) {
+        awaitPendingFlush();
+        LOG.debug("Container cache full - {}", container);
+        storeContainer(container);
+    }
+
+    private void storeContainer(FileDataSetContainer maxDataContainer) {
+        var cacheData = maxDataContainer.takeCache();
 
-        if (maxDataContainer.getTotalEntryCount() > maxFileEntryCount) {
+        if (maxDataContainer.getTotalEntryCount() + cacheData.size() > maxFileEntryCount) {
             splitAndStoreContainer(maxDataContainer, cacheData);
+            releaseCache(cacheData);
+            flushCompleted();
+        } else if (flusher == null) {
+            writtenBytes.addAndGet(writeToFile(maxDataContainer, cacheData));
+            releaseCache(cacheData);
+            flushCount++;
+            unsyncedContainers.add(maxDataContainer);
+            flushCompleted();
         } else {
-            maxDataContainer.mergeAndWriteToFile(cacheData);
+            pendingFlush = flusher.submit(() -> {
+                writtenBytes.addAndGet(writeToFile(maxDataContainer, cacheData));
+            });
+            pendingFlushData = cacheData;
+            pendingFlushContainer = maxDataContainer;
+            pendingFlushFileCount = maxDataContainer.getFileNumberCount() + cacheData.size();
+            flushCount++;
+            unsyncedContainers.add(maxDataContainer);
         }
 
-        LOG.debug("Reduced cache to: {} entries", memoryCache.size());
+        LOG.debug("Reduced cache to: {} free pages", arena.getFreePageCount());
+    }
+
+    private void releaseCache(DoubleList cacheData) {
+        cachedEntryCount -= cacheData.size();
+        FileDataSetContainer.releaseCache(cacheData);
+    }
+
+    /**
+     * Writes the cache of the container holding the most cached values to disk, used by the owner of a shared
+     * arena to free memory.
+     */
+    void spillLargestContainer() {
+        awaitPendingFlush();
+        if (cachedEntryCount > 0) {
+            storeLargestContainer();
+        }
+    }
+
+    /**
+     * @return the bytes written to disk
+     */
+    private static long writeToFile(FileDataSetContainer container, DoubleList cacheData) {
+        var event = new ContainerFlushEvent();
+        event.begin();
+        long writtenBefore = container.getWrittenBytes();
+        long readBefore = container.getReadBytes();
+        container.writeToFile(cacheData);
+        long written = container.getWrittenBytes() - writtenBefore;
+        if (event.shouldCommit()) {
+            event.storageMode = container.getStorageMode().name();
+            event.entryCount = cacheData.size();
+            event.fileEntryCount = container.getFileNumberCount();
+            event.readBytes = container.getReadBytes() - readBefore;
+            event.writtenBytes = written;
+            event.commit();
+        }
+        return written;
+    }
+
+    /**
+     * Waits until the background flusher has written the pending container, afterwards all containers
+     * can be accessed by the calling thread again.
+     */
+    private void awaitPendingFlush() {
+        if (pendingFlush == null) {
+            return;
+        }
+
+        try {
+            pendingFlush.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileDataSetException("Interrupted while waiting for the cache to be written", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new FileDataSetException("Error writing cache to file", e.getCause());
+        } finally {
+            pendingFlush = null;
+            releaseCache(pendingFlushData);
+            pendingFlushData = null;
+            pendingFlushContainer = null;
+        }
+        flushCompleted();
+    }
+
+    /**
+     * Records the containers of a persistent data set in a new manifest after every flush or split,
+     * so a reopen after a crash recovers all values written until then.
+     */
+    private void flushCompleted() {
+        if (persistent && !deferManifest) {
+            writeManifest();
+        }
+    }
+
+    /**
+     * Forces the changed container files to disk, replaces the manifest and then deletes the files
+     * the previous manifest referenced but the new one does not. Must only be called without a pending flush.
+     */
+    private void writeManifest() {
+        List<DataSetManifest.ContainerEntry> entries = new ArrayList<>(containers.size());
+        for (var container : containers) {
+            if (unsyncedContainers.contains(container)) {
+                DataSetManifest.sync(container.getStorageFile());
+            }
+            entries.add(new DataSetManifest.ContainerEntry(container.getInclusiveMin(), container.getInclusiveMax(),
+                    container.getStorageFile().getName(), container.getFileNumberCount(),
+                    container.getFileSizeBytes()));
+        }
+        unsyncedContainers.clear();
+        manifestGeneration++;
+        new DataSetManifest(manifestGeneration, settings.effectiveContainerFormat(), settings.storageMode(), entries)
+                .write(Path.of(fileDir));
+
+        for (var container : containers) {
+            container.takeReplacedFiles().forEach(FileDataSetContainer::deleteReplacedFile);
+        }
+        obsoleteFiles.forEach(FileDataSetContainer::deleteReplacedFile);
+        obsoleteFiles.clear();
     }
 
     private FileDataSetContainer getLargestContainer() {
@@ -96,38 +645,183 @@ public class FileDataSet {
                 .orElseThrow(() -> new IllegalStateException("Cache not initialized"));
     }
 
-    private DoubleList getCacheEntriesForContainer(FileDataSetContainer container) {
-        return new DoubleArrayList(memoryCache.doubleStream()
-                .filter(d -> d >= container.getInclusiveMin() && d <= container.getInclusiveMax())
-                .iterator());
-    }
-
     private void splitAndStoreContainer(FileDataSetContainer targetContainer, DoubleList cacheData) {
+        var event = new ContainerSplitEvent();
+        event.begin();
+        long readBefore = targetContainer.getReadBytes();
+        long entryCount = targetContainer.getFileNumberCount() + cacheData.size();
         var splitResult = targetContainer.splitInHalf(cacheData);
         var containerIndex = containers.indexOf(targetContainer);
 
-        containers.add(containerIndex, splitResult.getUpperContainer());
-        containers.add(containerIndex, splitResult.getLowerContainer());
+        removeContainer(containerIndex);
+        addContainer(containerIndex, splitResult.getUpperContainer());
+        addContainer(containerIndex, splitResult.getLowerContainer());
+        long splitWrittenBytes = splitResult.getLowerContainer().getWrittenBytes()
+                + splitResult.getUpperContainer().getWrittenBytes();
+        writtenBytes.addAndGet(splitWrittenBytes);
+        replacedReadBytes += targetContainer.getReadBytes();
+        if (event.shouldCommit()) {
+            event.storageMode = targetContainer.getStorageMode().name();
+            event.entryCount = entryCount;
+            event.lowerEntryCount = splitResult.getLowerContainer().getFileNumberCount();
+            event.upperEntryCount = splitResult.getUpperContainer().getFileNumberCount();
+            event.readBytes = targetContainer.getReadBytes() - readBefore;
+            event.writtenBytes = splitWrittenBytes;
+            event.commit();
+        }
 
+        splitCount++;
         LOG.debug("Split data file {} into {} and {}", targetContainer, splitResult.getLowerContainer(), splitResult.getUpperContainer());
 
-        targetContainer.deleteLocalStorage();
-        containers.remove(targetContainer);
+        unsyncedContainers.remove(targetContainer);
+        if (persistent) {
+            obsoleteFiles.add(targetContainer.getStorageFile());
+            obsoleteFiles.addAll(targetContainer.takeReplacedFiles());
+            unsyncedContainers.add(splitResult.getLowerContainer());
+            unsyncedContainers.add(splitResult.getUpperContainer());
+        } else {
+            targetContainer.deleteLocalStorage();
+        }
     }
 
-    public int getTotalSize() {
-        return containers.stream()
-                .reduce(0, (sum, container) -> sum + container.getTotalEntryCount(), Integer::sum);
+    private void addContainer(int index, FileDataSetContainer container) {
+        if (persistent) {
+            container.retainReplacedFiles();
+        }
+        containers.add(index, container);
+        containerMaxima.add(index, container.getInclusiveMax());
+    }
+
+    private void removeContainer(int index) {
+        containers.remove(index);
+        containerMaxima.removeDouble(index);
+    }
+
+    /**
+     * Logs how much disk space the stored values take up compared to storing them uncompressed
+     * and how many bytes were written to disk in total compared to the size of the input values
+     */
+    public void logStorageStatistics() {
+        awaitPendingFlush();
+        long fileEntries = 0;
+        long fileBytes = 0;
+        for (var container : containers) {
+            fileEntries += container.getFileNumberCount();
+            fileBytes += container.getFileSizeBytes();
+        }
+
+        if (fileBytes > 0) {
+            LOG.info("Stored {} values in {} bytes on disk in {} containers after {} splits - compression ratio {}",
+                    fileEntries, fileBytes, containers.size(), splitCount,
+                    String.format("%.2f", (double) fileEntries * Double.BYTES / fileBytes));
+        }
+        if (addedEntryCount > 0) {
+            LOG.info("Wrote {} bytes to disk for {} input bytes in {} mode - write amplification {}",
+                    writtenBytes.get(), addedEntryCount * Double.BYTES, settings.storageMode(),
+                    String.format("%.2f", getWriteAmplification()));
+        }
+    }
+
+    MemoryArena getArena() {
+        return arena;
+    }
+
+    long getCachedEntryCount() {
+        return cachedEntryCount;
+    }
+
+    boolean hasPendingFlush() {
+        return pendingFlush != null;
+    }
+
+    long getWrittenBytes() {
+        awaitPendingFlush();
+        return writtenBytes.get();
     }
 
-    public double getEntryAtIndex(int index) {
+    long getReadBytes() {
+        awaitPendingFlush();
+        return getCurrentReadBytes();
+    }
+
+    /**
+     * @return the bytes read so far, including the ones of a pending flush up to now
+     */
+    private long getCurrentReadBytes() {
+        long readBytes = replacedReadBytes;
+        for (var container : containers) {
+            readBytes += container.getReadBytes();
+        }
+        return readBytes;
+    }
+
+    /**
+     * @return how the values added since the data set was created are stored
+     */
+    public StorageMetrics getMetrics() {
+        return getMetrics(createdNanos);
+    }
+
+    /**
+     * Does not wait for a pending flush: the written bytes are counted once it is done,
+     * the flushed container already counts with the values it is writing.
+     * @param startNanos {@link System#nanoTime()} at which adding values started
+     */
+    StorageMetrics getMetrics(long startNanos) {
+        long[] containerSizes = new long[containers.size()];
+        for (int i = 0; i < containerSizes.length; i++) {
+            var container = containers.get(i);
+            containerSizes[i] = container == pendingFlushContainer
+                    ? pendingFlushFileCount + container.getCacheNumberCount()
+                    : container.getTotalEntryCount();
+        }
+        Arrays.sort(containerSizes);
+        double cacheFillLevel = 1 - (double) arena.getFreePageCount() / arena.getPageCount();
+        return new StorageMetrics(addedEntryCount, System.nanoTime() - startNanos, flushCount, splitCount,
+                getCurrentReadBytes(), writtenBytes.get(), cacheFillLevel, containerSizes.length, containerSizes[0],
+                containerSizes[containerSizes.length / 2], containerSizes[containerSizes.length - 1]);
+    }
+
+    public long getMaxFileEntryCount() {
+        return maxFileEntryCount;
+    }
+
+    public int getContainerCount() {
+        return containers.size();
+    }
+
+    public int getSplitCount() {
+        return splitCount;
+    }
+
+    public int getFlushCount() {
+        return flushCount;
+    }
+
+    /**
+     * @return all bytes written to disk divided by the bytes of all added values
+     */
+    public double getWriteAmplification() {
+        awaitPendingFlush();
+        return addedEntryCount == 0 ? 0 : (double) writtenBytes.get() / (addedEntryCount * Double.BYTES);
+    }
+
+    public long getTotalSize() {
+        awaitPendingFlush();
+        long totalSize = 0;
+        for (var container : containers) {
+            totalSize += container.getTotalEntryCount();
+        }
+        return totalSize;
+    }
+
+    public double getEntryAtIndex(long index) {
+        awaitPendingFlush();
         if (index >= 0) {
-            int entryCounter = 0;
+            long entryCounter = 0;
             for (var container : containers) {
                 if (entryCounter + container.getTotalEntryCount() > index) {
-                    var cacheData = getCacheEntriesForContainer(container);
-                    var mergedData = container.getMergedStorageData(cacheData);
-                    return mergedData.getDouble(index - entryCounter);
+                    return container.getEntryAtIndex(index - entryCounter);
                 }
                 entryCounter += container.getTotalEntryCount();
             }
@@ -136,10 +830,160 @@ public class FileDataSet {
         throw new IllegalArgumentException("Index out of bounds");
     }
 
+    /**
+     * Looks up the values at several positions at once, every container is accessed at most once.
+     * @return the value for each index in the order of the given indices
+     */
+    public double[] getEntriesAtIndices(long[] indices) {
+        awaitPendingFlush();
+        long totalSize = getTotalSize();
+        Integer[] order = new Integer[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i] < 0 || indices[i] >= totalSize) {
+                throw new IllegalArgumentException("Index out of bounds");
+            }
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong(i -> indices[i]));
+
+        var event = new MedianQueryEvent();
+        event.begin();
+        double[] result = new double[indices.length];
+        int next = 0;
+        long entryCounter = 0;
+        int accessedContainerCount = 0;
+        long readBytes = 0;
+        for (var container : containers) {
+            long containerEnd = entryCounter + container.getTotalEntryCount();
+            int groupEnd = next;
+            while (groupEnd < order.length && indices[order[groupEnd]] < containerEnd) {
+                groupEnd++;
+            }
+
+            if (groupEnd > next) {
+                long[] localIndices = new long[groupEnd - next];
+                for (int i = next; i < groupEnd; i++) {
+                    localIndices[i - next] = indices[order[i]] - entryCounter;
+                }
+                long readBefore = container.getReadBytes();
+                double[] values = container.getEntriesAtIndices(localIndices);
+                readBytes += container.getReadBytes() - readBefore;
+                accessedContainerCount++;
+                for (int i = next; i < groupEnd; i++) {
+                    result[order[i]] = values[i - next];
+                }
+                next = groupEnd;
+            }
+            entryCounter = containerEnd;
+        }
+        if (event.shouldCommit()) {
+            event.rankCount = indices.length;
+            event.totalEntryCount = totalSize;
+            event.accessedContainerCount = accessedContainerCount;
+            event.readBytes = readBytes;
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Counts the values that are not greater than each boundary. Containers entirely below or above a boundary
+     * are counted from their sizes, only the containers whose range contains a boundary are accessed.
+     * @param boundaries sorted ascending without duplicates
+     * @return the count for each boundary
+     */
+    public long[] countAtMost(double[] boundaries) {
+        checkAscending(boundaries);
+        awaitPendingFlush();
+        long[] counts = new long[boundaries.length];
+        for (var container : containers) {
+            int first = 0;
+            while (first < boundaries.length && boundaries[first] < container.getInclusiveMin()) {
+                first++;
+            }
+            int end = first;
+            while (end < boundaries.length && !(container.getInclusiveMax() < boundaries[end])) {
+                end++;
+            }
+
+            if (end > first && container.getTotalEntryCount() > 0) {
+                long[] containerCounts = container.countAtMost(Arrays.copyOfRange(boundaries, first, end));
+                for (int i = first; i < end; i++) {
+                    counts[i] += containerCounts[i - first];
+                }
+            }
+            for (int i = end; i < boundaries.length; i++) {
+                counts[i] += container.getTotalEntryCount();
+            }
+        }
+        return counts;
+    }
+
+    static void checkAscending(double[] boundaries) {
+        for (int i = 1; i < boundaries.length; i++) {
+            if (Double.compare(boundaries[i - 1], boundaries[i]) >= 0) {
+                throw new IllegalArgumentException("Boundaries have to be sorted ascending without duplicates");
+            }
+        }
+    }
+
+    /**
+     * Writes all cached values to disk and records them in the manifest, so a persistent data set can be reopened
+     * with {@link #open(String, int, FileDataSetSettings)}. The cache is released and the files are kept.
+     * A data set that is not persistent is destroyed instead, nothing could reopen its files.
+     */
+    public void close() {
+        if (!persistent) {
+            destroy();
+            return;
+        }
+
+        try {
+            awaitPendingFlush();
+            deferManifest = true;
+            while (cachedEntryCount > 0) {
+                storeLargestContainer();
+                awaitPendingFlush();
+            }
+            deferManifest = false;
+            writeManifest();
+            LOG.info("Closed dataset with {} values in {} containers", getTotalSize(), containers.size());
+        } finally {
+            if (flusher != null) {
+                flusher.shutdown();
+            }
+        }
+        containers.clear();
+        containerMaxima.clear();
+    }
+
+    /**
+     * Deletes all files of the data set, including the manifest of a persistent one.
+     */
     public void destroy() {
+        try {
+            awaitPendingFlush();
+        } finally {
+            if (flusher != null) {
+                flusher.shutdown();
+            }
+            for (var container : containers) {
+                container.deleteLocalStorage();
+            }
+            if (persistent) {
+                obsoleteFiles.forEach(FileDataSetContainer::deleteReplacedFile);
+                obsoleteFiles.clear();
+                DataSetManifest.delete(Path.of(fileDir));
+            }
+        }
         for (var container : containers) {
-            container.deleteLocalStorage();
+            FileDataSetContainer.releaseCache(container.takeCache());
         }
         containers.clear();
+        containerMaxima.clear();
+        addedEntryCount = 0;
+        cachedEntryCount = 0;
+        writtenBytes.set(0);
+        splitCount = 0;
     }
 }
@@ -1,15 +1,22 @@
 package wiest.median.calculator.file;
 
+import it.unimi.dsi.fastutil.doubles.AbstractDoubleList;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
-import it.unimi.dsi.fastutil.io.BinIO;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import wiest.median.calculator.QuickSelect;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
-import java.util.stream.DoubleStream;
+import java.util.function.LongToDoubleFunction;
 
 
 public class FileDataSetContainer {
@@ -19,39 +26,202 @@ public class FileDataSetContainer {
     private final double inclusiveMin;
     private final double inclusiveMax;
     private final String dir;
+    private final ContainerFormat format;
+    private final StorageMode storageMode;
+    /**
+     * Memory of the cache and for loading the file, null to use the heap
+     */
+    private final MemoryArena arena;
 
-    private int memoryCacheCount = 0;
-    private final File storageFile;
+    /**
+     * Values of this container that have not been written to the file yet
+     */
+    private DoubleList memoryCache;
+    private File storageFile;
+    /**
+     * Files replaced by merges that may still be referenced by the manifest of a persistent data set,
+     * null if replaced files are overwritten right away
+     */
+    private List<File> replacedFiles;
 
-    private int fileNumberCount = 0;
+    private long fileNumberCount = 0;
+    private long fileSizeBytes = 0;
+    /**
+     * All bytes this container has written to disk so far, including rewrites of the same values.
+     * Like the read bytes only changed by the thread writing the container, but read by metrics on other threads.
+     */
+    private volatile long writtenBytes = 0;
+    /**
+     * All bytes this container has read from disk so far, for lookups the mapped parts of the file
+     */
+    private volatile long readBytes = 0;
 
     public FileDataSetContainer(String dir, double inclusiveMin, double inclusiveMax) {
-        this(dir, inclusiveMin, inclusiveMax, new DoubleArrayList());
+        this(dir, inclusiveMin, inclusiveMax, ContainerFormat.COMPRESSED);
+    }
+
+    public FileDataSetContainer(String dir, double inclusiveMin, double inclusiveMax, ContainerFormat format) {
+        this(dir, inclusiveMin, inclusiveMax, format, new DoubleArrayList());
     }
 
     public FileDataSetContainer(String dir, double inclusiveMin, double inclusiveMax, DoubleList initData) {
+        this(dir, inclusiveMin, inclusiveMax, ContainerFormat.COMPRESSED, initData);
+    }
+
+    public FileDataSetContainer(String dir, double inclusiveMin, double inclusiveMax, ContainerFormat format, DoubleList initData) {
+        this(dir, inclusiveMin, inclusiveMax, format, StorageMode.SORTED, null, createStorageFile(dir), 0, 0);
+        writeToFile(initData);
+    }
+
+    public FileDataSetContainer(String dir, double inclusiveMin, double inclusiveMax, FileDataSetSettings settings) {
+        this(dir, inclusiveMin, inclusiveMax, settings, null);
+    }
+
+    /**
+     * @param arena memory for the cache and for loading the file, null to use the heap
+     */
+    FileDataSetContainer(String dir, double inclusiveMin, double inclusiveMax, FileDataSetSettings settings,
+                         MemoryArena arena) {
+        this(dir, inclusiveMin, inclusiveMax, settings.effectiveContainerFormat(), settings.storageMode(), arena,
+                createStorageFile(dir), 0, 0);
+    }
+
+    /**
+     * Takes over an already written storage file, sorted unless the storage mode is {@link StorageMode#APPEND}
+     */
+    private FileDataSetContainer(String dir, double inclusiveMin, double inclusiveMax, ContainerFormat format,
+                                 StorageMode storageMode, MemoryArena arena, File storageFile, long fileNumberCount,
+                                 long fileSizeBytes) {
         this.inclusiveMin = inclusiveMin;
         this.inclusiveMax = inclusiveMax;
         this.dir = dir;
+        this.format = format;
+        this.storageMode = storageMode;
+        this.arena = arena;
+        this.memoryCache = newCache();
+        this.storageFile = storageFile;
+        this.fileNumberCount = fileNumberCount;
+        this.fileSizeBytes = fileSizeBytes;
+        this.writtenBytes = fileSizeBytes;
+    }
 
-        storageFile = new File(dir + "/Median_" + UUID.randomUUID());
+    /**
+     * Takes over a container file recorded in the manifest of a persistent data set or written by
+     * {@link #writeSorted(String, double, double, ContainerFormat, DoubleList, int, int)}.
+     */
+    static FileDataSetContainer restore(String dir, double inclusiveMin, double inclusiveMax,
+                                        FileDataSetSettings settings, MemoryArena arena, File storageFile,
+                                        long fileNumberCount, long fileSizeBytes) {
+        var container = new FileDataSetContainer(dir, inclusiveMin, inclusiveMax, settings.effectiveContainerFormat(),
+                settings.storageMode(), arena, storageFile, fileNumberCount, fileSizeBytes);
+        container.writtenBytes = 0;
+        return container;
+    }
+
+    /**
+     * Writes the sorted values to a new file, to be taken over once the memory arena of the data set exists.
+     */
+    static DataSetManifest.ContainerEntry writeSorted(String dir, double inclusiveMin, double inclusiveMax,
+                                                      ContainerFormat format, DoubleList sorted, int from, int to) {
+        var file = createStorageFile(dir);
+        var writer = format.openWriter(file);
         try {
-            boolean success = storageFile.createNewFile();
+            for (int i = from; i < to; i++) {
+                writer.write(sorted.getDouble(i));
+            }
+        } finally {
+            writer.close();
+        }
+        return new DataSetManifest.ContainerEntry(inclusiveMin, inclusiveMax, file.getName(), to - from,
+                writer.getWrittenBytes());
+    }
+
+    /**
+     * Merges write a new file from now on instead of replacing the file, see {@link #takeReplacedFiles()}.
+     */
+    void retainReplacedFiles() {
+        if (replacedFiles == null) {
+            replacedFiles = new ArrayList<>();
+        }
+    }
+
+    /**
+     * @return the files replaced since the last call, to be deleted once no manifest references them anymore
+     */
+    List<File> takeReplacedFiles() {
+        if (replacedFiles == null || replacedFiles.isEmpty()) {
+            return List.of();
+        }
+        var files = replacedFiles;
+        replacedFiles = new ArrayList<>();
+        return files;
+    }
+
+    File getStorageFile() {
+        return storageFile;
+    }
+
+    private DoubleList newCache() {
+        return arena == null ? new DoubleArrayList() : new PagedDoubleList(arena);
+    }
+
+    /**
+     * Returns the memory of a cache taken by {@link #takeCache()} once it is not needed anymore.
+     */
+    static void releaseCache(DoubleList cacheData) {
+        if (cacheData instanceof PagedDoubleList pagedCache) {
+            pagedCache.release();
+        }
+    }
+
+    private static File createStorageFile(String dir) {
+        var file = new File(dir + "/Median_" + UUID.randomUUID());
+        try {
+            boolean success = file.createNewFile();
             if (!success) {
                 throw new FileDataSetException("File creation not successful");
             }
         } catch (IOException e) {
             throw new FileDataSetException("Cannot create local storage file", e);
         }
-        mergeAndWriteToFile(initData);
+        return file;
     }
 
-    public int getTotalEntryCount() {
-        return memoryCacheCount + fileNumberCount;
+    public long getTotalEntryCount() {
+        return memoryCache.size() + fileNumberCount;
     }
 
     public int getCacheNumberCount() {
-        return memoryCacheCount;
+        return memoryCache.size();
+    }
+
+    public long getFileNumberCount() {
+        return fileNumberCount;
+    }
+
+    /**
+     * @return size of the values stored in the file in bytes
+     */
+    public long getFileSizeBytes() {
+        return fileSizeBytes;
+    }
+
+    /**
+     * @return all bytes this container has read from disk, lookups count the parts of the file they mapped
+     */
+    public long getReadBytes() {
+        return readBytes;
+    }
+
+    /**
+     * @return all bytes this container has written to disk, files created by a split count as written by them
+     */
+    public long getWrittenBytes() {
+        return writtenBytes;
+    }
+
+    public StorageMode getStorageMode() {
+        return storageMode;
     }
 
     public double getInclusiveMin() {
@@ -62,68 +232,516 @@ public class FileDataSetContainer {
         return inclusiveMax;
     }
 
-    public void increaseCacheEntryCount() {
-        memoryCacheCount++;
+    public void addToCache(double number) {
+        memoryCache.add(number);
     }
 
-    public void mergeAndWriteToFile(DoubleList dataToMerge) {
+    public DoubleList getCacheData() {
+        return memoryCache;
+    }
+
+    /**
+     * Hands over the cached values without copying them, the container continues with an empty cache.
+     */
+    public DoubleList takeCache() {
+        var cacheData = memoryCache;
+        memoryCache = newCache();
+        return cacheData;
+    }
+
+    /**
+     * Writes the cached values to the file and empties the cache.
+     */
+    public void flushCache() {
+        var cacheData = takeCache();
+        writeToFile(cacheData);
+        releaseCache(cacheData);
+    }
+
+    /**
+     * Stores the given values in the file, merging or appending them depending on the storage mode.
+     */
+    public void writeToFile(DoubleList data) {
+        if (storageMode == StorageMode.APPEND) {
+            appendToFile(data);
+        } else {
+            mergeAndWriteToFile(data);
+        }
+    }
+
+    /**
+     * Writes the values unsorted behind the values already in the file, nothing already stored is read or rewritten.
+     */
+    public void appendToFile(DoubleList data) {
+        LOG.debug("Appending to file: {}", this);
+
+        var writer = new RawContainerFileWriter(storageFile, true);
         try {
-            LOG.debug("Writing to file: {}", this);
+            for (int i = 0; i < data.size(); i++) {
+                writer.write(data.getDouble(i));
+            }
+        } finally {
+            writer.close();
+        }
+        fileNumberCount += writer.getCount();
+        fileSizeBytes += writer.getWrittenBytes();
+        writtenBytes += writer.getWrittenBytes();
+    }
 
-            // TODO: Compress this file to save disk space as numbers can be compressed quite well usually
-            var storedData = getMergedStorageData(dataToMerge);
-            fileNumberCount = storedData.size();
-            BinIO.storeDoubles(storedData.iterator(), storageFile);
+    /**
+     * Sorts only the new data and merges it with the already sorted file into a new file in a single linear pass.
+     * The new file replaces the old one once it is completely written.
+     * Array lists and caches in the memory arena are sorted in place to avoid a copy.
+     */
+    public void mergeAndWriteToFile(DoubleList dataToMerge) {
+        LOG.debug("Writing to file: {}", this);
 
-            memoryCacheCount = 0;
+        var sortedData = sortedList(dataToMerge);
+        readBytes += fileSizeBytes;
+        var mergedFile = replacedFiles == null ? new File(storageFile.getPath() + ".merge") : createStorageFile(dir);
+        var writer = format.openWriter(mergedFile);
+        try (var merged = new MergedReader(sortedData)) {
+            while (merged.hasNext()) {
+                writer.write(merged.nextDouble());
+            }
+        } finally {
+            writer.close();
+        }
 
-        } catch (IOException e) {
-            throw new FileDataSetException("Error during writing dataset to file", e);
+        if (replacedFiles != null) {
+            replacedFiles.add(storageFile);
+            storageFile = mergedFile;
+        } else {
+            try {
+                Files.move(mergedFile.toPath(), storageFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                throw new FileDataSetException("Error during writing dataset to file", e);
+            }
         }
+        fileNumberCount = writer.getCount();
+        fileSizeBytes = writer.getWrittenBytes();
+        writtenBytes += writer.getWrittenBytes();
     }
 
+    /**
+     * Copies all values to the heap, only meant for small containers, e.g. to verify them.
+     */
     public DoubleList getMergedStorageData(DoubleList dataToMerge) {
-        return DoubleArrayList.wrap(
-                DoubleStream.concat(getStoredData().doubleStream(), dataToMerge.doubleStream())
-                .sorted().toArray()
-        );
+        if (storageMode == StorageMode.APPEND) {
+            double[] data = loadWith(dataToMerge).toDoubleArray();
+            Arrays.sort(data);
+            return DoubleArrayList.wrap(data);
+        }
+
+        var sortedData = sortedList(dataToMerge);
+        double[] mergedData = new double[Math.toIntExact(fileNumberCount + dataToMerge.size())];
+        try (var merged = new MergedReader(sortedData)) {
+            for (int i = 0; i < mergedData.length; i++) {
+                mergedData[i] = merged.nextDouble();
+            }
+        }
+        return DoubleArrayList.wrap(mergedData);
     }
 
-    private DoubleList getStoredData() {
-        try {
-            return DoubleArrayList.wrap(BinIO.loadDoubles(storageFile));
-        } catch (IOException e) {
-            throw new FileDataSetException("Error during loading dataset from file", e);
+    /**
+     * Finds the value at the given position of the sorted file and cache data without loading the file.
+     * The cache is sorted in memory, the file is only accessed at the few positions a binary search needs.
+     */
+    public double getEntryAtIndex(long index) {
+        return getEntriesAtIndices(new long[] {index})[0];
+    }
+
+    /**
+     * Like {@link #getEntryAtIndex(long)} for several positions, sorting the cache and opening the file only once.
+     */
+    public double[] getEntriesAtIndices(long[] indices) {
+        int cacheSize = memoryCache.size();
+        for (long index : indices) {
+            if (index < 0 || index >= fileNumberCount + cacheSize) {
+                throw new IllegalArgumentException("Index out of bounds");
+            }
+        }
+
+        if (storageMode == StorageMode.APPEND) {
+            // An appended file and the cache are loaded together, so their size fits into an int
+            int[] positions = new int[indices.length];
+            for (int i = 0; i < indices.length; i++) {
+                positions[i] = (int) indices[i];
+            }
+            return QuickSelect.selectAll(loadWith(memoryCache), positions);
+        }
+
+        var sortedCache = sortedList(memoryCache);
+        double[] result = new double[indices.length];
+        if (fileNumberCount == 0) {
+            for (int i = 0; i < indices.length; i++) {
+                result[i] = sortedCache.getDouble((int) indices[i]);
+            }
+            return result;
+        }
+
+        try (var file = format.openAccess(storageFile, fileNumberCount)) {
+            for (int i = 0; i < indices.length; i++) {
+                result[i] = findMergedEntry(file, sortedCache, cacheSize, indices[i]);
+            }
+            readBytes += file.getMappedBytes();
+        }
+        return result;
+    }
+
+    /**
+     * Counts the values of the file and the cache that are not greater than each boundary in the order of
+     * {@link Double#compare(double, double)}. Like the lookups a sorted file is only accessed at the positions
+     * a binary search needs, an appended file is loaded once.
+     * @param boundaries sorted ascending
+     */
+    public long[] countAtMost(double[] boundaries) {
+        if (storageMode == StorageMode.APPEND) {
+            return countAtMost(loadWith(memoryCache), boundaries);
+        }
+
+        var sortedCache = sortedList(memoryCache);
+        long[] counts = new long[boundaries.length];
+        for (int i = 0; i < boundaries.length; i++) {
+            counts[i] = countSortedAtMost(index -> sortedCache.getDouble((int) index), sortedCache.size(), boundaries[i]);
+        }
+        if (fileNumberCount == 0) {
+            return counts;
+        }
+
+        try (var file = format.openAccess(storageFile, fileNumberCount)) {
+            for (int i = 0; i < boundaries.length; i++) {
+                counts[i] += countSortedAtMost(file::get, fileNumberCount, boundaries[i]);
+            }
+            readBytes += file.getMappedBytes();
+        }
+        return counts;
+    }
+
+    /**
+     * Counts unsorted values by assigning each one to the first boundary it does not exceed.
+     * @param boundaries sorted ascending without duplicates
+     */
+    static long[] countAtMost(DoubleList values, double[] boundaries) {
+        long[] counts = new long[boundaries.length];
+        for (int i = 0; i < values.size(); i++) {
+            int index = Arrays.binarySearch(boundaries, values.getDouble(i));
+            if (index < 0) {
+                index = -index - 1;
+            }
+            if (index < boundaries.length) {
+                counts[index]++;
+            }
+        }
+        for (int i = 1; i < counts.length; i++) {
+            counts[i] += counts[i - 1];
+        }
+        return counts;
+    }
+
+    /**
+     * @return the number of leading values of the sorted sequence that are not greater than the boundary
+     */
+    private static long countSortedAtMost(LongToDoubleFunction sorted, long size, double boundary) {
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (Double.compare(sorted.applyAsDouble(mid), boundary) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Loads all values of an appended file followed by the given values into one list.
+     * With a memory arena the file is loaded into its work buffer and the given values are not copied,
+     * so the result is only valid until the work buffer is used again.
+     */
+    private DoubleList loadWith(DoubleList data) {
+        var event = new ContainerLoadEvent();
+        event.begin();
+        var loaded = loadFileWith(data);
+        readBytes += fileSizeBytes;
+        if (event.shouldCommit()) {
+            event.fileEntryCount = fileNumberCount;
+            event.otherEntryCount = data.size();
+            event.readBytes = fileSizeBytes;
+            event.commit();
         }
+        return loaded;
     }
 
+    private DoubleList loadFileWith(DoubleList data) {
+        if (arena == null) {
+            int fileCount = Math.toIntExact(fileNumberCount);
+            double[] values = new double[Math.toIntExact((long) fileCount + data.size())];
+            try (var reader = new RawContainerFileReader(storageFile, fileCount)) {
+                for (int i = 0; i < fileCount; i++) {
+                    values[i] = reader.nextDouble();
+                }
+            }
+            data.getElements(0, values, fileCount, data.size());
+            return DoubleArrayList.wrap(values);
+        }
+
+        var workBuffer = arena.getWorkBuffer();
+        if (fileNumberCount > workBuffer.capacity() || fileNumberCount + data.size() > Integer.MAX_VALUE) {
+            throw new FileDataSetException("Container file does not fit into the work buffer of the memory arena");
+        }
+        int fileCount = (int) fileNumberCount;
+        try (var reader = new RawContainerFileReader(storageFile, fileCount)) {
+            for (int i = 0; i < fileCount; i++) {
+                workBuffer.put(i, reader.nextDouble());
+            }
+        }
+        return new LoadedValues(workBuffer, fileCount, data);
+    }
+
+    /**
+     * Searches how many of the smallest index + 1 values come from the cache, the rest comes from the file.
+     */
+    private double findMergedEntry(ContainerFileAccess file, DoubleList sortedCache, int cacheSize, long index) {
+        long needed = index + 1;
+        int low = (int) Math.max(0, needed - fileNumberCount);
+        int high = (int) Math.min(needed, cacheSize);
+        while (true) {
+            int fromCache = (low + high) >>> 1;
+            long fromFile = needed - fromCache;
+            if (fromCache < cacheSize && fromFile > 0
+                    && Double.compare(file.get(fromFile - 1), sortedCache.getDouble(fromCache)) > 0) {
+                low = fromCache + 1;
+            } else if (fromCache > 0 && fromFile < fileNumberCount
+                    && Double.compare(sortedCache.getDouble(fromCache - 1), file.get(fromFile)) > 0) {
+                high = fromCache - 1;
+            } else if (fromCache == 0) {
+                return file.get(fromFile - 1);
+            } else if (fromFile == 0) {
+                return sortedCache.getDouble(fromCache - 1);
+            } else {
+                double fileValue = file.get(fromFile - 1);
+                double cacheValue = sortedCache.getDouble(fromCache - 1);
+                return Double.compare(fileValue, cacheValue) > 0 ? fileValue : cacheValue;
+            }
+        }
+    }
+
+    /**
+     * Splits the file and the given cache data at their merged middle element directly into two new files.
+     */
     public ContainerSplitResult splitInHalf(DoubleList cacheData) {
-        var totalEntries = getMergedStorageData(cacheData);
-        if (totalEntries.size() < 2) {
+        long totalEntries = fileNumberCount + cacheData.size();
+        if (totalEntries < 2) {
             throw new FileDataSetException("Cannot split file with less than two elements in half");
         }
 
-        var splitIndex = totalEntries.size() / 2;
-        var splitElement = totalEntries.getDouble(splitIndex);
+        long splitIndex = totalEntries / 2;
+        if (storageMode == StorageMode.APPEND) {
+            return partitionInHalf(cacheData, (int) splitIndex);
+        }
+
+        var sortedData = sortedList(cacheData);
+        readBytes += fileSizeBytes;
+        var lowerFile = createStorageFile(this.dir);
+        var upperFile = createStorageFile(this.dir);
+        double splitElement;
+        long lowerFileSize;
+        long upperFileSize;
+
+        try (var merged = new MergedReader(sortedData)) {
+            var lowerWriter = format.openWriter(lowerFile);
+            try {
+                for (long i = 0; i < splitIndex; i++) {
+                    lowerWriter.write(merged.nextDouble());
+                }
+            } finally {
+                lowerWriter.close();
+            }
+            lowerFileSize = lowerWriter.getWrittenBytes();
+
+            var upperWriter = format.openWriter(upperFile);
+            try {
+                splitElement = merged.nextDouble();
+                upperWriter.write(splitElement);
+                while (merged.hasNext()) {
+                    upperWriter.write(merged.nextDouble());
+                }
+            } finally {
+                upperWriter.close();
+            }
+            upperFileSize = upperWriter.getWrittenBytes();
+        }
 
         var lowerContainer = new FileDataSetContainer(
                 this.dir,
                 this.getInclusiveMin(),
                 splitElement,
-                totalEntries.subList(0, splitIndex));
+                this.format,
+                this.storageMode,
+                this.arena,
+                lowerFile,
+                splitIndex,
+                lowerFileSize);
         var upperContainer = new FileDataSetContainer(
                 this.dir,
                 splitElement,
                 this.getInclusiveMax(),
-                totalEntries.subList(splitIndex, totalEntries.size()));
+                this.format,
+                this.storageMode,
+                this.arena,
+                upperFile,
+                totalEntries - splitIndex,
+                upperFileSize);
+
+        return new ContainerSplitResult(lowerContainer, upperContainer);
+    }
+
+    /**
+     * Loads the appended file together with the cache data and partitions it around the middle element with a
+     * quickselect, both halves are written unsorted again.
+     */
+    private ContainerSplitResult partitionInHalf(DoubleList cacheData, int splitIndex) {
+        var data = loadWith(cacheData);
+        double splitElement = QuickSelect.select(data, 0, data.size(), splitIndex);
+        var lowerFile = createStorageFile(this.dir);
+        var upperFile = createStorageFile(this.dir);
+        long lowerFileSize = writeRange(lowerFile, data, 0, splitIndex);
+        long upperFileSize = writeRange(upperFile, data, splitIndex, data.size());
+
+        var lowerContainer = new FileDataSetContainer(this.dir, this.getInclusiveMin(), splitElement,
+                this.format, this.storageMode, this.arena, lowerFile, splitIndex, lowerFileSize);
+        var upperContainer = new FileDataSetContainer(this.dir, splitElement, this.getInclusiveMax(),
+                this.format, this.storageMode, this.arena, upperFile, data.size() - splitIndex, upperFileSize);
+        return new ContainerSplitResult(lowerContainer, upperContainer);
+    }
+
+    /**
+     * Partitions an appended file that does not fit into the work buffer of the arena, e.g. after a persistent
+     * data set was reopened with less memory, into containers of at most maxEntryCount values. Each partition
+     * streams the file around the median of a sample, so the file is never loaded as a whole.
+     * The file of this container is kept, the files of intermediate partitions are deleted.
+     *
+     * @return this container if its file fits already
+     */
+    List<FileDataSetContainer> partitionToFit(long maxEntryCount) {
+        if (fileNumberCount <= maxEntryCount) {
+            return List.of(this);
+        }
+
+        var halves = streamInHalf(sampleMedian());
+        List<FileDataSetContainer> parts = new ArrayList<>();
+        for (var half : List.of(halves.getLowerContainer(), halves.getUpperContainer())) {
+            var halfParts = half.partitionToFit(maxEntryCount);
+            if (halfParts.size() > 1) {
+                readBytes += half.readBytes;
+                writtenBytes += half.writtenBytes;
+                deleteReplacedFile(half.storageFile);
+            }
+            parts.addAll(halfParts);
+        }
+        return parts;
+    }
+
+    /**
+     * @return the median of every n-th value of the file, as many as the work buffer holds
+     */
+    private double sampleMedian() {
+        var workBuffer = arena.getWorkBuffer();
+        long step = (fileNumberCount + workBuffer.capacity() - 1) / workBuffer.capacity();
+        int sampleCount = 0;
+        try (var reader = new RawContainerFileReader(storageFile, fileNumberCount)) {
+            for (long i = 0; i < fileNumberCount; i++) {
+                double value = reader.nextDouble();
+                if (i % step == 0) {
+                    workBuffer.put(sampleCount++, value);
+                }
+            }
+        }
+        readBytes += fileSizeBytes;
+        var sample = new LoadedValues(workBuffer, sampleCount, new DoubleArrayList());
+        return QuickSelect.select(sample, 0, sampleCount, sampleCount / 2);
+    }
+
+    /**
+     * Writes the values below the pivot to the lower and the values above to the upper file, values equal to
+     * the pivot go to the file with fewer values so even a file of a single repeated value is halved.
+     */
+    private ContainerSplitResult streamInHalf(double pivot) {
+        var lowerFile = createStorageFile(this.dir);
+        var upperFile = createStorageFile(this.dir);
+        var lowerWriter = new RawContainerFileWriter(lowerFile);
+        var upperWriter = new RawContainerFileWriter(upperFile);
+        long lowerCount = 0;
+        try (var reader = new RawContainerFileReader(storageFile, fileNumberCount)) {
+            for (long i = 0; i < fileNumberCount; i++) {
+                double value = reader.nextDouble();
+                int comparison = Double.compare(value, pivot);
+                if (comparison < 0 || comparison == 0 && lowerCount <= i - lowerCount) {
+                    lowerWriter.write(value);
+                    lowerCount++;
+                } else {
+                    upperWriter.write(value);
+                }
+            }
+        } finally {
+            lowerWriter.close();
+            upperWriter.close();
+        }
+        readBytes += fileSizeBytes;
 
+        var lowerContainer = new FileDataSetContainer(this.dir, this.getInclusiveMin(), pivot, this.format,
+                this.storageMode, this.arena, lowerFile, lowerCount, lowerWriter.getWrittenBytes());
+        var upperContainer = new FileDataSetContainer(this.dir, pivot, this.getInclusiveMax(), this.format,
+                this.storageMode, this.arena, upperFile, fileNumberCount - lowerCount, upperWriter.getWrittenBytes());
         return new ContainerSplitResult(lowerContainer, upperContainer);
     }
 
+    private static long writeRange(File file, DoubleList data, int from, int to) {
+        var writer = new RawContainerFileWriter(file);
+        try {
+            for (int i = from; i < to; i++) {
+                writer.write(data.getDouble(i));
+            }
+        } finally {
+            writer.close();
+        }
+        return writer.getWrittenBytes();
+    }
+
+    /**
+     * Sorts array lists and caches in the memory arena in place, other lists are copied first.
+     */
+    private static DoubleList sortedList(DoubleList data) {
+        if (data instanceof DoubleArrayList arrayList) {
+            Arrays.sort(arrayList.elements(), 0, arrayList.size());
+            return arrayList;
+        }
+        if (data instanceof PagedDoubleList pagedList) {
+            pagedList.unstableSort(null);
+            return pagedList;
+        }
+        double[] array = data.toDoubleArray();
+        Arrays.sort(array);
+        return DoubleArrayList.wrap(array);
+    }
+
     public void deleteLocalStorage() {
         if (!storageFile.delete()) {
             LOG.error("Could not delete storage file! Name: " + storageFile.getName());
         }
+        for (var file : takeReplacedFiles()) {
+            deleteReplacedFile(file);
+        }
+    }
+
+    static void deleteReplacedFile(File file) {
+        if (!file.delete() && file.exists()) {
+            LOG.error("Could not delete replaced storage file! Name: " + file.getName());
+        }
     }
 
     @Override
@@ -131,11 +749,97 @@ public class FileDataSetContainer {
         return "DataSetPart{" +
                 "inclusiveMin=" + inclusiveMin +
                 ", exclusiveMax=" + inclusiveMax +
-                ", cacheNumberCount=" + memoryCacheCount +
+                ", cacheNumberCount=" + memoryCache.size() +
                 ", fileNumberCount=" + fileNumberCount +
+                ", fileSizeBytes=" + fileSizeBytes +
+                ", storageMode=" + storageMode +
                 '}';
     }
 
+    /**
+     * A file loaded into the work buffer of the memory arena followed by a list of further values
+     */
+    private static class LoadedValues extends AbstractDoubleList {
+
+        private final DoubleBuffer fileValues;
+        private final int fileValueCount;
+        private final DoubleList otherValues;
+
+        private LoadedValues(DoubleBuffer fileValues, int fileValueCount, DoubleList otherValues) {
+            this.fileValues = fileValues;
+            this.fileValueCount = fileValueCount;
+            this.otherValues = otherValues;
+        }
+
+        @Override
+        public double getDouble(int index) {
+            return index < fileValueCount ? fileValues.get(index) : otherValues.getDouble(index - fileValueCount);
+        }
+
+        @Override
+        public double set(int index, double value) {
+            if (index < fileValueCount) {
+                double old = fileValues.get(index);
+                fileValues.put(index, value);
+                return old;
+            }
+            return otherValues.set(index - fileValueCount, value);
+        }
+
+        @Override
+        public int size() {
+            return fileValueCount + otherValues.size();
+        }
+    }
+
+    /**
+     * Merges the sorted file contents with a sorted list in ascending order
+     */
+    private class MergedReader implements AutoCloseable {
+
+        private final ContainerFileReader fileReader = format.openReader(storageFile, fileNumberCount);
+        private final DoubleList sortedData;
+        private final int sortedDataSize;
+        private int sortedDataIndex = 0;
+        private double nextFileValue;
+        private boolean hasFileValue;
+
+        private MergedReader(DoubleList sortedData) {
+            this.sortedData = sortedData;
+            this.sortedDataSize = sortedData.size();
+            advanceFile();
+        }
+
+        private void advanceFile() {
+            hasFileValue = fileReader.hasNext();
+            if (hasFileValue) {
+                nextFileValue = fileReader.nextDouble();
+            }
+        }
+
+        boolean hasNext() {
+            return hasFileValue || sortedDataIndex < sortedDataSize;
+        }
+
+        double nextDouble() {
+            if (hasFileValue && (sortedDataIndex >= sortedDataSize
+                    || Double.compare(nextFileValue, sortedData.getDouble(sortedDataIndex)) <= 0)) {
+                double value = nextFileValue;
+                advanceFile();
+                return value;
+            }
+            if (sortedDataIndex >= sortedDataSize) {
+                throw new FileDataSetException("No more merged data available");
+            }
+            return sortedData.getDouble(sortedDataIndex++);
+        }
+
+        @Override
+        public void close() {
+            fileReader.close();
+        }
+    }
+
     public record ContainerSplitResult(FileDataSetContainer lowerContainer, FileDataSetContainer upperContainer) {
 
         public FileDataSetContainer getLowerContainer() {
@@ -0,0 +1,40 @@
+package wiest.median.calculator.file;
+
+/**
+ * Optional settings of a {@link FileDataSet}, start from {@link #defaults()} and adjust with the with-methods.
+ *
+ * @param containerFormat how the container files are stored on disk
+ * @param storageMode whether the container files are kept sorted or only appended to
+ * @param prePartitioning whether the containers are created up front from a sample of the input
+ * @param asyncFlushing whether cache data is written to disk by a background thread while the input is read on
+ */
+public record FileDataSetSettings(ContainerFormat containerFormat, StorageMode storageMode, boolean prePartitioning,
+                                  boolean asyncFlushing) {
+
+    public static FileDataSetSettings defaults() {
+        return new FileDataSetSettings(ContainerFormat.COMPRESSED, StorageMode.SORTED, true, true);
+    }
+
+    public FileDataSetSettings withContainerFormat(ContainerFormat containerFormat) {
+        return new FileDataSetSettings(containerFormat, storageMode, prePartitioning, asyncFlushing);
+    }
+
+    public FileDataSetSettings withStorageMode(StorageMode storageMode) {
+        return new FileDataSetSettings(containerFormat, storageMode, prePartitioning, asyncFlushing);
+    }
+
+    public FileDataSetSettings withPrePartitioning(boolean prePartitioning) {
+        return new FileDataSetSettings(containerFormat, storageMode, prePartitioning, asyncFlushing);
+    }
+
+    public FileDataSetSettings withAsyncFlushing(boolean asyncFlushing) {
+        return new FileDataSetSettings(containerFormat, storageMode, prePartitioning, asyncFlushing);
+    }
+
+    /**
+     * @return the format the container files are actually written in, appended files are always raw
+     */
+    public ContainerFormat effectiveContainerFormat() {
+        return storageMode == StorageMode.APPEND ? ContainerFormat.RAW : containerFormat;
+    }
+}
@@ -1,41 +1,585 @@
 package wiest.median.calculator.file;
 
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import wiest.median.DataSource;
+import wiest.median.LazyDataSource;
 import wiest.median.MedianCalculator;
+import wiest.median.calculator.QuickSelect;
+import wiest.median.calculator.Quantiles;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps the values in the cache pages of the memory arena as long as they fit, so small inputs never touch the disk
+ * and the median is found by an in-place quickselect. Only once the cache is exceeded the {@link FileDataSet}
+ * is created and takes over all values together with the arena.
+ */
 public class FileMedianCalculator implements MedianCalculator {
 
-    private final FileDataSet dataSet;
+    /**
+     * Receives the storage metrics periodically while the sources are loaded
+     */
+    @FunctionalInterface
+    public interface MetricsListener {
+        void accept(StorageMetrics metrics);
+    }
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileMedianCalculator.class);
+
+    /**
+     * Number of values read from a source and handed to the data set in one go
+     */
+    private static final int BATCH_SIZE = 8192;
+
+    /**
+     * Parsed batches per loader thread that may wait to be stored, more only help if parsing is uneven
+     */
+    private static final int BATCHES_PER_LOADER = 4;
+
+    /**
+     * How long the storing thread waits for a parsed batch before it checks whether the loaders are done
+     */
+    private static final int BATCH_POLL_MILLIS = 10;
+
+    /**
+     * Number of values taken from the start of the sources to choose the container boundaries
+     */
+    private static final int SAMPLE_SIZE = 1 << 16;
+
+    /**
+     * Minimum number of sampled values per container, fewer would make the boundaries mostly noise
+     */
+    private static final int MIN_SAMPLES_PER_CONTAINER = 16;
+
+    /**
+     * Maximum number of sources to take the pre-partitioning sample from. Sampling a source opens it,
+     * so with thousands of input files only an evenly spread subset is sampled.
+     */
+    private static final int MAX_SAMPLED_SOURCES = 64;
+
+    private final String fileDir;
+    private final int maxDataInMemoryKb;
+    private final FileDataSetSettings settings;
+    /**
+     * Off-heap memory of the data set, the values are kept in its cache pages until they exceed the cache.
+     * So they count against the same budget and the data set takes the pages over once they are written.
+     */
+    private final MemoryArena arena;
+    /**
+     * Number of values kept in memory before switching to the data set, as many as its cache holds
+     */
+    private final int maxMemoryCount;
+    /**
+     * Values added so far while all of them fit into memory, null after switching to the data set
+     */
+    private PagedDoubleList memoryValues;
+    /**
+     * Created once the values exceed the memory budget
+     */
+    private FileDataSet dataSet;
+    private final long createdNanos = System.nanoTime();
+    private MetricsListener metricsListener;
+    private long metricsIntervalNanos;
+    private long nextMetricsNanos;
 
     public FileMedianCalculator(String fileDir, int maxDataInMemoryKb) {
-        dataSet = new FileDataSet(fileDir, maxDataInMemoryKb);
+        this(fileDir, maxDataInMemoryKb, FileDataSetSettings.defaults());
+    }
+
+    public FileMedianCalculator(String fileDir, int maxDataInMemoryKb, FileDataSetSettings settings) {
+        this.fileDir = fileDir;
+        this.maxDataInMemoryKb = maxDataInMemoryKb;
+        this.settings = settings;
+        arena = FileDataSet.newArena(maxDataInMemoryKb, settings.storageMode());
+        maxMemoryCount = (int) Math.min(Integer.MAX_VALUE, (long) arena.getPageCount() * arena.getPageEntries());
+        memoryValues = new PagedDoubleList(arena);
+    }
+
+    /**
+     * Opens the persistent data set in the directory or creates a new one, see
+     * {@link FileDataSet#open(String, int, FileDataSetSettings)}. The values are always stored in the data set,
+     * {@link #close()} keeps them for the next run.
+     */
+    public static FileMedianCalculator open(String fileDir, int maxDataInMemoryKb, FileDataSetSettings settings) {
+        var calc = new FileMedianCalculator(fileDir, maxDataInMemoryKb, settings);
+        calc.dataSet = FileDataSet.open(fileDir, maxDataInMemoryKb, settings);
+        calc.memoryValues = null;
+        return calc;
     }
 
     @Override
     public void loadSource(DataSource source) {
-        while (source.hasNext()) {
-            dataSet.addNumber(source.getNext());
+        List<DataSource> pending = new ArrayList<>(List.of(source));
+        try {
+            prePartition(pending);
+            double[] batch = new double[BATCH_SIZE];
+            int count;
+            while ((count = pending.get(0).read(batch, 0, batch.length)) > 0) {
+                addNumbers(batch, 0, count);
+            }
+        } finally {
+            pending.get(0).close();
+        }
+        logStorageStatistics();
+    }
+
+    /**
+     * Parses the sources on up to threadCount worker threads. Each of them sorts its parsed batches and hands them
+     * to the calling thread through a bounded queue, which stores them all. So the loaders never wait for each other
+     * and the storing is cheap: the values of a sorted batch are routed by a single pass over the containers.
+     * As the median does not depend on the insertion order the result is the same as loading them one by one.
+     * Every source is closed, also the ones not read yet when loading fails.
+     */
+    @Override
+    public void loadSources(List<? extends DataSource> inputSources, int threadCount) {
+        // Sampling may replace a source by an unopened copy
+        List<DataSource> sources = new ArrayList<>(inputSources);
+        // Set by whoever takes care of closing the source, its loading task or the cleanup after a failure
+        AtomicBoolean[] claimed = new AtomicBoolean[sources.size()];
+        Arrays.setAll(claimed, i -> new AtomicBoolean());
+        ExecutorService executor = null;
+        try {
+            prePartition(sources);
+            if (threadCount <= 1 || sources.size() <= 1) {
+                for (int i = 0; i < sources.size(); i++) {
+                    loadClaimedSource(sources.get(i), claimed[i]);
+                }
+                logStorageStatistics();
+                return;
+            }
+
+            int loaderCount = Math.min(threadCount, sources.size());
+            executor = Executors.newFixedThreadPool(loaderCount);
+            var batches = new BatchQueue(loaderCount * BATCHES_PER_LOADER);
+            var remaining = new AtomicInteger(sources.size());
+            List<Future<?>> results = new ArrayList<>();
+            for (int i = 0; i < sources.size(); i++) {
+                var source = sources.get(i);
+                var sourceClaimed = claimed[i];
+                results.add(executor.submit(() -> {
+                    try {
+                        parseClaimedSource(source, sourceClaimed, batches);
+                    } finally {
+                        remaining.decrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            storeParsedBatches(batches, remaining, results);
+            for (var result : results) {
+                result.get();
+            }
+            logStorageStatistics();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FileDataSetException("Interrupted while loading sources", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new FileDataSetException("Error while loading sources", e.getCause());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+                awaitTermination(executor);
+            }
+            closeUnclaimedSources(sources, claimed);
+        }
+    }
+
+    /**
+     * A batch of parsed values sorted ascending, the values array goes back to the free ones once it is stored
+     */
+    private record SortedBatch(double[] values, int count) {
+    }
+
+    /**
+     * The batches handed from the loaders to the thread storing them. All batch arrays are allocated up front,
+     * so a loader waits for a free one if the storing falls behind and the memory stays bounded.
+     */
+    private static class BatchQueue {
+
+        final BlockingQueue<double[]> free;
+        final BlockingQueue<SortedBatch> parsed;
+
+        BatchQueue(int batchCount) {
+            free = new ArrayBlockingQueue<>(batchCount);
+            parsed = new ArrayBlockingQueue<>(batchCount);
+            for (int i = 0; i < batchCount; i++) {
+                free.add(new double[BATCH_SIZE]);
+            }
+        }
+    }
+
+    private static void parseClaimedSource(DataSource source, AtomicBoolean claimed, BatchQueue batches)
+            throws InterruptedException {
+        if (!claimed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            while (true) {
+                double[] values = batches.free.take();
+                int count = source.read(values, 0, values.length);
+                if (count <= 0) {
+                    batches.free.add(values);
+                    return;
+                }
+                Arrays.sort(values, 0, count);
+                batches.parsed.add(new SortedBatch(values, count));
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    /**
+     * Stores the parsed batches until all loaders are done, stops early if one of them failed
+     */
+    private void storeParsedBatches(BatchQueue batches, AtomicInteger remaining, List<Future<?>> results)
+            throws InterruptedException, ExecutionException {
+        while (true) {
+            var batch = batches.parsed.poll(BATCH_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            if (batch != null) {
+                synchronized (this) {
+                    addNumbers(batch.values(), 0, batch.count());
+                }
+                batches.free.add(batch.values());
+            } else if (remaining.get() == 0 && batches.parsed.isEmpty()) {
+                return;
+            } else {
+                for (var result : results) {
+                    if (result.isDone()) {
+                        result.get();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits for the running tasks, they stop after their current batch and close their sources
+     */
+    private static void awaitTermination(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                LOG.info("Waiting for the sources being read to stop");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void loadClaimedSource(DataSource source, AtomicBoolean claimed) {
+        if (claimed.compareAndSet(false, true)) {
+            loadSourceInBatches(source);
+        }
+    }
+
+    /**
+     * Closes the sources no loading task has started on, e.g. the ones opened by sampling before a failure
+     */
+    private static void closeUnclaimedSources(List<? extends DataSource> sources, AtomicBoolean[] claimed) {
+        for (int i = 0; i < sources.size(); i++) {
+            if (claimed[i].compareAndSet(false, true)) {
+                try {
+                    sources.get(i).close();
+                } catch (RuntimeException e) {
+                    LOG.warn("Cannot close source", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Samples the first values of every source before anything is stored.
+     * A {@link LazyDataSource} is closed after sampling and replaced by an unopened copy, which reads the sampled
+     * values again later. So sampling keeps at most one of them open, e.g. no gzip reader threads are left running.
+     * Other sources stay open, their sampled values are added at the end.
+     * If the sources are expected to exceed the memory budget the data set is created right away and partitioned at quantiles of the sample,
+     * each container is meant to end up with about half of the values a file can hold.
+     * Taking the sample from every source spreads it over the whole input if the sources are chunks of one file.
+     * With more than {@link #MAX_SAMPLED_SOURCES} sources an evenly spaced subset is sampled and the total
+     * size is extrapolated from it.
+     * Nothing happens if values were already added, without a known size the values are kept in memory
+     * until they exceed the budget.
+     */
+    private void prePartition(List<DataSource> sources) {
+        if (!settings.prePartitioning() || sources.isEmpty() || getTotalSize() != 0) {
+            return;
+        }
+
+        int sampledSourceCount = Math.min(sources.size(), MAX_SAMPLED_SOURCES);
+        int samplesPerSource = Math.max(1, SAMPLE_SIZE / sampledSourceCount);
+        double[] sample = new double[samplesPerSource * sampledSourceCount];
+        var openSample = new DoubleArrayList();
+        int sampleSize = 0;
+        long estimatedSize = 0;
+        for (int i = 0; i < sampledSourceCount; i++) {
+            int index = (int) ((long) i * sources.size() / sampledSourceCount);
+            var source = sources.get(index);
+            int sourceStart = sampleSize;
+            int sourceEnd = sampleSize + samplesPerSource;
+            int count;
+            while (sampleSize < sourceEnd && (count = source.read(sample, sampleSize, sourceEnd - sampleSize)) > 0) {
+                sampleSize += count;
+            }
+            long sourceSize = source.estimatedSize();
+            estimatedSize = sourceSize < 0 || estimatedSize < 0 ? -1 : estimatedSize + sourceSize;
+            if (source instanceof LazyDataSource lazy) {
+                sources.set(index, lazy.reopen());
+                lazy.close();
+            } else {
+                openSample.addElements(openSample.size(), sample, sourceStart, sampleSize - sourceStart);
+            }
+        }
+
+        if (estimatedSize > 0) {
+            estimatedSize = (long) ((double) estimatedSize * sources.size() / sampledSourceCount);
+        }
+        if (dataSet != null || estimatedSize > maxMemoryCount) {
+            createDataSet(Arrays.copyOf(sample, sampleSize), estimatedSize);
+        }
+        addNumbers(openSample.elements(), 0, openSample.size());
+    }
+
+    /**
+     * Creates the data set unless an empty persistent one was opened,
+     * partitioned at quantiles of the sample if pre-partitioning is enabled.
+     * @param sample reordered by this method
+     * @param estimatedSize expected number of values of the whole input
+     */
+    private void createDataSet(double[] sample, long estimatedSize) {
+        if (dataSet == null) {
+            dataSet = newDataSet(List.of());
+            memoryValues = null;
+        }
+        if (!settings.prePartitioning()) {
+            return;
+        }
+
+        long targetContainerSize = Math.max(1, dataSet.getMaxFileEntryCount() / 2);
+        long containerCount = Math.min((estimatedSize + targetContainerSize - 1) / targetContainerSize,
+                sample.length / MIN_SAMPLES_PER_CONTAINER);
+        if (containerCount > 1 && dataSet.getContainerCount() == 1) {
+            dataSet.prePartition(sampleBoundaries(sample, sample.length, (int) containerCount));
+        }
+    }
+
+    /**
+     * Passes the metrics to the listener about once per interval while sources are loaded,
+     * on the thread storing the values.
+     */
+    public void setMetricsListener(Duration interval, MetricsListener listener) {
+        metricsListener = listener;
+        metricsIntervalNanos = interval.toNanos();
+        nextMetricsNanos = System.nanoTime() + metricsIntervalNanos;
+    }
+
+    /**
+     * @return how the values added so far are stored, measured since this calculator was created
+     */
+    public synchronized StorageMetrics getMetrics() {
+        if (dataSet == null) {
+            return StorageMetrics.inMemory(memoryValues.size(), System.nanoTime() - createdNanos,
+                    (double) memoryValues.size() / maxMemoryCount);
+        }
+        return dataSet.getMetrics(createdNanos);
+    }
+
+    private void addNumbers(double[] numbers, int offset, int length) {
+        addNumbersToStorage(numbers, offset, length);
+        if (metricsListener != null && System.nanoTime() - nextMetricsNanos >= 0) {
+            nextMetricsNanos = System.nanoTime() + metricsIntervalNanos;
+            metricsListener.accept(getMetrics());
+        }
+    }
+
+    private void addNumbersToStorage(double[] numbers, int offset, int length) {
+        if (dataSet == null) {
+            if ((long) memoryValues.size() + length <= maxMemoryCount) {
+                for (int i = offset; i < offset + length; i++) {
+                    memoryValues.add(numbers[i]);
+                }
+                return;
+            }
+            switchToDataSet();
+        }
+        dataSet.addNumbers(numbers, offset, length);
+    }
+
+    /**
+     * Moves the values kept in memory into a new data set. They are sorted in their pages and written to its
+     * containers, then the pages are returned to the arena for the cache of the data set.
+     * As the containers are split at their sorted values, no sample is needed to partition the data set.
+     */
+    private void switchToDataSet() {
+        LOG.info("Input exceeds {} values in memory, storing the values on disk", maxMemoryCount);
+        memoryValues.unstableSort(null);
+        var sortedContainers = FileDataSet.writeSorted(fileDir, maxDataInMemoryKb, settings, memoryValues);
+        memoryValues.release();
+        memoryValues = null;
+        dataSet = newDataSet(sortedContainers);
+    }
+
+    /**
+     * Creates the data set on the arena the values were kept in, package-private to measure the memory in use
+     */
+    FileDataSet newDataSet(List<DataSetManifest.ContainerEntry> sortedContainers) {
+        return new FileDataSet(fileDir, maxDataInMemoryKb, settings, arena, sortedContainers);
+    }
+
+    /**
+     * @return the off-heap memory allocated so far for the values kept in memory and the data set
+     */
+    long getAllocatedBytes() {
+        return dataSet == null ? arena.getAllocatedBytes() : dataSet.getArena().getAllocatedBytes();
+    }
+
+    /**
+     * Sorts the sample in place and picks containerCount - 1 evenly spaced values of it, duplicates are dropped.
+     */
+    private static double[] sampleBoundaries(double[] sample, int sampleSize, int containerCount) {
+        Arrays.sort(sample, 0, sampleSize);
+        var boundaries = new DoubleArrayList(containerCount - 1);
+        for (int i = 1; i < containerCount; i++) {
+            double boundary = sample[(int) ((long) i * sampleSize / containerCount)];
+            if (!Double.isNaN(boundary)
+                    && (boundaries.isEmpty() || boundaries.getDouble(boundaries.size() - 1) < boundary)) {
+                boundaries.add(boundary);
+            }
+        }
+        return boundaries.toDoubleArray();
+    }
+
+    private void loadSourceInBatches(DataSource source) {
+        double[] batch = new double[BATCH_SIZE];
+        try {
+            int count;
+            while ((count = source.read(batch, 0, batch.length)) > 0) {
+                synchronized (this) {
+                    addNumbers(batch, 0, count);
+                }
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    private void logStorageStatistics() {
+        if (dataSet != null) {
+            dataSet.logStorageStatistics();
         }
-        source.close();
     }
 
     @Override
     public double calculateMedian() {
-        int size = dataSet.getTotalSize();
+        long size = getTotalSize();
 
         if (size == 0) {
             return 0;
         }
 
         if (size % 2 == 1) {
-            return dataSet.getEntryAtIndex(size/2);
+            return getEntriesAtIndices(new long[] {size/2})[0];
         } else {
-            return (dataSet.getEntryAtIndex(size/2-1) + dataSet.getEntryAtIndex(size/2)) / 2;
+            // Both middle values are usually in the same container, so look them up together
+            var middleEntries = getEntriesAtIndices(new long[] {size/2-1, size/2});
+            return (middleEntries[0] + middleEntries[1]) / 2;
+        }
+    }
+
+    /**
+     * All ranks needed are looked up in one batch so every container is accessed at most once.
+     */
+    @Override
+    public double[] calculateQuantiles(double... quantiles) {
+        return Quantiles.calculate(getTotalSize(), quantiles, this::getEntriesAtIndices);
+    }
+
+    public long getTotalSize() {
+        return dataSet == null ? memoryValues.size() : dataSet.getTotalSize();
+    }
+
+    /**
+     * Counts the values that are not greater than each boundary in the order of {@link Double#compare(double, double)},
+     * e.g. to narrow down the quantiles of values spread over several calculators.
+     * @param boundaries sorted ascending without duplicates
+     * @return the count for each boundary
+     */
+    public long[] countAtMost(double... boundaries) {
+        if (dataSet != null) {
+            return dataSet.countAtMost(boundaries);
+        }
+        FileDataSet.checkAscending(boundaries);
+        return FileDataSetContainer.countAtMost(memoryValues, boundaries);
+    }
+
+    /**
+     * In memory the values are partially reordered by quickselects, later values are simply appended.
+     */
+    private double[] getEntriesAtIndices(long[] indices) {
+        if (dataSet != null) {
+            return dataSet.getEntriesAtIndices(indices);
+        }
+
+        int[] positions = new int[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            if (indices[i] < 0 || indices[i] >= memoryValues.size()) {
+                throw new IllegalArgumentException("Index out of bounds");
+            }
+            positions[i] = (int) indices[i];
         }
+        return QuickSelect.selectAll(memoryValues, positions);
+    }
+
+    /**
+     * @return the data set, null as long as all values are kept in memory
+     */
+    FileDataSet getDataSet() {
+        return dataSet;
+    }
+
+    /**
+     * @return whether the values are still kept in memory without using the disk
+     */
+    public boolean isInMemory() {
+        return dataSet == null;
     }
 
     @Override
     public void destroy() {
-        dataSet.destroy();
+        if (dataSet != null) {
+            dataSet.destroy();
+        }
+        if (memoryValues != null) {
+            memoryValues.release();
+        }
+    }
+
+    /**
+     * Keeps the values of a data set opened with {@link #open(String, int, FileDataSetSettings)} on disk,
+     * any other values are discarded like with {@link #destroy()}.
+     */
+    public void close() {
+        if (dataSet != null) {
+            dataSet.close();
+        }
+        if (memoryValues != null) {
+            memoryValues.release();
+        }
     }
 }
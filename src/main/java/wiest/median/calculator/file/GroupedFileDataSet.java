@@ -0,0 +1,144 @@
+package wiest.median.calculator.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps one {@link FileDataSet} per key, e.g. the latencies of each endpoint. All groups take their cache pages
+ * from a single {@link MemoryArena}, so the memory limit holds for all keys together no matter how the values
+ * are distributed over them.
+ *
+ * Once the shared cache runs full the group caching the most values writes its largest container to disk,
+ * until a quarter of the pages is free again. Small groups therefore stay in memory and rarely touch the disk.
+ * Each group splits its containers on its own, only one container file is loaded at a time.
+ *
+ * Not thread safe.
+ */
+public class GroupedFileDataSet {
+
+    /**
+     * Share of the pages in percent that is freed whenever the shared cache runs full,
+     * so the groups are not searched for the largest cache on every added value
+     */
+    private static final int SPILL_TARGET_FREE_PERCENT = 25;
+
+    private static final Logger LOG = LoggerFactory.getLogger(GroupedFileDataSet.class);
+
+    private final String fileDir;
+    private final FileDataSetSettings settings;
+    private final long maxFileEntryCount;
+    private final MemoryArena arena;
+    private final int spillTargetFreePages;
+    private final Map<String, FileDataSet> groups = new HashMap<>();
+    private long addedEntryCount = 0;
+    private int spillCount = 0;
+
+    public GroupedFileDataSet(String fileDir, int maxDataInMemoryKb) {
+        this(fileDir, maxDataInMemoryKb, FileDataSetSettings.defaults());
+    }
+
+    /**
+     * The memory is split between the shared cache and the size of a single container file
+     * just like for a {@link FileDataSet}. Pre-partitioning and background flushing are not used for groups.
+     */
+    public GroupedFileDataSet(String fileDir, int maxDataInMemoryKb, FileDataSetSettings settings) {
+        this.fileDir = fileDir;
+        this.settings = settings.withPrePartitioning(false).withAsyncFlushing(false);
+        long maxCacheEntryCount = FileDataSet.cacheEntryCountOf(maxDataInMemoryKb, settings.storageMode());
+        maxFileEntryCount = FileDataSet.fileEntryCountOf(maxDataInMemoryKb, settings.storageMode());
+        arena = FileDataSet.newArena(maxDataInMemoryKb, settings.storageMode());
+        spillTargetFreePages = Math.max(1, arena.getPageCount() * SPILL_TARGET_FREE_PERCENT / 100);
+        LOG.info("Creating grouped dataset that can cache {} doubles of all groups in memory and {} in files stored {} {}"
+                        + " - up to {} bytes off-heap",
+                maxCacheEntryCount, maxFileEntryCount, settings.storageMode(), settings.effectiveContainerFormat(),
+                arena.getReservedBytes());
+    }
+
+    public void addNumber(String key, double number) {
+        var group = groups.get(key);
+        if (group == null) {
+            group = new FileDataSet(fileDir, settings, maxFileEntryCount, arena);
+            groups.put(key, group);
+        }
+        if (arena.getFreePageCount() == 0) {
+            spillLargestGroups();
+        }
+        group.addNumber(number);
+        addedEntryCount++;
+    }
+
+    /**
+     * Writes the largest container of the group caching the most values until enough pages are free again.
+     */
+    private void spillLargestGroups() {
+        while (arena.getFreePageCount() < spillTargetFreePages) {
+            FileDataSet largestGroup = null;
+            for (var group : groups.values()) {
+                if (largestGroup == null || group.getCachedEntryCount() > largestGroup.getCachedEntryCount()) {
+                    largestGroup = group;
+                }
+            }
+            if (largestGroup == null || largestGroup.getCachedEntryCount() == 0) {
+                return;
+            }
+            largestGroup.spillLargestContainer();
+            spillCount++;
+        }
+        LOG.debug("Spilled group caches - {} free pages after {} spills", arena.getFreePageCount(), spillCount);
+    }
+
+    /**
+     * @return all keys in no particular order
+     */
+    public List<String> getKeys() {
+        return new ArrayList<>(groups.keySet());
+    }
+
+    public int getGroupCount() {
+        return groups.size();
+    }
+
+    /**
+     * @return the data set of the key, null if no value was added for it
+     */
+    public FileDataSet getGroup(String key) {
+        return groups.get(key);
+    }
+
+    public int getSpillCount() {
+        return spillCount;
+    }
+
+    MemoryArena getArena() {
+        return arena;
+    }
+
+    public void logStorageStatistics() {
+        long writtenBytes = 0;
+        int containerCount = 0;
+        for (var group : groups.values()) {
+            writtenBytes += group.getWrittenBytes();
+            containerCount += group.getContainerCount();
+        }
+        if (addedEntryCount > 0) {
+            LOG.info("Stored {} values of {} groups in {} containers - wrote {} bytes to disk in {} spills"
+                            + " - write amplification {}",
+                    addedEntryCount, groups.size(), containerCount, writtenBytes, spillCount,
+                    String.format("%.2f", (double) writtenBytes / (addedEntryCount * Double.BYTES)));
+        }
+    }
+
+    public void destroy() {
+        for (var group : groups.values()) {
+            group.destroy();
+        }
+        groups.clear();
+        addedEntryCount = 0;
+        spillCount = 0;
+    }
+}
@@ -0,0 +1,91 @@
+package wiest.median.calculator.file;
+
+import wiest.median.KeyValueSource;
+import wiest.median.calculator.Quantiles;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Calculates the median or quantiles of the values of each key in a single pass over the input,
+ * see {@link GroupedFileDataSet} for how the groups share the memory.
+ */
+public class GroupedFileMedianCalculator {
+
+    private static final int BATCH_SIZE = 8192;
+
+    private final GroupedFileDataSet dataSet;
+
+    public GroupedFileMedianCalculator(String fileDir, int maxDataInMemoryKb) {
+        this(fileDir, maxDataInMemoryKb, FileDataSetSettings.defaults());
+    }
+
+    public GroupedFileMedianCalculator(String fileDir, int maxDataInMemoryKb, FileDataSetSettings settings) {
+        dataSet = new GroupedFileDataSet(fileDir, maxDataInMemoryKb, settings);
+    }
+
+    public void loadSource(KeyValueSource source) {
+        String[] keys = new String[BATCH_SIZE];
+        double[] values = new double[BATCH_SIZE];
+        try {
+            int count;
+            while ((count = source.read(keys, values, 0, BATCH_SIZE)) > 0) {
+                for (int i = 0; i < count; i++) {
+                    dataSet.addNumber(keys[i], values[i]);
+                }
+            }
+        } finally {
+            source.close();
+        }
+        dataSet.logStorageStatistics();
+    }
+
+    /**
+     * @return the median of the values of the key, 0 if there are none
+     */
+    public double calculateMedian(String key) {
+        return calculateQuantiles(key, 0.5)[0];
+    }
+
+    /**
+     * @return the value of each quantile for the values of the key, 0 for every quantile if there are none
+     */
+    public double[] calculateQuantiles(String key, double... quantiles) {
+        var group = dataSet.getGroup(key);
+        if (group == null) {
+            return Quantiles.calculate(0, quantiles, ranks -> new double[0]);
+        }
+        return Quantiles.calculate(group.getTotalSize(), quantiles, group::getEntriesAtIndices);
+    }
+
+    /**
+     * @return the median of each key, sorted by key
+     */
+    public Map<String, Double> calculateMedians() {
+        Map<String, Double> medians = new TreeMap<>();
+        for (var key : dataSet.getKeys()) {
+            medians.put(key, calculateMedian(key));
+        }
+        return Collections.unmodifiableMap(medians);
+    }
+
+    /**
+     * @return the value of each quantile of each key, sorted by key
+     */
+    public Map<String, double[]> calculateQuantiles(double... quantiles) {
+        Map<String, double[]> result = new TreeMap<>();
+        for (var key : dataSet.getKeys()) {
+            result.put(key, calculateQuantiles(key, quantiles));
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    GroupedFileDataSet getDataSet() {
+        return dataSet;
+    }
+
+    public void destroy() {
+        dataSet.destroy();
+    }
+}
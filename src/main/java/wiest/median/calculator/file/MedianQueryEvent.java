@@ -0,0 +1,31 @@
+package wiest.median.calculator.file;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Recorded for every lookup of values by rank, e.g. the median or a batch of quantiles.
+ */
+@Name("wiest.median.MedianQuery")
+@Label("Median Query")
+@Category({"Median", "Query"})
+@Description("Values looked up by their rank in the sorted data set")
+class MedianQueryEvent extends Event {
+
+    @Label("Ranks")
+    int rankCount;
+
+    @Label("Total Entries")
+    long totalEntryCount;
+
+    @Label("Accessed Containers")
+    int accessedContainerCount;
+
+    @Label("Read")
+    @DataAmount
+    long readBytes;
+}
@@ -0,0 +1,123 @@
+package wiest.median.calculator.file;
+
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Off-heap memory of a {@link FileDataSet} with a fixed limit, so the memory limit holds no matter how the
+ * values are distributed over the containers. The memory is allocated in a few chunks as it is first needed and
+ * kept afterwards, small inputs do not allocate the whole limit.
+ *
+ * The cache part is divided into pages that the container caches take and return, see {@link PagedDoubleList}.
+ * The optional work part holds the file of one container while it is loaded for a split or a lookup.
+ * Not thread safe, pages are only taken and returned by the thread adding the values.
+ */
+class MemoryArena {
+
+    private static final int MAX_PAGE_ENTRIES = 4096;
+    private static final int MIN_PAGE_ENTRIES = 16;
+    /**
+     * Containers keep at most one partially filled page, so there should be plenty more pages than containers
+     */
+    private static final int MIN_PAGE_COUNT = 1024;
+    /**
+     * A single direct buffer can hold at most 2 GB, the pages are cut from chunks of at most this size
+     */
+    private static final int CHUNK_BYTES = 1 << 30;
+    /**
+     * The cache part is allocated in about this many chunks
+     */
+    private static final int CHUNK_COUNT = 16;
+
+    private final int pageEntries;
+    private final int pageCount;
+    private final int pagesPerChunk;
+    private int allocatedPageCount = 0;
+    private final Deque<DoubleBuffer> freePages = new ArrayDeque<>();
+    private final int workEntryCount;
+    private DoubleBuffer workBuffer;
+
+    /**
+     * @param cacheEntryCount number of doubles the cache pages can hold together
+     * @param workEntryCount number of doubles of the work buffer, 0 if none is needed
+     */
+    MemoryArena(long cacheEntryCount, int workEntryCount) {
+        // A power of two so positions in the pages can be calculated with shifts
+        pageEntries = Integer.highestOneBit((int)
+                Math.max(MIN_PAGE_ENTRIES, Math.min(MAX_PAGE_ENTRIES, cacheEntryCount / MIN_PAGE_COUNT)));
+        pageCount = (int) Math.min(Integer.MAX_VALUE, Math.max(1, cacheEntryCount / pageEntries));
+        pagesPerChunk = Math.min(CHUNK_BYTES / (pageEntries * Double.BYTES),
+                (pageCount + CHUNK_COUNT - 1) / CHUNK_COUNT);
+
+        if ((long) workEntryCount * Double.BYTES > Integer.MAX_VALUE) {
+            throw new FileDataSetException("The work buffer cannot hold more than 2 GB");
+        }
+        this.workEntryCount = workEntryCount;
+    }
+
+    private void allocateChunk() {
+        int pageBytes = pageEntries * Double.BYTES;
+        int chunkPages = Math.min(pagesPerChunk, pageCount - allocatedPageCount);
+        var chunk = ByteBuffer.allocateDirect(chunkPages * pageBytes);
+        for (int i = 0; i < chunkPages; i++) {
+            freePages.push(chunk.slice(i * pageBytes, pageBytes).asDoubleBuffer());
+        }
+        allocatedPageCount += chunkPages;
+    }
+
+    DoubleBuffer allocatePage() {
+        if (freePages.isEmpty() && allocatedPageCount < pageCount) {
+            allocateChunk();
+        }
+        var page = freePages.poll();
+        if (page == null) {
+            throw new FileDataSetException("No free cache page left in the memory arena");
+        }
+        return page;
+    }
+
+    void releasePage(DoubleBuffer page) {
+        freePages.push(page);
+    }
+
+    int getPageEntries() {
+        return pageEntries;
+    }
+
+    int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return the pages not taken, including the ones not allocated yet
+     */
+    int getFreePageCount() {
+        return freePages.size() + pageCount - allocatedPageCount;
+    }
+
+    /**
+     * @return the work buffer, its contents are only valid until the next use
+     */
+    DoubleBuffer getWorkBuffer() {
+        if (workBuffer == null) {
+            workBuffer = ByteBuffer.allocateDirect(workEntryCount * Double.BYTES).asDoubleBuffer();
+        }
+        return workBuffer;
+    }
+
+    /**
+     * @return all bytes this arena may allocate
+     */
+    long getReservedBytes() {
+        return ((long) pageCount * pageEntries + workEntryCount) * Double.BYTES;
+    }
+
+    /**
+     * @return the bytes allocated so far, they are kept until the arena is garbage collected
+     */
+    long getAllocatedBytes() {
+        return ((long) allocatedPageCount * pageEntries + (workBuffer == null ? 0 : workEntryCount)) * Double.BYTES;
+    }
+}
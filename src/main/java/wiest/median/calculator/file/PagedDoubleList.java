@@ -0,0 +1,103 @@
+package wiest.median.calculator.file;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.doubles.AbstractDoubleList;
+import it.unimi.dsi.fastutil.doubles.DoubleComparator;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cache of a container in pages of a {@link MemoryArena}, pages are taken when the list grows
+ * and returned by {@link #release()}. Values can only be appended.
+ */
+class PagedDoubleList extends AbstractDoubleList {
+
+    private final MemoryArena arena;
+    private final int pageShift;
+    private final int pageMask;
+    private final List<DoubleBuffer> pages = new ArrayList<>();
+    private int size = 0;
+
+    PagedDoubleList(MemoryArena arena) {
+        this.arena = arena;
+        pageShift = Integer.numberOfTrailingZeros(arena.getPageEntries());
+        pageMask = arena.getPageEntries() - 1;
+    }
+
+    @Override
+    public boolean add(double value) {
+        if ((size & pageMask) == 0 && (size >> pageShift) == pages.size()) {
+            pages.add(arena.allocatePage());
+        }
+        pages.get(size >> pageShift).put(size & pageMask, value);
+        size++;
+        return true;
+    }
+
+    @Override
+    public void add(int index, double value) {
+        if (index != size) {
+            throw new UnsupportedOperationException("Values can only be appended");
+        }
+        add(value);
+    }
+
+    @Override
+    public double getDouble(int index) {
+        ensureRestrictedIndex(index);
+        return pages.get(index >> pageShift).get(index & pageMask);
+    }
+
+    @Override
+    public double set(int index, double value) {
+        ensureRestrictedIndex(index);
+        var page = pages.get(index >> pageShift);
+        double old = page.get(index & pageMask);
+        page.put(index & pageMask, value);
+        return old;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Sorts the values in place inside their pages, without any additional memory.
+     * @param comparator null for the order of {@link Double#compare(double, double)}
+     */
+    @Override
+    public void unstableSort(DoubleComparator comparator) {
+        DoubleComparator order = comparator == null ? Double::compare : comparator;
+        Arrays.quickSort(0, size,
+                (a, b) -> order.compare(getDouble(a), getDouble(b)),
+                (a, b) -> set(a, set(b, getDouble(a))));
+    }
+
+    @Override
+    public void sort(DoubleComparator comparator) {
+        unstableSort(comparator);
+    }
+
+    /**
+     * Returns all pages to the arena, the list is empty afterwards.
+     */
+    void release() {
+        for (var page : pages) {
+            arena.releasePage(page);
+        }
+        pages.clear();
+        size = 0;
+    }
+
+    @Override
+    public void clear() {
+        release();
+    }
+
+    int getPageCount() {
+        return pages.size();
+    }
+}
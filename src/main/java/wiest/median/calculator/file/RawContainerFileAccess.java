@@ -0,0 +1,66 @@
+package wiest.median.calculator.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Maps only a small window of an uncompressed container file around the requested value.
+ * The position of a value follows directly from its index, so no index is needed.
+ */
+class RawContainerFileAccess implements ContainerFileAccess {
+
+    private static final int WINDOW_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final long entryCount;
+    private MappedByteBuffer window;
+    private long windowStart = -1;
+    private long mappedBytes = 0;
+
+    RawContainerFileAccess(File file, long entryCount) {
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot open container file", e);
+        }
+        this.entryCount = entryCount;
+    }
+
+    @Override
+    public double get(long index) {
+        if (index < 0 || index >= entryCount) {
+            throw new IllegalArgumentException("Index out of bounds");
+        }
+
+        long position = index * Double.BYTES;
+        long start = position - position % WINDOW_SIZE;
+        if (start != windowStart) {
+            try {
+                long size = Math.min(WINDOW_SIZE, entryCount * Double.BYTES - start);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+                windowStart = start;
+                mappedBytes += size;
+            } catch (IOException e) {
+                throw new FileDataSetException("Error mapping container file", e);
+            }
+        }
+        return window.getDouble((int) (position - start));
+    }
+
+    @Override
+    public long getMappedBytes() {
+        return mappedBytes;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new FileDataSetException("Error closing container file", e);
+        }
+    }
+}
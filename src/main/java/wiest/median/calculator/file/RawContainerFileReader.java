@@ -0,0 +1,65 @@
+package wiest.median.calculator.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams the doubles of an uncompressed container file through a fixed size buffer.
+ */
+class RawContainerFileReader implements ContainerFileReader {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long remaining;
+
+    RawContainerFileReader(File file, long entryCount) {
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot open container file", e);
+        }
+        remaining = entryCount;
+        buffer.limit(0);
+    }
+
+    @Override
+    public boolean hasNext() {
+        return remaining > 0;
+    }
+
+    @Override
+    public double nextDouble() {
+        if (buffer.remaining() < Double.BYTES) {
+            fill();
+        }
+        remaining--;
+        return buffer.getDouble();
+    }
+
+    private void fill() {
+        // Keeps a partially read double at the start of the buffer
+        buffer.compact();
+        try {
+            while (buffer.position() < Double.BYTES) {
+                if (channel.read(buffer) < 0) {
+                    throw new FileDataSetException("Unexpected end of container file");
+                }
+            }
+        } catch (IOException e) {
+            throw new FileDataSetException("Error during loading dataset from file", e);
+        }
+        buffer.flip();
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new FileDataSetException("Error closing container file", e);
+        }
+    }
+}
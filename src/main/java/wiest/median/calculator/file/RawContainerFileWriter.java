@@ -0,0 +1,77 @@
+package wiest.median.calculator.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes doubles uncompressed (8 bytes each, big endian) to a container file through a fixed size buffer.
+ */
+class RawContainerFileWriter implements ContainerFileWriter {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(ContainerFileReader.BUFFER_SIZE);
+    private long count = 0;
+
+    RawContainerFileWriter(File file) {
+        this(file, false);
+    }
+
+    /**
+     * @param append keep the existing values of the file and write behind them
+     */
+    RawContainerFileWriter(File file, boolean append) {
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    append ? StandardOpenOption.APPEND : StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException e) {
+            throw new FileDataSetException("Cannot open container file for writing", e);
+        }
+    }
+
+    @Override
+    public void write(double value) {
+        if (buffer.remaining() < Double.BYTES) {
+            flush();
+        }
+        buffer.putDouble(value);
+        count++;
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return bytes written by this writer, without the values that were already in an appended file
+     */
+    @Override
+    public long getWrittenBytes() {
+        return count * Double.BYTES;
+    }
+
+    private void flush() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new FileDataSetException("Error during writing dataset to file", e);
+        }
+        buffer.clear();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new FileDataSetException("Error closing container file", e);
+        }
+    }
+}
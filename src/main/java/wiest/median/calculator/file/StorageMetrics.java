@@ -0,0 +1,47 @@
+package wiest.median.calculator.file;
+
+/**
+ * A snapshot of how the values added so far were stored, see {@link FileDataSet#getMetrics()}.
+ *
+ * @param entryCount values added so far
+ * @param elapsedNanos time since the first value could be added
+ * @param flushCount container caches written to disk, the ones written by splits are not included
+ * @param splitCount containers split in two
+ * @param readBytes bytes read from disk, lookups count the parts of the files they mapped
+ * @param writtenBytes bytes written to disk, including rewrites of the same values
+ * @param cacheFillLevel share of the cache in use between 0 and 1
+ * @param containerCount number of containers
+ * @param minContainerSize values of the smallest container including its cache
+ * @param medianContainerSize values of the container in the middle when sorted by size
+ * @param maxContainerSize values of the largest container including its cache
+ */
+public record StorageMetrics(long entryCount, long elapsedNanos, int flushCount, int splitCount, long readBytes,
+                             long writtenBytes, double cacheFillLevel, int containerCount, long minContainerSize,
+                             long medianContainerSize, long maxContainerSize) {
+
+    /**
+     * @return the metrics of values that are only kept in memory
+     */
+    public static StorageMetrics inMemory(long entryCount, long elapsedNanos, double cacheFillLevel) {
+        return new StorageMetrics(entryCount, elapsedNanos, 0, 0, 0, 0, cacheFillLevel, 0, 0, 0, 0);
+    }
+
+    public double valuesPerSecond() {
+        return elapsedNanos == 0 ? 0 : entryCount * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * @return all bytes written to disk divided by the bytes of all added values
+     */
+    public double writeAmplification() {
+        return entryCount == 0 ? 0 : (double) writtenBytes / (entryCount * Double.BYTES);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d values at %.0f values/s - %d flushes, %d splits - read %d bytes, wrote %d bytes"
+                        + " - write amplification %.2f - cache %.0f%% full - %d containers of %d/%d/%d values (min/median/max)",
+                entryCount, valuesPerSecond(), flushCount, splitCount, readBytes, writtenBytes, writeAmplification(),
+                cacheFillLevel * 100, containerCount, minContainerSize, medianContainerSize, maxContainerSize);
+    }
+}
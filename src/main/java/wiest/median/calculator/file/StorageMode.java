@@ -0,0 +1,20 @@
+package wiest.median.calculator.file;
+
+/**
+ * How a container keeps its file up to date when the cache is written to disk
+ */
+public enum StorageMode {
+
+    /**
+     * Every write merges the cache into the file, so the file is always sorted.
+     * Rank lookups only touch a few positions of the file, but the same values are rewritten on every merge.
+     */
+    SORTED,
+
+    /**
+     * Every write appends the unsorted cache to the end of the file, so each value is written once per split.
+     * Rank lookups load the whole container and solve it with a quickselect.
+     * The values are always stored {@link ContainerFormat#RAW} since the compression relies on sorted values.
+     */
+    APPEND
+}
@@ -0,0 +1,332 @@
+package wiest.median.calculator.radix;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiest.median.DataSource;
+import wiest.median.MedianCalculator;
+import wiest.median.ReopenableDataSource;
+import wiest.median.calculator.QuickSelect;
+import wiest.median.calculator.Quantiles;
+import wiest.median.calculator.SortableDoubles;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * Finds the exact median without ever sorting the full data set.
+ *
+ * Every value is mapped to a long with the same order (see {@link SortableDoubles}).
+ * While loading, a histogram over the top 16 bits of these keys is built. It tells which bucket holds the median rank.
+ * Each further pass over the data only looks at the values of that bucket and builds a histogram over the next 16 bits,
+ * spilling just the values of the bucket to disk so later passes don't have to read the whole input again.
+ * As soon as the remaining bucket fits into memory it is loaded and the median is found by a quickselect.
+ * The two middle ranks of an even count and the ranks of quantiles are narrowed together in the same passes,
+ * with a histogram per distinct bucket, so the input is not read again for every rank.
+ *
+ * Sources implementing {@link ReopenableDataSource} are read again for the second pass and are never written to disk,
+ * unless {@link ReopenableDataSource#canReopen()} says otherwise. All other sources are written to a spill file
+ * once while loading.
+ */
+public class RadixMedianCalculator implements MedianCalculator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RadixMedianCalculator.class);
+
+    private static final int BITS_PER_PASS = 16;
+    private static final int BUCKET_COUNT = 1 << BITS_PER_PASS;
+
+    private final String fileDir;
+    private final long maxEntriesInMemory;
+    private final long[] topLevelHistogram = new long[BUCKET_COUNT];
+    private final List<Supplier<DataSource>> inputs = new ArrayList<>();
+    private final List<SpillFile> inputSpillFiles = new ArrayList<>();
+
+    private long totalCount = 0;
+    private long spilledBytes = 0;
+    private int lastPassCount = 0;
+
+    public RadixMedianCalculator(String fileDir, int maxDataInMemoryKb) {
+        File dir = new File(fileDir);
+        if (!dir.exists()) {
+            if (!dir.mkdir()) {
+                throw new RadixMedianException("Cannot create data dir");
+            }
+        }
+
+        this.fileDir = fileDir;
+        // The histogram of a pass is the only other thing we need to keep in memory
+        long histogramBytes = (long) BUCKET_COUNT * Long.BYTES;
+        long entryCount = (maxDataInMemoryKb * 1024L - histogramBytes) / Double.BYTES;
+        this.maxEntriesInMemory = Math.max(1, Math.min(entryCount, Integer.MAX_VALUE - 8));
+        LOG.info("Creating radix median calculator that can select among {} doubles in memory", maxEntriesInMemory);
+    }
+
+    @Override
+    public void loadSource(DataSource source) {
+        if (source instanceof ReopenableDataSource reopenable && reopenable.canReopen()) {
+            while (source.hasNext()) {
+                topLevelHistogram[bucketOf(source.getNext(), 0)]++;
+                totalCount++;
+            }
+            inputs.add(reopenable::reopen);
+        } else {
+            var spillFile = new SpillFile(fileDir);
+            while (source.hasNext()) {
+                double value = source.getNext();
+                topLevelHistogram[bucketOf(value, 0)]++;
+                spillFile.write(value);
+                totalCount++;
+            }
+            spillFile.finish();
+            spilledBytes += spillFile.getSizeInBytes();
+            inputSpillFiles.add(spillFile);
+            inputs.add(spillFile::read);
+        }
+        source.close();
+    }
+
+    @Override
+    public double calculateMedian() {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        if (totalCount % 2 == 1) {
+            return valuesAt(new long[] {totalCount / 2})[0];
+        } else {
+            var middleEntries = valuesAt(new long[] {totalCount / 2 - 1, totalCount / 2});
+            return (middleEntries[0] + middleEntries[1]) / 2;
+        }
+    }
+
+    /**
+     * All ranks needed are searched together, so the number of passes does not grow with the number of quantiles.
+     */
+    @Override
+    public double[] calculateQuantiles(double... quantiles) {
+        return Quantiles.calculate(totalCount, quantiles, this::valuesAt);
+    }
+
+    /**
+     * @return the value that would be at the given index if all values were sorted
+     */
+    public double select(long rank) {
+        return valuesAt(new long[] {rank})[0];
+    }
+
+    /**
+     * @return the number of passes over the data the last median or quantile calculation took
+     */
+    public int getLastPassCount() {
+        return lastPassCount;
+    }
+
+    /**
+     * Finds the values at all ranks together. Every pass narrows each rank down by the next 16 bits,
+     * building one histogram per distinct prefix of the ranks. Buckets that fit into memory next to these histograms
+     * are loaded and searched in the same pass, only the values of the other buckets are spilled for the next one.
+     */
+    private double[] valuesAt(long[] ranks) {
+        for (long rank : ranks) {
+            if (rank < 0 || rank >= totalCount) {
+                throw new IllegalArgumentException("Index out of bounds");
+            }
+        }
+
+        double[] result = new double[ranks.length];
+        // Of every rank not found yet: the key prefix of its bucket and its rank among the values of that bucket
+        long[] prefixes = new long[ranks.length];
+        long[] bucketRanks = ranks.clone();
+        long[] bucketCounts = new long[ranks.length];
+        boolean[] found = new boolean[ranks.length];
+        // Histograms of the buckets narrowed in the last pass, by their sorted prefixes
+        long[] narrowedPrefixes = {0};
+        long[][] histograms = {topLevelHistogram};
+        List<Supplier<DataSource>> candidates = inputs;
+        SpillFile candidateFile = null;
+        int prefixBits = 0;
+        lastPassCount = 0;
+
+        try {
+            while (true) {
+                for (int i = 0; i < ranks.length; i++) {
+                    if (!found[i]) {
+                        narrowToBucket(i, prefixes, bucketRanks, bucketCounts,
+                                histograms[Arrays.binarySearch(narrowedPrefixes, prefixes[i])]);
+                    }
+                }
+                prefixBits += BITS_PER_PASS;
+
+                if (prefixBits == Long.SIZE) {
+                    // All values in these buckets share every bit
+                    for (int i = 0; i < ranks.length; i++) {
+                        if (!found[i]) {
+                            result[i] = SortableDoubles.fromSortableLong(prefixes[i]);
+                        }
+                    }
+                    return result;
+                }
+
+                var pass = planPass(prefixes, bucketCounts, found);
+                var nextFile = pass.narrowed().length > 0 ? new SpillFile(fileDir) : null;
+                long[][] nextHistograms = new long[pass.narrowed().length][];
+                Arrays.setAll(nextHistograms, i -> new long[BUCKET_COUNT]);
+                double[] loaded = readCandidates(candidates, prefixBits, pass, nextHistograms, nextFile);
+                lastPassCount++;
+
+                for (int i = 0; i < ranks.length; i++) {
+                    int loadedIndex = found[i] ? -1 : Arrays.binarySearch(pass.loaded(), prefixes[i]);
+                    if (loadedIndex >= 0) {
+                        int from = pass.offsets()[loadedIndex];
+                        result[i] = QuickSelect.select(loaded, from, pass.offsets()[loadedIndex + 1],
+                                from + (int) bucketRanks[i]);
+                        found[i] = true;
+                    }
+                }
+                if (nextFile == null) {
+                    return result;
+                }
+
+                nextFile.finish();
+                spilledBytes += nextFile.getSizeInBytes();
+                LOG.debug("{} buckets do not fit into memory, narrowing further", pass.narrowed().length);
+                if (candidateFile != null) {
+                    candidateFile.delete();
+                }
+                candidateFile = nextFile;
+                candidates = List.of(nextFile::read);
+                narrowedPrefixes = pass.narrowed();
+                histograms = nextHistograms;
+            }
+        } finally {
+            if (candidateFile != null) {
+                candidateFile.delete();
+            }
+        }
+    }
+
+    /**
+     * Moves the rank at the index from the bucket of its prefix to the sub bucket holding it, one level deeper
+     */
+    private static void narrowToBucket(int index, long[] prefixes, long[] bucketRanks, long[] bucketCounts,
+                                       long[] histogram) {
+        int bucket = 0;
+        while (bucketRanks[index] >= histogram[bucket]) {
+            bucketRanks[index] -= histogram[bucket];
+            bucket++;
+        }
+        bucketCounts[index] = histogram[bucket];
+        prefixes[index] = (prefixes[index] << BITS_PER_PASS) | bucket;
+    }
+
+    /**
+     * The buckets a pass loads into memory and the ones it narrows further.
+     * @param loaded sorted prefixes of the loaded buckets
+     * @param offsets where the values of each loaded bucket start in the loaded array, one more entry for the end
+     * @param narrowed sorted prefixes of the narrowed buckets
+     */
+    private record Pass(long[] loaded, int[] offsets, long[] narrowed) {
+    }
+
+    /**
+     * Loads the smallest buckets first, as many as fit into memory next to one histogram per other bucket.
+     */
+    private Pass planPass(long[] prefixes, long[] bucketCounts, boolean[] found) {
+        var counts = new TreeMap<Long, Long>();
+        for (int i = 0; i < prefixes.length; i++) {
+            if (!found[i]) {
+                counts.put(prefixes[i], bucketCounts[i]);
+            }
+        }
+
+        // The first histogram is already part of the budget, each one takes as much memory as BUCKET_COUNT values
+        long budget = maxEntriesInMemory - (long) (counts.size() - 1) * BUCKET_COUNT;
+        var bySize = new ArrayList<>(counts.entrySet());
+        bySize.sort(Map.Entry.comparingByValue());
+        var loaded = new TreeMap<Long, Long>();
+        long loadedCount = 0;
+        for (var bucket : bySize) {
+            if (loadedCount + bucket.getValue() > budget) {
+                break;
+            }
+            loaded.put(bucket.getKey(), bucket.getValue());
+            loadedCount += bucket.getValue();
+        }
+
+        int[] offsets = new int[loaded.size() + 1];
+        int index = 0;
+        for (long count : loaded.values()) {
+            offsets[index + 1] = offsets[index] + (int) count;
+            index++;
+        }
+        long[] narrowed = counts.keySet().stream()
+                .filter(prefix -> !loaded.containsKey(prefix))
+                .mapToLong(Long::longValue)
+                .toArray();
+        return new Pass(loaded.keySet().stream().mapToLong(Long::longValue).toArray(), offsets, narrowed);
+    }
+
+    /**
+     * Reads the candidates once: the values of the loaded buckets are copied into the returned array,
+     * the values of the narrowed buckets are counted in their histogram and written to the spill file.
+     */
+    private static double[] readCandidates(List<Supplier<DataSource>> candidates, int prefixBits, Pass pass,
+                                           long[][] histograms, SpillFile spillFile) {
+        double[] loaded = new double[pass.offsets()[pass.loaded().length]];
+        int[] positions = Arrays.copyOf(pass.offsets(), pass.loaded().length);
+        for (var candidate : candidates) {
+            var source = candidate.get();
+            while (source.hasNext()) {
+                double value = source.getNext();
+                long prefix = SortableDoubles.toSortableLong(value) >>> (Long.SIZE - prefixBits);
+                int loadedIndex = Arrays.binarySearch(pass.loaded(), prefix);
+                if (loadedIndex >= 0) {
+                    if (positions[loadedIndex] == pass.offsets()[loadedIndex + 1]) {
+                        throw new RadixMedianException("Source returned different values than during loading");
+                    }
+                    loaded[positions[loadedIndex]++] = value;
+                    continue;
+                }
+                int narrowedIndex = Arrays.binarySearch(pass.narrowed(), prefix);
+                if (narrowedIndex >= 0) {
+                    histograms[narrowedIndex][bucketOf(value, prefixBits)]++;
+                    spillFile.write(value);
+                }
+            }
+            source.close();
+        }
+        for (int i = 0; i < positions.length; i++) {
+            if (positions[i] != pass.offsets()[i + 1]) {
+                throw new RadixMedianException("Source returned different values than during loading");
+            }
+        }
+        return loaded;
+    }
+
+    private static int bucketOf(double value, int skippedBits) {
+        long key = SortableDoubles.toSortableLong(value) << skippedBits;
+        return (int) (key >>> (Long.SIZE - BITS_PER_PASS));
+    }
+
+    public long getTotalSize() {
+        return totalCount;
+    }
+
+    /**
+     * @return bytes written to disk so far
+     */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    @Override
+    public void destroy() {
+        inputSpillFiles.forEach(SpillFile::delete);
+        inputSpillFiles.clear();
+        inputs.clear();
+    }
+}
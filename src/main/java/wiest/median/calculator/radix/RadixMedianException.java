@@ -0,0 +1,10 @@
+package wiest.median.calculator.radix;
+
+public class RadixMedianException extends RuntimeException {
+    public RadixMedianException(String message) {
+        super(message);
+    }
+    public RadixMedianException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
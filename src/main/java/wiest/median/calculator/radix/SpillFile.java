@@ -0,0 +1,108 @@
+package wiest.median.calculator.radix;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiest.median.DataSource;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * A file of raw doubles that is written once sequentially and can then be read any number of times.
+ */
+class SpillFile {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillFile.class);
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File file;
+    private DataOutputStream output;
+    private long count = 0;
+
+    SpillFile(String dir) {
+        file = new File(dir + "/Median_radix_" + UUID.randomUUID());
+        try {
+            output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        } catch (IOException e) {
+            throw new RadixMedianException("Cannot create spill file", e);
+        }
+    }
+
+    void write(double value) {
+        try {
+            output.writeDouble(value);
+            count++;
+        } catch (IOException e) {
+            throw new RadixMedianException("Error writing spill file", e);
+        }
+    }
+
+    /**
+     * Finishes writing, afterwards the file can only be read
+     */
+    void finish() {
+        try {
+            output.close();
+        } catch (IOException e) {
+            throw new RadixMedianException("Error closing spill file", e);
+        }
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getSizeInBytes() {
+        return count * Double.BYTES;
+    }
+
+    DataSource read() {
+        try {
+            var input = new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+            return new DataSource() {
+                private long remaining = count;
+
+                @Override
+                public boolean hasNext() {
+                    return remaining > 0;
+                }
+
+                @Override
+                public double getNext() {
+                    try {
+                        remaining--;
+                        return input.readDouble();
+                    } catch (IOException e) {
+                        throw new RadixMedianException("Error reading spill file", e);
+                    }
+                }
+
+                @Override
+                public void close() {
+                    try {
+                        input.close();
+                    } catch (IOException e) {
+                        throw new RadixMedianException("Error closing spill file", e);
+                    }
+                }
+            };
+        } catch (IOException e) {
+            throw new RadixMedianException("Cannot open spill file", e);
+        }
+    }
+
+    void delete() {
+        finish();
+        if (file.exists() && !file.delete()) {
+            LOG.error("Could not delete spill file! Name: " + file.getName());
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package wiest.median.calculator.rolling;
+
+import it.unimi.dsi.fastutil.doubles.Double2IntOpenHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Binary heap of primitive doubles ordered like {@link Double#compare(double, double)}, either smallest or largest first.
+ */
+class DoubleHeap {
+
+    private final boolean largestFirst;
+    private double[] heap = new double[16];
+    private int size = 0;
+
+    DoubleHeap(boolean largestFirst) {
+        this.largestFirst = largestFirst;
+    }
+
+    void add(double value) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        heap[size] = value;
+        siftUp(size++);
+    }
+
+    double peek() {
+        if (size == 0) {
+            throw new IllegalStateException("Heap is empty");
+        }
+        return heap[0];
+    }
+
+    double poll() {
+        double top = peek();
+        heap[0] = heap[--size];
+        if (size > 0) {
+            siftDown(0);
+        }
+        return top;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Removes the given number of occurrences of each value and rebuilds the heap in linear time.
+     * The removed occurrences are taken out of the map.
+     */
+    void removeAll(Double2IntOpenHashMap occurrences) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            double value = heap[i];
+            int pending = occurrences.get(value);
+            if (pending > 0) {
+                if (pending == 1) {
+                    occurrences.remove(value);
+                } else {
+                    occurrences.put(value, pending - 1);
+                }
+            } else {
+                heap[kept++] = value;
+            }
+        }
+        size = kept;
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            siftDown(i);
+        }
+    }
+
+    /**
+     * @return true if a belongs closer to the top than b
+     */
+    private boolean before(double a, double b) {
+        int comparison = Double.compare(a, b);
+        return largestFirst ? comparison > 0 : comparison < 0;
+    }
+
+    private void siftUp(int index) {
+        double value = heap[index];
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (!before(value, heap[parent])) {
+                break;
+            }
+            heap[index] = heap[parent];
+            index = parent;
+        }
+        heap[index] = value;
+    }
+
+    private void siftDown(int index) {
+        double value = heap[index];
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            if (child + 1 < size && before(heap[child + 1], heap[child])) {
+                child++;
+            }
+            if (!before(heap[child], value)) {
+                break;
+            }
+            heap[index] = heap[child];
+            index = child;
+        }
+        heap[index] = value;
+    }
+}
@@ -0,0 +1,28 @@
+package wiest.median.calculator.rolling;
+
+/**
+ * The values of a sliding window in arrival order together with an order statistic over them.
+ */
+interface MedianWindow {
+
+    void add(long timestamp, double value);
+
+    /**
+     * Removes the value that was added first
+     */
+    void removeOldest();
+
+    /**
+     * @return the timestamp of the value that was added first
+     */
+    long oldestTimestamp();
+
+    long size();
+
+    /**
+     * @return the median of the values in the window, the mean of the two middle values for an even count
+     */
+    double median();
+
+    void destroy();
+}
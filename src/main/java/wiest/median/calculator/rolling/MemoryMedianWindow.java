@@ -0,0 +1,71 @@
+package wiest.median.calculator.rolling;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayFIFOQueue;
+import it.unimi.dsi.fastutil.longs.LongArrayFIFOQueue;
+
+/**
+ * Keeps the whole window in memory, every update takes O(log W).
+ */
+class MemoryMedianWindow implements MedianWindow {
+
+    /**
+     * Memory taken by a value: its entries in the value queue, the timestamp queue and a heap
+     */
+    static final int BYTES_PER_VALUE = 3 * Double.BYTES;
+
+    private final DoubleArrayFIFOQueue values = new DoubleArrayFIFOQueue();
+    private final LongArrayFIFOQueue timestamps = new LongArrayFIFOQueue();
+    private OrderStatisticHeaps heaps = new OrderStatisticHeaps();
+
+    @Override
+    public void add(long timestamp, double value) {
+        values.enqueue(value);
+        timestamps.enqueue(timestamp);
+        heaps.add(value);
+    }
+
+    @Override
+    public void removeOldest() {
+        timestamps.dequeueLong();
+        heaps.remove(values.dequeueDouble());
+    }
+
+    @Override
+    public long oldestTimestamp() {
+        return timestamps.firstLong();
+    }
+
+    @Override
+    public long size() {
+        return values.size();
+    }
+
+    @Override
+    public double median() {
+        int size = heaps.size();
+        if (size == 0) {
+            return 0;
+        }
+        double lower = heaps.valueAt((size - 1) / 2);
+        return size % 2 == 1 ? lower : (lower + heaps.nextValue()) / 2;
+    }
+
+    /**
+     * Adds all values to the target in arrival order, this window must not be used afterwards.
+     * The heaps are dropped first and the queues shrink while they are drained, so the memory of this window
+     * is released while the target fills up.
+     */
+    void moveTo(MedianWindow target) {
+        heaps = new OrderStatisticHeaps();
+        while (!values.isEmpty()) {
+            target.add(timestamps.dequeueLong(), values.dequeueDouble());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        values.clear();
+        timestamps.clear();
+        heaps = new OrderStatisticHeaps();
+    }
+}
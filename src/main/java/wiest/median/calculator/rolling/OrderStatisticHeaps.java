@@ -0,0 +1,112 @@
+package wiest.median.calculator.rolling;
+
+import it.unimi.dsi.fastutil.doubles.Double2IntOpenHashMap;
+
+/**
+ * Multiset of doubles that finds the value at a given rank in O(log n) as long as the rank only moves slowly,
+ * e.g. the median of a sliding window.
+ *
+ * The values are split into a lower heap (largest first) and an upper heap (smallest first), so every value
+ * of the lower heap is at most the smallest value of the upper heap. Moving values between the heaps keeps
+ * a requested number of values in the lower heap, whose top then is the value at that rank.
+ *
+ * Removed values are not searched in the heaps but only counted as pending and dropped once they reach a top.
+ * If the pending values make up more than half of a heap it is rebuilt without them, so the memory stays
+ * proportional to the number of values actually contained.
+ */
+class OrderStatisticHeaps {
+
+    private static final int MIN_COMPACTION_SIZE = 1024;
+
+    private final DoubleHeap lower = new DoubleHeap(true);
+    private final DoubleHeap upper = new DoubleHeap(false);
+    private final Double2IntOpenHashMap pendingLower = new Double2IntOpenHashMap();
+    private final Double2IntOpenHashMap pendingUpper = new Double2IntOpenHashMap();
+    private int lowerSize = 0;
+    private int upperSize = 0;
+
+    void add(double value) {
+        if (lowerSize > 0 && Double.compare(value, lower.peek()) <= 0) {
+            lower.add(value);
+            lowerSize++;
+        } else {
+            upper.add(value);
+            upperSize++;
+        }
+    }
+
+    /**
+     * Removes one occurrence of a value that was added before.
+     */
+    void remove(double value) {
+        if (lowerSize > 0 && Double.compare(value, lower.peek()) <= 0) {
+            pendingLower.addTo(value, 1);
+            lowerSize--;
+            prune(lower, pendingLower, lowerSize);
+        } else {
+            pendingUpper.addTo(value, 1);
+            upperSize--;
+            prune(upper, pendingUpper, upperSize);
+        }
+    }
+
+    int size() {
+        return lowerSize + upperSize;
+    }
+
+    /**
+     * @param rank zero based rank in the sorted values
+     * @return the value at the rank
+     */
+    double valueAt(int rank) {
+        if (rank < 0 || rank >= size()) {
+            throw new IllegalArgumentException("Rank " + rank + " out of bounds for " + size() + " values");
+        }
+        while (lowerSize > rank + 1) {
+            upper.add(lower.poll());
+            lowerSize--;
+            upperSize++;
+            prune(lower, pendingLower, lowerSize);
+        }
+        while (lowerSize < rank + 1) {
+            lower.add(upper.poll());
+            upperSize--;
+            lowerSize++;
+            prune(upper, pendingUpper, upperSize);
+        }
+        return lower.peek();
+    }
+
+    /**
+     * @return the value at rank + 1, only valid directly after {@link #valueAt(int)} for a rank below size - 1
+     */
+    double nextValue() {
+        return upper.peek();
+    }
+
+    /**
+     * Drops pending values from the top so the top is always a contained value.
+     */
+    private static void prune(DoubleHeap heap, Double2IntOpenHashMap pending, int containedSize) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        if (heap.size() > MIN_COMPACTION_SIZE && heap.size() > 2 * containedSize) {
+            heap.removeAll(pending);
+            return;
+        }
+        while (heap.size() > 0) {
+            double top = heap.peek();
+            int count = pending.get(top);
+            if (count == 0) {
+                return;
+            }
+            heap.poll();
+            if (count == 1) {
+                pending.remove(top);
+            } else {
+                pending.put(top, count - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package wiest.median.calculator.rolling;
+
+import wiest.median.DataSource;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Calculates the median of the most recent values of a stream, either over a fixed number of values
+ * or over the values of a time span. The values are timestamped with an injectable clock when they are added.
+ *
+ * The window is kept in two heaps around the median, so every added and every expired value takes O(log W),
+ * see {@link OrderStatisticHeaps}. Once the window grows larger than the allowed memory it is spilled to disk
+ * and only a band of values around the median stays in memory, see {@link SpillingMedianWindow}.
+ * So a window that always fits, like a short time window of a slow stream, never touches the disk.
+ */
+public class RollingMedianCalculator {
+
+    /**
+     * Receives the median of the window after every stride values
+     */
+    @FunctionalInterface
+    public interface MedianListener {
+        /**
+         * @param valueCount number of values added so far
+         * @param median median of the window after the last added value
+         */
+        void accept(long valueCount, double median);
+    }
+
+    private final String fileDir;
+    private final RollingMedianSettings settings;
+    private final LongSupplier clockMillis;
+    private MedianWindow window = new MemoryMedianWindow();
+    private long valueCount = 0;
+
+    public RollingMedianCalculator(String fileDir, RollingMedianSettings settings) {
+        this(fileDir, settings, System::currentTimeMillis);
+    }
+
+    /**
+     * @param clockMillis current time in milliseconds, only used for time windows
+     */
+    public RollingMedianCalculator(String fileDir, RollingMedianSettings settings, LongSupplier clockMillis) {
+        this.fileDir = fileDir;
+        this.settings = settings;
+        this.clockMillis = clockMillis;
+    }
+
+    /**
+     * Reads all values of the source and emits the median after every stride values.
+     * The values are taken one by one instead of in batches, so a live stream gets its medians
+     * as soon as the values arrive.
+     */
+    public void loadSource(DataSource source, MedianListener listener) {
+        try {
+            while (source.hasNext()) {
+                add(source.getNext());
+                if (valueCount % settings.stride() == 0) {
+                    listener.accept(valueCount, window.median());
+                }
+            }
+        } finally {
+            source.close();
+        }
+    }
+
+    public void add(double value) {
+        long now = settings.windowDuration() == null ? 0 : clockMillis.getAsLong();
+        window.add(now, value);
+        valueCount++;
+        if (settings.windowDuration() == null) {
+            if (window.size() > settings.windowSize()) {
+                window.removeOldest();
+            }
+        } else {
+            expireOlderThan(now);
+        }
+
+        if (window instanceof MemoryMedianWindow memoryWindow && settings.exceedsMemory(window.size())) {
+            var spillingWindow = new SpillingMedianWindow(fileDir, settings.maxValuesInMemory());
+            memoryWindow.moveTo(spillingWindow);
+            window = spillingWindow;
+        }
+    }
+
+    /**
+     * @return the median of the current window, 0 if it is empty
+     */
+    public double getMedian() {
+        if (settings.windowDuration() != null) {
+            expireOlderThan(clockMillis.getAsLong());
+        }
+        return window.median();
+    }
+
+    private void expireOlderThan(long now) {
+        long oldestAllowed = now - settings.windowDuration().toMillis();
+        while (window.size() > 0 && window.oldestTimestamp() <= oldestAllowed) {
+            window.removeOldest();
+        }
+    }
+
+    public long getWindowCount() {
+        return window.size();
+    }
+
+    public long getValueCount() {
+        return valueCount;
+    }
+
+    MedianWindow getWindow() {
+        return window;
+    }
+
+    public void destroy() {
+        window.destroy();
+    }
+}
@@ -0,0 +1,10 @@
+package wiest.median.calculator.rolling;
+
+public class RollingMedianException extends RuntimeException {
+    public RollingMedianException(String message) {
+        super(message);
+    }
+    public RollingMedianException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,64 @@
+package wiest.median.calculator.rolling;
+
+import java.time.Duration;
+
+/**
+ * Settings of a {@link RollingMedianCalculator}, start from {@link #countWindow(long)} or {@link #timeWindow(Duration)}
+ * and adjust with the with-methods.
+ *
+ * @param windowSize number of most recent values in the window, 0 for a time window
+ * @param windowDuration age of the oldest value in the window, null for a count window
+ * @param stride number of values added between two emitted medians
+ * @param maxValuesInMemory values kept in memory before the window is spilled to disk, 0 to keep everything in memory,
+ *                          otherwise at least {@link SpillingMedianWindow#MIN_BAND_SIZE}
+ */
+public record RollingMedianSettings(long windowSize, Duration windowDuration, int stride, int maxValuesInMemory) {
+
+    public RollingMedianSettings {
+        if ((windowSize > 0) == (windowDuration != null)) {
+            throw new IllegalArgumentException("Either a window size or a window duration is needed");
+        }
+        if (windowSize < 0 || windowDuration != null && (windowDuration.isNegative() || windowDuration.isZero())) {
+            throw new IllegalArgumentException("The window has to be positive");
+        }
+        if (stride < 1 || maxValuesInMemory < 0) {
+            throw new IllegalArgumentException("The stride has to be positive and the memory not negative");
+        }
+        if (maxValuesInMemory > 0 && maxValuesInMemory < SpillingMedianWindow.MIN_BAND_SIZE) {
+            throw new IllegalArgumentException("At least " + SpillingMedianWindow.MIN_BAND_SIZE
+                    + " values have to fit into memory");
+        }
+    }
+
+    public static RollingMedianSettings countWindow(long windowSize) {
+        return new RollingMedianSettings(windowSize, null, 1, 0);
+    }
+
+    public static RollingMedianSettings timeWindow(Duration windowDuration) {
+        return new RollingMedianSettings(0, windowDuration, 1, 0);
+    }
+
+    public RollingMedianSettings withStride(int stride) {
+        return new RollingMedianSettings(windowSize, windowDuration, stride, maxValuesInMemory);
+    }
+
+    public RollingMedianSettings withMaxValuesInMemory(int maxValuesInMemory) {
+        return new RollingMedianSettings(windowSize, windowDuration, stride, maxValuesInMemory);
+    }
+
+    /**
+     * Keeps as many values in memory as fit into the given bytes. A value of a window in memory takes
+     * {@link MemoryMedianWindow#BYTES_PER_VALUE}, twice that is reserved as each of its arrays may just have doubled.
+     */
+    public RollingMedianSettings withMemoryBytes(long memoryBytes) {
+        long values = memoryBytes / (2 * MemoryMedianWindow.BYTES_PER_VALUE);
+        return withMaxValuesInMemory((int) Math.min(Integer.MAX_VALUE, values));
+    }
+
+    /**
+     * @return whether a window of this size holds more values than allowed in memory
+     */
+    boolean exceedsMemory(long windowCount) {
+        return maxValuesInMemory > 0 && windowCount > maxValuesInMemory;
+    }
+}
@@ -0,0 +1,203 @@
+package wiest.median.calculator.rolling;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.UUID;
+
+/**
+ * First in first out queue of timestamped values on disk. Only one block at the tail and one at the head
+ * are kept in memory. The entries are written to segment files that are deleted once all their entries
+ * have been removed, so the disk space follows the size of the queue.
+ */
+class SpillQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillQueue.class);
+
+    private static final int ENTRY_BYTES = Long.BYTES + Double.BYTES;
+    private static final int BLOCK_ENTRIES = 8192;
+    private static final long SEGMENT_ENTRIES = 1 << 22;
+
+    /**
+     * Reads the values of the queue without removing them
+     */
+    @FunctionalInterface
+    interface ValueVisitor {
+        void visit(double value);
+    }
+
+    private static class Segment {
+        private final File file;
+        private final FileChannel channel;
+        private long writtenEntries = 0;
+        /**
+         * Entries already read into the head block
+         */
+        private long readEntries = 0;
+
+        private Segment(File file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    private final String dir;
+    private final Deque<Segment> segments = new ArrayDeque<>();
+    private final ByteBuffer tail = ByteBuffer.allocate(BLOCK_ENTRIES * ENTRY_BYTES);
+    private final ByteBuffer head = ByteBuffer.allocate(BLOCK_ENTRIES * ENTRY_BYTES).limit(0);
+    private long size = 0;
+
+    SpillQueue(String dir) {
+        this.dir = dir;
+        var directory = new File(dir);
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new RollingMedianException("Cannot create data dir");
+        }
+    }
+
+    void add(long timestamp, double value) {
+        if (!tail.hasRemaining()) {
+            flushTail();
+        }
+        tail.putLong(timestamp).putDouble(value);
+        size++;
+    }
+
+    long oldestTimestamp() {
+        fillHead();
+        return head.getLong(head.position());
+    }
+
+    double removeOldest() {
+        fillHead();
+        head.getLong();
+        size--;
+        return head.getDouble();
+    }
+
+    long size() {
+        return size;
+    }
+
+    /**
+     * Visits all values from the oldest to the newest, the tail block is written to disk for this.
+     */
+    void forEachValue(ValueVisitor visitor) {
+        flushTail();
+        for (int position = head.position(); position < head.limit(); position += ENTRY_BYTES) {
+            visitor.visit(head.getDouble(position + Long.BYTES));
+        }
+
+        var block = ByteBuffer.allocate(BLOCK_ENTRIES * ENTRY_BYTES);
+        for (var segment : segments) {
+            for (long entry = segment.readEntries; entry < segment.writtenEntries; ) {
+                int count = (int) Math.min(BLOCK_ENTRIES, segment.writtenEntries - entry);
+                read(segment, entry, count, block);
+                for (int i = 0; i < count; i++) {
+                    visitor.visit(block.getDouble(i * ENTRY_BYTES + Long.BYTES));
+                }
+                entry += count;
+            }
+        }
+    }
+
+    private void fillHead() {
+        if (head.hasRemaining()) {
+            return;
+        }
+        if (size == 0) {
+            throw new RollingMedianException("Queue is empty");
+        }
+
+        var segment = segments.peekFirst();
+        while (segment != null && segment.readEntries == segment.writtenEntries && segments.size() > 1) {
+            deleteSegment(segments.pollFirst());
+            segment = segments.peekFirst();
+        }
+        if (segment == null || segment.readEntries == segment.writtenEntries) {
+            // The remaining entries are all in the tail block
+            flushTail();
+            segment = segments.peekLast();
+        }
+
+        int count = (int) Math.min(BLOCK_ENTRIES, segment.writtenEntries - segment.readEntries);
+        read(segment, segment.readEntries, count, head);
+        segment.readEntries += count;
+    }
+
+    private void read(Segment segment, long entry, int count, ByteBuffer block) {
+        block.clear().limit(count * ENTRY_BYTES);
+        try {
+            long position = entry * ENTRY_BYTES;
+            while (block.hasRemaining()) {
+                if (segment.channel.read(block, position + block.position()) < 0) {
+                    throw new RollingMedianException("Unexpected end of spill file " + segment.file);
+                }
+            }
+        } catch (IOException e) {
+            throw new RollingMedianException("Error reading spill file", e);
+        }
+        block.flip();
+    }
+
+    private void flushTail() {
+        if (tail.position() == 0) {
+            return;
+        }
+
+        var segment = segments.peekLast();
+        if (segment == null || segment.writtenEntries >= SEGMENT_ENTRIES) {
+            segment = createSegment();
+            segments.addLast(segment);
+        }
+        tail.flip();
+        int entries = tail.remaining() / ENTRY_BYTES;
+        try {
+            long position = segment.writtenEntries * ENTRY_BYTES;
+            while (tail.hasRemaining()) {
+                position += segment.channel.write(tail, position);
+            }
+        } catch (IOException e) {
+            throw new RollingMedianException("Error writing spill file", e);
+        }
+        segment.writtenEntries += entries;
+        tail.clear();
+    }
+
+    private Segment createSegment() {
+        var file = new File(dir + "/Median_rolling_" + UUID.randomUUID());
+        try {
+            return new Segment(file, FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE));
+        } catch (IOException e) {
+            throw new RollingMedianException("Cannot create spill file", e);
+        }
+    }
+
+    private static void deleteSegment(Segment segment) {
+        try {
+            segment.channel.close();
+        } catch (IOException e) {
+            throw new RollingMedianException("Error closing spill file", e);
+        }
+        if (segment.file.exists() && !segment.file.delete()) {
+            LOG.error("Could not delete spill file! Name: " + segment.file.getName());
+        }
+    }
+
+    void delete() {
+        while (!segments.isEmpty()) {
+            deleteSegment(segments.pollFirst());
+        }
+        tail.clear();
+        head.clear().limit(0);
+        size = 0;
+    }
+}
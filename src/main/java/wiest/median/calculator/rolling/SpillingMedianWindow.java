@@ -0,0 +1,205 @@
+package wiest.median.calculator.rolling;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import wiest.median.calculator.QuickSelect;
+import wiest.median.calculator.SortableDoubles;
+
+/**
+ * Window for more values than fit into memory. The values in arrival order are kept in a {@link SpillQueue}
+ * on disk, in memory there is only a band of the values around the median in {@link OrderStatisticHeaps}
+ * and the counts of the values below and above the band.
+ *
+ * Each update is O(log B) for a band of B values as long as the median stays within the band.
+ * Once it leaves the band, or the band grows too large, the band is rebuilt around the current median
+ * by scanning the window on disk a few times. A new band only covers half of the allowed values,
+ * so at least B / 4 updates pass between two rebuilds.
+ *
+ * Values equal to a band boundary are always kept in the band, so an input with a single value
+ * repeated more often than the band can hold still needs more memory.
+ */
+class SpillingMedianWindow implements MedianWindow {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SpillingMedianWindow.class);
+
+    private static final int RADIX_BITS = 16;
+
+    /**
+     * Smallest band that can still be rebuilt around the median
+     */
+    static final int MIN_BAND_SIZE = 16;
+
+    private final SpillQueue queue;
+    private final int maxBandSize;
+    /**
+     * Band size that triggers a rebuild, only larger than the maximum if the band had to take more values
+     * equal to its bounds, so a rebuild does not happen again on every added value
+     */
+    private int bandLimit;
+    private OrderStatisticHeaps band = new OrderStatisticHeaps();
+    /**
+     * Inclusive bounds of the band in the order of {@link Double#compare(double, double)},
+     * the band initially takes all values as NaN is the largest double in this order
+     */
+    private double bandMin = Double.NEGATIVE_INFINITY;
+    private double bandMax = Double.NaN;
+    private long countBelow = 0;
+    private long countAbove = 0;
+    private int rebuildCount = 0;
+
+    /**
+     * @param maxBandSize maximum number of values kept in memory
+     */
+    SpillingMedianWindow(String dir, int maxBandSize) {
+        if (maxBandSize < MIN_BAND_SIZE) {
+            throw new IllegalArgumentException("At least " + MIN_BAND_SIZE + " values have to fit into memory");
+        }
+        this.queue = new SpillQueue(dir);
+        this.maxBandSize = maxBandSize;
+        this.bandLimit = maxBandSize;
+    }
+
+    @Override
+    public void add(long timestamp, double value) {
+        queue.add(timestamp, value);
+        if (Double.compare(value, bandMin) < 0) {
+            countBelow++;
+        } else if (Double.compare(value, bandMax) > 0) {
+            countAbove++;
+        } else {
+            band.add(value);
+            if (band.size() > bandLimit) {
+                rebuildBand();
+            }
+        }
+    }
+
+    @Override
+    public void removeOldest() {
+        double value = queue.removeOldest();
+        if (Double.compare(value, bandMin) < 0) {
+            countBelow--;
+        } else if (Double.compare(value, bandMax) > 0) {
+            countAbove--;
+        } else {
+            band.remove(value);
+        }
+    }
+
+    @Override
+    public long oldestTimestamp() {
+        return queue.oldestTimestamp();
+    }
+
+    @Override
+    public long size() {
+        return queue.size();
+    }
+
+    @Override
+    public double median() {
+        long size = size();
+        if (size == 0) {
+            return 0;
+        }
+
+        long lowerRank = (size - 1) / 2;
+        long upperRank = size / 2;
+        if (!isInBand(lowerRank, upperRank)) {
+            rebuildBand();
+        }
+        double lower = band.valueAt((int) (lowerRank - countBelow));
+        return lowerRank == upperRank ? lower : (lower + band.nextValue()) / 2;
+    }
+
+    private boolean isInBand(long lowerRank, long upperRank) {
+        return countBelow <= lowerRank && upperRank < countBelow + band.size();
+    }
+
+    /**
+     * Selects new bounds covering a quarter of the allowed values on each side of the median
+     * and collects the values between them from disk.
+     */
+    private void rebuildBand() {
+        long size = size();
+        long margin = maxBandSize / 4;
+        double newMin = selectRank(Math.max(0, (size - 1) / 2 - margin));
+        double newMax = selectRank(Math.min(size - 1, size / 2 + margin));
+
+        var newBand = new OrderStatisticHeaps();
+        long[] counts = new long[2];
+        queue.forEachValue(value -> {
+            if (Double.compare(value, newMin) < 0) {
+                counts[0]++;
+            } else if (Double.compare(value, newMax) > 0) {
+                counts[1]++;
+            } else {
+                newBand.add(value);
+            }
+        });
+        band = newBand;
+        bandMin = newMin;
+        bandMax = newMax;
+        countBelow = counts[0];
+        countAbove = counts[1];
+        bandLimit = Math.max(maxBandSize, 2 * band.size());
+        rebuildCount++;
+        LOG.debug("Rebuilt band {} - {} with {} values, {} below and {} above", bandMin, bandMax, band.size(),
+                countBelow, countAbove);
+    }
+
+    /**
+     * Narrows down the value at the rank with histograms over the bit patterns of the values on disk,
+     * 16 bits per scan, until the values sharing the narrowed prefix fit into memory and can be selected there.
+     */
+    private double selectRank(long rank) {
+        long prefix = 0;
+        int prefixBits = 0;
+        long remainingRank = rank;
+        while (prefixBits < Long.SIZE) {
+            int shift = Long.SIZE - prefixBits - RADIX_BITS;
+            long[] histogram = new long[1 << RADIX_BITS];
+            long matchPrefix = prefix;
+            int matchBits = prefixBits;
+            queue.forEachValue(value -> {
+                long key = SortableDoubles.toSortableLong(value);
+                if (matchBits == 0 || key >>> (Long.SIZE - matchBits) == matchPrefix) {
+                    histogram[(int) ((key >>> shift) & ((1 << RADIX_BITS) - 1))]++;
+                }
+            });
+
+            int bucket = 0;
+            while (remainingRank >= histogram[bucket]) {
+                remainingRank -= histogram[bucket++];
+            }
+            prefix = (prefix << RADIX_BITS) | bucket;
+            prefixBits += RADIX_BITS;
+
+            if (histogram[bucket] <= maxBandSize && prefixBits < Long.SIZE) {
+                return selectInMemory(prefix, prefixBits, (int) histogram[bucket], (int) remainingRank);
+            }
+        }
+        return SortableDoubles.fromSortableLong(prefix);
+    }
+
+    private double selectInMemory(long prefix, int prefixBits, int count, int rank) {
+        double[] values = new double[count];
+        int[] next = new int[1];
+        queue.forEachValue(value -> {
+            if (SortableDoubles.toSortableLong(value) >>> (Long.SIZE - prefixBits) == prefix) {
+                values[next[0]++] = value;
+            }
+        });
+        return QuickSelect.select(values, 0, count, rank);
+    }
+
+    int getRebuildCount() {
+        return rebuildCount;
+    }
+
+    @Override
+    public void destroy() {
+        queue.delete();
+        band = new OrderStatisticHeaps();
+    }
+}
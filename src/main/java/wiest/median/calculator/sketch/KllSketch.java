@@ -0,0 +1,303 @@
+package wiest.median.calculator.sketch;
+
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Mergeable quantile sketch after Karnin, Lang and Liberty (KLL).
+ *
+ * Values are kept in levels, a value on level h represents 2^h input values. Whenever the sketch is full,
+ * the lowest level that reached its capacity is sorted and every second value (starting at a random offset)
+ * is promoted to the next level while the others are dropped. Lower levels get geometrically smaller capacities,
+ * so the sketch keeps about 3 * k values independent of the number of inputs.
+ *
+ * With k chosen by {@link #forEpsilon(double)} the rank of a returned quantile differs from the requested rank
+ * by at most epsilon * n with a probability of 99%.
+ */
+public class KllSketch {
+
+    private static final int SERIALIZATION_MAGIC = 0x4B4C4C31;
+    private static final int MIN_K = 8;
+    private static final int MIN_LEVEL_CAPACITY = 8;
+    private static final double CAPACITY_DECAY = 2. / 3;
+
+    private final int k;
+    private final Random random;
+    private final List<DoubleArrayList> levels = new ArrayList<>();
+
+    private long count = 0;
+    private int retainedCount = 0;
+    private int capacity;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+
+    public KllSketch(int k) {
+        this(k, new Random());
+    }
+
+    public KllSketch(int k, Random random) {
+        if (k < MIN_K) {
+            throw new IllegalArgumentException("k has to be at least " + MIN_K);
+        }
+        this.k = k;
+        this.random = random;
+        levels.add(new DoubleArrayList());
+        capacity = computeCapacity();
+    }
+
+    /**
+     * @param epsilon maximum normalized rank error, e.g. 0.01 for 1%
+     */
+    public static KllSketch forEpsilon(double epsilon) {
+        return new KllSketch(kForEpsilon(epsilon));
+    }
+
+    /**
+     * Empirical relation between k and the normalized rank error of a single quantile with 99% confidence
+     * as measured for KLL sketches.
+     */
+    public static int kForEpsilon(double epsilon) {
+        if (!(epsilon > 0 && epsilon < 1)) {
+            throw new IllegalArgumentException("Epsilon has to be between 0 and 1");
+        }
+        return Math.max(MIN_K, (int) Math.ceil(Math.pow(2.296 / epsilon, 1 / 0.9723)));
+    }
+
+    public static double epsilonForK(int k) {
+        return 2.296 / Math.pow(k, 0.9723);
+    }
+
+    public void update(double value) {
+        if (count == 0 || Double.compare(value, min) < 0) {
+            min = value;
+        }
+        if (count == 0 || Double.compare(value, max) > 0) {
+            max = value;
+        }
+
+        levels.get(0).add(value);
+        retainedCount++;
+        count++;
+        if (retainedCount > capacity) {
+            compress();
+        }
+    }
+
+    /**
+     * Adds all values of the other sketch, the other sketch is not changed.
+     */
+    public void merge(KllSketch other) {
+        if (other.count == 0) {
+            return;
+        }
+
+        while (levels.size() < other.levels.size()) {
+            levels.add(new DoubleArrayList());
+        }
+        for (int level = 0; level < other.levels.size(); level++) {
+            levels.get(level).addAll(other.levels.get(level));
+        }
+
+        min = count == 0 || Double.compare(other.min, min) < 0 ? other.min : min;
+        max = count == 0 || Double.compare(other.max, max) > 0 ? other.max : max;
+        count += other.count;
+        retainedCount += other.retainedCount;
+        capacity = computeCapacity();
+        compress();
+    }
+
+    private void compress() {
+        while (retainedCount > capacity) {
+            for (int level = 0; level < levels.size(); level++) {
+                if (levels.get(level).size() >= levelCapacity(level)) {
+                    compactLevel(level);
+                    break;
+                }
+            }
+        }
+    }
+
+    private void compactLevel(int level) {
+        if (level == levels.size() - 1) {
+            levels.add(new DoubleArrayList());
+            capacity = computeCapacity();
+        }
+
+        var values = levels.get(level);
+        var nextLevel = levels.get(level + 1);
+        values.sort(null);
+
+        // With an odd size the smallest value stays on this level
+        int keep = values.size() % 2;
+        int offset = random.nextBoolean() ? 1 : 0;
+        for (int i = keep + offset; i < values.size(); i += 2) {
+            nextLevel.add(values.getDouble(i));
+        }
+
+        int compacted = values.size() - keep;
+        retainedCount -= compacted / 2;
+        values.size(keep);
+    }
+
+    private int levelCapacity(int level) {
+        int depth = levels.size() - 1 - level;
+        return Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_DECAY, depth)));
+    }
+
+    private int computeCapacity() {
+        int total = 0;
+        for (int level = 0; level < levels.size(); level++) {
+            total += levelCapacity(level);
+        }
+        return total;
+    }
+
+    /**
+     * @return the approximate value at the given quantile, NaN for an empty sketch
+     */
+    public double getQuantile(double quantile) {
+        return getQuantiles(quantile)[0];
+    }
+
+    /**
+     * @return the approximate value at each of the given quantiles, NaN for an empty sketch
+     */
+    public double[] getQuantiles(double... quantiles) {
+        double[] result = new double[quantiles.length];
+        if (count == 0) {
+            Arrays.fill(result, Double.NaN);
+            return result;
+        }
+
+        double[] values = new double[retainedCount];
+        long[] weights = new long[retainedCount];
+        int index = 0;
+        for (int level = 0; level < levels.size(); level++) {
+            for (double value : levels.get(level)) {
+                values[index] = value;
+                weights[index] = 1L << level;
+                index++;
+            }
+        }
+        int[] order = new int[retainedCount];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        IntArrays.quickSort(order, (a, b) -> Double.compare(values[a], values[b]));
+
+        for (int i = 0; i < quantiles.length; i++) {
+            double quantile = quantiles[i];
+            if (!(quantile >= 0 && quantile <= 1)) {
+                throw new IllegalArgumentException("Quantiles have to be between 0 and 1 but got " + quantile);
+            }
+            if (quantile == 0) {
+                result[i] = min;
+            } else if (quantile == 1) {
+                result[i] = max;
+            } else {
+                long targetRank = (long) Math.floor(quantile * (count - 1));
+                long cumulativeWeight = 0;
+                for (int position : order) {
+                    cumulativeWeight += weights[position];
+                    if (cumulativeWeight > targetRank) {
+                        result[i] = values[position];
+                        break;
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return approximate fraction of values smaller or equal to the given value
+     */
+    public double getRank(double value) {
+        if (count == 0) {
+            return Double.NaN;
+        }
+
+        long weight = 0;
+        for (int level = 0; level < levels.size(); level++) {
+            for (double retained : levels.get(level)) {
+                if (Double.compare(retained, value) <= 0) {
+                    weight += 1L << level;
+                }
+            }
+        }
+        return (double) weight / count;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return number of values kept in the sketch
+     */
+    public int getRetainedCount() {
+        return retainedCount;
+    }
+
+    public void writeTo(DataOutput output) {
+        try {
+            output.writeInt(SERIALIZATION_MAGIC);
+            output.writeInt(k);
+            output.writeLong(count);
+            output.writeDouble(min);
+            output.writeDouble(max);
+            output.writeInt(levels.size());
+            for (var level : levels) {
+                output.writeInt(level.size());
+                for (double value : level) {
+                    output.writeDouble(value);
+                }
+            }
+        } catch (IOException e) {
+            throw new SketchException("Error writing sketch", e);
+        }
+    }
+
+    public static KllSketch readFrom(DataInput input) {
+        try {
+            if (input.readInt() != SERIALIZATION_MAGIC) {
+                throw new SketchException("Input is not a serialized sketch");
+            }
+
+            var sketch = new KllSketch(input.readInt());
+            sketch.count = input.readLong();
+            sketch.min = input.readDouble();
+            sketch.max = input.readDouble();
+            int levelCount = input.readInt();
+            if (levelCount < 1) {
+                throw new SketchException("Serialized sketch has no levels");
+            }
+            sketch.levels.clear();
+            for (int level = 0; level < levelCount; level++) {
+                int size = input.readInt();
+                var values = new DoubleArrayList(size);
+                for (int i = 0; i < size; i++) {
+                    values.add(input.readDouble());
+                }
+                sketch.levels.add(values);
+                sketch.retainedCount += size;
+            }
+            sketch.capacity = sketch.computeCapacity();
+            return sketch;
+        } catch (IOException e) {
+            throw new SketchException("Error reading sketch", e);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package wiest.median.calculator.sketch;
+
+public class SketchException extends RuntimeException {
+    public SketchException(String message) {
+        super(message);
+    }
+    public SketchException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
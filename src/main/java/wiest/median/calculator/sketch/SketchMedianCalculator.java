@@ -0,0 +1,67 @@
+package wiest.median.calculator.sketch;
+
+import wiest.median.DataSource;
+import wiest.median.MedianCalculator;
+
+/**
+ * Approximates the median in a single pass with bounded memory and without touching the disk.
+ * The values are only added to a {@link KllSketch}, which can be serialized and merged with the sketches of other runs.
+ */
+public class SketchMedianCalculator implements MedianCalculator {
+
+    private static final int BATCH_SIZE = 4096;
+
+    private final KllSketch sketch;
+
+    /**
+     * @param epsilon maximum normalized rank error of the results, e.g. 0.01 for 1%
+     */
+    public SketchMedianCalculator(double epsilon) {
+        this(KllSketch.forEpsilon(epsilon));
+    }
+
+    public SketchMedianCalculator(KllSketch sketch) {
+        this.sketch = sketch;
+    }
+
+    @Override
+    public void loadSource(DataSource source) {
+        double[] batch = new double[BATCH_SIZE];
+        int count;
+        while ((count = source.read(batch, 0, batch.length)) > 0) {
+            for (int i = 0; i < count; i++) {
+                sketch.update(batch[i]);
+            }
+        }
+        source.close();
+    }
+
+    /**
+     * Adds the values summarized by a sketch of another run
+     */
+    public void merge(KllSketch other) {
+        sketch.merge(other);
+    }
+
+    public KllSketch getSketch() {
+        return sketch;
+    }
+
+    @Override
+    public double calculateMedian() {
+        return calculateQuantiles(0.5)[0];
+    }
+
+    @Override
+    public double[] calculateQuantiles(double... quantiles) {
+        if (sketch.getCount() == 0) {
+            return new double[quantiles.length];
+        }
+        return sketch.getQuantiles(quantiles);
+    }
+
+    @Override
+    public void destroy() {
+
+    }
+}
@@ -0,0 +1,55 @@
+package wiest.median.filereader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Type of the values in a binary input file, all values have the same fixed size and no separators.
+ */
+public enum BinaryFormat {
+
+    DOUBLE(Double.BYTES) {
+        @Override
+        double read(ByteBuffer buffer, int position) {
+            return buffer.getDouble(position);
+        }
+    },
+
+    FLOAT(Float.BYTES) {
+        @Override
+        double read(ByteBuffer buffer, int position) {
+            return buffer.getFloat(position);
+        }
+    },
+
+    INT32(Integer.BYTES) {
+        @Override
+        double read(ByteBuffer buffer, int position) {
+            return buffer.getInt(position);
+        }
+    },
+
+    INT64(Long.BYTES) {
+        @Override
+        double read(ByteBuffer buffer, int position) {
+            return buffer.getLong(position);
+        }
+    };
+
+    private final int valueSize;
+
+    BinaryFormat(int valueSize) {
+        this.valueSize = valueSize;
+    }
+
+    /**
+     * @return size of one value in bytes
+     */
+    public int getValueSize() {
+        return valueSize;
+    }
+
+    /**
+     * Reads the value at the absolute position in the byte order of the buffer
+     */
+    abstract double read(ByteBuffer buffer, int position);
+}
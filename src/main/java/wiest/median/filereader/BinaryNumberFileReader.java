@@ -0,0 +1,210 @@
+package wiest.median.filereader;
+
+import wiest.median.ReopenableDataSource;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads values stored as raw binary numbers one after another, e.g. a dump of a double array.
+ * The file is memory mapped in windows so no copies are made and files larger than 2 GB can be read.
+ *
+ * A reader can be restricted to a range of values, see {@link #openChunks(String, BinaryFormat, ByteOrder, int)}
+ * to split a file into ranges that can be read in parallel.
+ */
+public class BinaryNumberFileReader implements ReopenableDataSource {
+
+    private static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private final String filename;
+    private final BinaryFormat format;
+    private final ByteOrder byteOrder;
+    private final FileChannel channel;
+    private final long start;
+    private final long end;
+    private final int windowSize;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowPosition = 0;
+    private int windowLimit = 0;
+
+    public BinaryNumberFileReader(String filename, BinaryFormat format, ByteOrder byteOrder) {
+        this(filename, format, byteOrder, 0, -1, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Reads only the values with an index in [startIndex, endIndex).
+     */
+    public BinaryNumberFileReader(String filename, BinaryFormat format, ByteOrder byteOrder,
+                                  long startIndex, long endIndex) {
+        this(filename, format, byteOrder, startIndex, endIndex, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * @param endIndex exclusive index of the last value, -1 to read up to the end of the file
+     * @param windowSize maximum number of bytes mapped at once
+     */
+    BinaryNumberFileReader(String filename, BinaryFormat format, ByteOrder byteOrder,
+                           long startIndex, long endIndex, int windowSize) {
+        this.filename = filename;
+        this.format = format;
+        this.byteOrder = byteOrder;
+        this.channel = openFile(filename);
+        long valueCount = countValues(channel, format, filename);
+        if (endIndex < 0) {
+            endIndex = valueCount;
+        }
+        if (startIndex < 0 || startIndex > endIndex || endIndex > valueCount) {
+            throw new FileReaderException("Invalid value range of file " + filename);
+        }
+
+        this.start = startIndex * format.getValueSize();
+        this.end = endIndex * format.getValueSize();
+        // Windows hold whole values only
+        this.windowSize = Math.max(format.getValueSize(), windowSize - windowSize % format.getValueSize());
+        this.windowStart = start;
+    }
+
+    /**
+     * Splits the file into up to chunkCount ranges with a similar number of values.
+     * @return one reader per non empty range
+     */
+    public static List<BinaryNumberFileReader> openChunks(String filename, BinaryFormat format, ByteOrder byteOrder,
+                                                          int chunkCount) {
+        if (chunkCount < 1) {
+            throw new IllegalArgumentException("Chunk count has to be at least 1");
+        }
+
+        long valueCount;
+        try (var file = openFile(filename)) {
+            valueCount = countValues(file, format, filename);
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot split file " + filename, e);
+        }
+
+        List<BinaryNumberFileReader> readers = new ArrayList<>();
+        long startIndex = 0;
+        for (int i = 1; i <= chunkCount; i++) {
+            long endIndex = valueCount * i / chunkCount;
+            if (endIndex > startIndex) {
+                readers.add(new BinaryNumberFileReader(filename, format, byteOrder, startIndex, endIndex));
+                startIndex = endIndex;
+            }
+        }
+        return readers;
+    }
+
+    private static FileChannel openFile(String filename) {
+        try {
+            return FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileReaderException("File does not exist!", e);
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot open file " + filename, e);
+        }
+    }
+
+    private static long countValues(FileChannel file, BinaryFormat format, String filename) {
+        try {
+            long size = file.size();
+            if (size % format.getValueSize() != 0) {
+                throw new FileReaderException(String.format("Size of file %s is not a multiple of the %d bytes of a %s",
+                        filename, format.getValueSize(), format));
+            }
+            return size / format.getValueSize();
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot determine the size of file " + filename, e);
+        }
+    }
+
+    @Override
+    public BinaryNumberFileReader reopen() {
+        return new BinaryNumberFileReader(filename, format, byteOrder,
+                start / format.getValueSize(), end / format.getValueSize(), windowSize);
+    }
+
+    @Override
+    public long estimatedSize() {
+        return (end - start) / format.getValueSize();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return windowPosition < windowLimit || windowStart + windowLimit < end;
+    }
+
+    @Override
+    public double getNext() {
+        if (windowPosition >= windowLimit && !mapNextWindow()) {
+            throw new FileReaderException("End of file reached");
+        }
+        double value = format.read(window, windowPosition);
+        windowPosition += format.getValueSize();
+        return value;
+    }
+
+    /**
+     * Reads the values directly from the mapped window, doubles are copied in bulk.
+     */
+    @Override
+    public int read(double[] buffer, int offset, int length) {
+        int count = 0;
+        while (count < length) {
+            if (windowPosition >= windowLimit && !mapNextWindow()) {
+                break;
+            }
+            int available = Math.min(length - count, (windowLimit - windowPosition) / format.getValueSize());
+            if (format == BinaryFormat.DOUBLE) {
+                window.asDoubleBuffer().get(windowPosition / Double.BYTES, buffer, offset + count, available);
+                windowPosition += available * Double.BYTES;
+            } else {
+                for (int i = 0; i < available; i++) {
+                    buffer[offset + count + i] = format.read(window, windowPosition);
+                    windowPosition += format.getValueSize();
+                }
+            }
+            count += available;
+        }
+        return count == 0 && length > 0 ? -1 : count;
+    }
+
+    /**
+     * Maps the window following the current one.
+     * @return false if the end of the range has been reached
+     */
+    private boolean mapNextWindow() {
+        long nextStart = window == null ? start : windowStart + windowLimit;
+        if (nextStart >= end) {
+            return false;
+        }
+
+        try {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, nextStart, Math.min(windowSize, end - nextStart));
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot map file " + filename, e);
+        }
+        window.order(byteOrder);
+        windowStart = nextStart;
+        windowPosition = 0;
+        windowLimit = window.limit();
+        return true;
+    }
+
+    @Override
+    public void close() {
+        window = null;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new FileReaderException("Error closing file", e);
+        }
+    }
+}
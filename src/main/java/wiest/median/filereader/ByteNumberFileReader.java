@@ -0,0 +1,191 @@
+package wiest.median.filereader;
+
+import wiest.median.ReopenableDataSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads one number per line like the {@link NumberFileReader} but scans the raw bytes of the file
+ * through one large reusable buffer. Line boundaries are found directly in the buffer and the numbers
+ * are parsed by the {@link NumberParser} so no objects are created per value.
+ *
+ * Empty lines are skipped.
+ *
+ * A reader can be restricted to a byte range of a file, see {@link #openChunks(String, int)}
+ * to split a file into line aligned ranges that can be parsed in parallel.
+ */
+public class ByteNumberFileReader implements ReopenableDataSource {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final String filename;
+    private final long start;
+    private final long rangeLength;
+    private final LineBuffer lines;
+    private long valueCount = 0;
+
+    public ByteNumberFileReader(String filename) {
+        this(LineBuffer.openFile(filename), filename, 0, DEFAULT_BUFFER_SIZE, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads only the lines within the byte range [start, end) of the file.
+     * The range has to start at the beginning of a line and end after a line break (or at the end of the file).
+     */
+    public ByteNumberFileReader(String filename, long start, long end) {
+        this(LineBuffer.openFile(filename), filename, start, DEFAULT_BUFFER_SIZE, end - start);
+        try {
+            ((FileChannel) lines.getChannel()).position(start);
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot seek in file " + filename, e);
+        }
+    }
+
+    public ByteNumberFileReader(ReadableByteChannel channel, int bufferSize) {
+        this(channel, null, 0, bufferSize, Long.MAX_VALUE);
+    }
+
+    private ByteNumberFileReader(ReadableByteChannel channel, String filename, long start, int bufferSize, long maxBytes) {
+        this.filename = filename;
+        this.start = start;
+        this.lines = new LineBuffer(channel, bufferSize, maxBytes);
+        this.rangeLength = maxBytes;
+    }
+
+    /**
+     * Splits the file into up to chunkCount byte ranges of similar size, each aligned to line breaks.
+     * @return one reader per non empty range
+     */
+    public static List<ByteNumberFileReader> openChunks(String filename, int chunkCount) {
+        if (chunkCount < 1) {
+            throw new IllegalArgumentException("Chunk count has to be at least 1");
+        }
+
+        List<ByteNumberFileReader> readers = new ArrayList<>();
+        try (var file = LineBuffer.openFile(filename)) {
+            long size = file.size();
+            long start = 0;
+            for (int i = 1; i <= chunkCount && start < size; i++) {
+                long end = i == chunkCount ? size : nextLineStart(file, size * i / chunkCount, size);
+                if (end > start) {
+                    readers.add(new ByteNumberFileReader(filename, start, end));
+                    start = end;
+                }
+            }
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot split file " + filename, e);
+        }
+        return readers;
+    }
+
+    /**
+     * @return the position of the first line start at or after the given position
+     */
+    private static long nextLineStart(FileChannel file, long position, long size) throws IOException {
+        if (position == 0) {
+            return 0;
+        }
+
+        var lookup = ByteBuffer.allocate(4096);
+        // Start one byte early so a line break directly in front of the position is detected
+        long current = position - 1;
+        while (current < size) {
+            lookup.clear();
+            int read = file.read(lookup, current);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (lookup.get(i) == '\n') {
+                    return current + i + 1;
+                }
+            }
+            current += read;
+        }
+        return size;
+    }
+
+    /**
+     * @return true for readers created from a filename, a channel cannot be read again
+     */
+    @Override
+    public boolean canReopen() {
+        return filename != null;
+    }
+
+    /**
+     * Opens a new reader for the same file and byte range, only possible for readers created from a filename.
+     */
+    @Override
+    public ByteNumberFileReader reopen() {
+        if (filename == null) {
+            throw new FileReaderException("Only readers created from a file can be reopened");
+        }
+        if (rangeLength == Long.MAX_VALUE) {
+            return new ByteNumberFileReader(filename);
+        }
+        return new ByteNumberFileReader(filename, start, start + rangeLength);
+    }
+
+    /**
+     * Extrapolates the number of values in the file or range from the bytes per value read so far.
+     * @return -1 before the first value was read or if the size of the input is not known
+     */
+    @Override
+    public long estimatedSize() {
+        long consumedBytes = lines.getReadBytes() - lines.unconsumedBytes();
+        if (valueCount == 0 || consumedBytes <= 0 || !(lines.getChannel() instanceof FileChannel file)) {
+            return -1;
+        }
+
+        try {
+            long totalBytes = rangeLength == Long.MAX_VALUE ? file.size() - start : rangeLength;
+            return Math.max(valueCount, (long) ((double) totalBytes / consumedBytes * valueCount));
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot determine the size of file " + filename, e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return lines.skipWhitespace();
+    }
+
+    @Override
+    public double getNext() {
+        if (!lines.skipWhitespace()) {
+            throw new FileReaderException("End of file reached");
+        }
+
+        int end = lines.findTokenEnd();
+        double value = NumberParser.parse(lines.bytes(), lines.position(), end);
+        lines.consumeTo(end);
+        valueCount++;
+        return value;
+    }
+
+    /**
+     * Parses values directly into the buffer until it is full or the input ends.
+     */
+    @Override
+    public int read(double[] buffer, int offset, int length) {
+        int count = 0;
+        while (count < length && lines.skipWhitespace()) {
+            int end = lines.findTokenEnd();
+            buffer[offset + count++] = NumberParser.parse(lines.bytes(), lines.position(), end);
+            lines.consumeTo(end);
+        }
+        valueCount += count;
+        return count == 0 && length > 0 ? -1 : count;
+    }
+
+    @Override
+    public void close() {
+        lines.close();
+    }
+}
@@ -0,0 +1,278 @@
+package wiest.median.filereader;
+
+import wiest.median.ReopenableDataSource;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads a gzip compressed text file with one number per line without decompressing it to disk.
+ * Files made of several concatenated gzip members are read completely.
+ *
+ * Decompressing and parsing run on two threads of their own, connected by bounded queues:
+ * the inflate thread passes chunks of decompressed bytes to the parse thread, which passes batches of
+ * parsed values to the thread reading from this source. So inflating, parsing and storing the values
+ * use separate cores while at most a few chunks and batches are buffered.
+ */
+public class GzipNumberFileReader implements ReopenableDataSource {
+
+    private static final int CHUNK_SIZE = 1 << 20;
+    private static final int BATCH_SIZE = 8192;
+    private static final int QUEUE_CAPACITY = 4;
+    private static final int GZIP_MAGIC = 0x1f8b;
+
+    private static final ByteBuffer END_OF_CHUNKS = ByteBuffer.allocate(0);
+    private static final Batch END_OF_BATCHES = new Batch(new double[0], 0);
+
+    private final String filename;
+    private final long compressedSize;
+    private final BlockingQueue<ByteBuffer> chunks = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final BlockingQueue<Batch> batches = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final AtomicLong compressedBytesRead = new AtomicLong();
+    private final AtomicLong parsedValueCount = new AtomicLong();
+    private final Thread inflateThread;
+    private final Thread parseThread;
+    private volatile Throwable failure;
+
+    private Batch currentBatch = END_OF_BATCHES;
+    private int batchPosition = 0;
+    private boolean finished = false;
+
+    public GzipNumberFileReader(String filename) {
+        this.filename = filename;
+        var path = Path.of(filename);
+        InputStream fileInput;
+        try {
+            compressedSize = Files.size(path);
+            fileInput = Files.newInputStream(path);
+        } catch (NoSuchFileException e) {
+            throw new FileReaderException("File does not exist!", e);
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot open file " + filename, e);
+        }
+
+        inflateThread = new Thread(() -> inflate(fileInput), "gzip-inflate");
+        parseThread = new Thread(this::parse, "gzip-parse");
+        inflateThread.setDaemon(true);
+        parseThread.setDaemon(true);
+        inflateThread.start();
+        parseThread.start();
+    }
+
+    /**
+     * @return true if the file starts with the gzip magic bytes
+     */
+    public static boolean isGzipFile(String filename) {
+        try (var input = Files.newInputStream(Path.of(filename))) {
+            int first = input.read();
+            int second = input.read();
+            return first >= 0 && second >= 0 && ((first << 8) | second) == GZIP_MAGIC;
+        } catch (NoSuchFileException e) {
+            throw new FileReaderException("File does not exist!", e);
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot open file " + filename, e);
+        }
+    }
+
+    private void inflate(InputStream fileInput) {
+        try (var input = new GZIPInputStream(new CountingInputStream(fileInput), 1 << 16)) {
+            int length;
+            do {
+                byte[] chunk = new byte[CHUNK_SIZE];
+                length = input.readNBytes(chunk, 0, chunk.length);
+                if (length > 0) {
+                    chunks.put(ByteBuffer.wrap(chunk, 0, length));
+                }
+            } while (length == CHUNK_SIZE);
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            return;
+        }
+
+        try {
+            chunks.put(END_OF_CHUNKS);
+        } catch (InterruptedException e) {
+            // Closed while waiting, nobody reads the chunks anymore
+        }
+    }
+
+    private void parse() {
+        try {
+            var reader = new ByteNumberFileReader(new ChunkChannel(), CHUNK_SIZE);
+            int count;
+            do {
+                double[] values = new double[BATCH_SIZE];
+                count = reader.read(values, 0, values.length);
+                if (count > 0) {
+                    parsedValueCount.addAndGet(count);
+                    batches.put(new Batch(values, count));
+                }
+            } while (count > 0);
+        } catch (InterruptedException e) {
+            return;
+        } catch (RuntimeException e) {
+            if (parseThread.isInterrupted()) {
+                return;
+            }
+            failure = e;
+        }
+
+        try {
+            batches.put(END_OF_BATCHES);
+        } catch (InterruptedException e) {
+            // Closed while waiting, nobody reads the batches anymore
+        }
+    }
+
+    @Override
+    public GzipNumberFileReader reopen() {
+        return new GzipNumberFileReader(filename);
+    }
+
+    /**
+     * Extrapolates the number of values from the compressed bytes read for the values parsed so far.
+     * @return -1 before the first values are parsed
+     */
+    @Override
+    public long estimatedSize() {
+        long parsed = parsedValueCount.get();
+        long compressed = compressedBytesRead.get();
+        if (parsed == 0 || compressed == 0) {
+            return -1;
+        }
+        return Math.max(parsed, (long) ((double) compressedSize / compressed * parsed));
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (batchPosition >= currentBatch.count()) {
+            if (finished) {
+                return false;
+            }
+            try {
+                currentBatch = batches.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FileReaderException("Interrupted while reading file " + filename, e);
+            }
+            batchPosition = 0;
+            if (currentBatch == END_OF_BATCHES) {
+                finished = true;
+                if (failure != null) {
+                    throw new FileReaderException("Error reading compressed file " + filename, failure);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public double getNext() {
+        if (!hasNext()) {
+            throw new FileReaderException("End of file reached");
+        }
+        return currentBatch.values()[batchPosition++];
+    }
+
+    @Override
+    public int read(double[] buffer, int offset, int length) {
+        int count = 0;
+        while (count < length && hasNext()) {
+            int available = Math.min(length - count, currentBatch.count() - batchPosition);
+            System.arraycopy(currentBatch.values(), batchPosition, buffer, offset + count, available);
+            batchPosition += available;
+            count += available;
+        }
+        return count == 0 && length > 0 ? -1 : count;
+    }
+
+    @Override
+    public void close() {
+        finished = true;
+        inflateThread.interrupt();
+        parseThread.interrupt();
+    }
+
+    private record Batch(double[] values, int count) {
+    }
+
+    /**
+     * Hands the decompressed chunks to the {@link ByteNumberFileReader} of the parse thread
+     */
+    private class ChunkChannel implements ReadableByteChannel {
+
+        private ByteBuffer chunk = ByteBuffer.allocate(0);
+        private boolean open = true;
+
+        @Override
+        public int read(ByteBuffer destination) throws IOException {
+            while (!chunk.hasRemaining()) {
+                if (chunk == END_OF_CHUNKS) {
+                    return -1;
+                }
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+                }
+            }
+
+            int length = Math.min(chunk.remaining(), destination.remaining());
+            destination.put(destination.position(), chunk, chunk.position(), length);
+            destination.position(destination.position() + length);
+            chunk.position(chunk.position() + length);
+            return length;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return open;
+        }
+
+        @Override
+        public void close() {
+            open = false;
+        }
+    }
+
+    /**
+     * Counts the compressed bytes read to estimate the number of values
+     */
+    private class CountingInputStream extends FilterInputStream {
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value >= 0) {
+                compressedBytesRead.incrementAndGet();
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                compressedBytesRead.addAndGet(read);
+            }
+            return read;
+        }
+    }
+}
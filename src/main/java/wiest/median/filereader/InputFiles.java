@@ -0,0 +1,84 @@
+package wiest.median.filereader;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Resolves the input arguments to the files to read. An argument can be a file, a directory
+ * (all files in it and its subdirectories) or a glob pattern like data/2024-*&#47;*.txt.
+ */
+public final class InputFiles {
+
+    private InputFiles() {
+    }
+
+    /**
+     * @return the files of all arguments, the files of each argument sorted by name
+     */
+    public static List<Path> resolve(List<String> arguments) {
+        List<Path> files = new ArrayList<>();
+        for (var argument : arguments) {
+            files.addAll(resolve(argument));
+        }
+        return files;
+    }
+
+    public static List<Path> resolve(String argument) {
+        if (!isGlob(argument)) {
+            var path = Path.of(argument);
+            if (Files.isDirectory(path)) {
+                return regularFiles(path, path, "glob:**");
+            }
+            if (!Files.exists(path)) {
+                throw new FileReaderException("File does not exist! " + argument);
+            }
+            return List.of(path);
+        }
+
+        // Walk from the deepest directory without wildcards and match the rest of the pattern
+        var separator = FileSystems.getDefault().getSeparator();
+        int globStart = firstGlobCharacter(argument);
+        int baseEnd = Math.max(argument.lastIndexOf('/', globStart), argument.lastIndexOf(separator, globStart));
+        var base = Path.of(baseEnd < 0 ? "." : baseEnd == 0 ? separator : argument.substring(0, baseEnd));
+        var files = Files.isDirectory(base)
+                ? regularFiles(base, base, "glob:" + argument.substring(baseEnd + 1))
+                : List.<Path>of();
+        if (files.isEmpty()) {
+            throw new FileReaderException("No file matches " + argument);
+        }
+        return files;
+    }
+
+    private static boolean isGlob(String argument) {
+        return firstGlobCharacter(argument) < argument.length();
+    }
+
+    private static int firstGlobCharacter(String argument) {
+        for (int i = 0; i < argument.length(); i++) {
+            char c = argument.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '{') {
+                return i;
+            }
+        }
+        return argument.length();
+    }
+
+    private static List<Path> regularFiles(Path directory, Path base, String pattern) {
+        var matcher = FileSystems.getDefault().getPathMatcher(pattern);
+        try (Stream<Path> paths = Files.walk(directory)) {
+            return paths
+                    .filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(base.relativize(path)))
+                    .sorted()
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot list files of " + directory, e);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package wiest.median.filereader;
+
+import wiest.median.KeyValueSource;
+
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads CSV lines of the form key,value like "/api/users,12.5". The key is everything before the first comma,
+ * the value is parsed by the {@link NumberParser} so a decimal comma is accepted as well ("/api/users,12,5").
+ *
+ * Like the {@link ByteNumberFileReader} the lines are scanned in one large reusable {@link LineBuffer}.
+ * Consecutive lines with the same key share the same key String, so sorted or clustered input
+ * creates hardly any objects. Empty lines are skipped, as is a first line whose value is not a number (a header).
+ */
+public class KeyValueFileReader implements KeyValueSource {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+
+    private final LineBuffer lines;
+    private final byte[] bytes;
+
+    private boolean firstLine = true;
+    private byte[] lastKeyBytes = new byte[0];
+    private String lastKey = "";
+
+    public KeyValueFileReader(String filename) {
+        this(LineBuffer.openFile(filename), DEFAULT_BUFFER_SIZE);
+    }
+
+    public KeyValueFileReader(ReadableByteChannel channel, int bufferSize) {
+        this.lines = new LineBuffer(channel, bufferSize, Long.MAX_VALUE);
+        this.bytes = lines.bytes();
+    }
+
+    @Override
+    public int read(String[] keys, double[] values, int offset, int length) {
+        int count = 0;
+        while (count < length) {
+            int lineEnd = lines.findLineEnd();
+            if (lineEnd < 0) {
+                break;
+            }
+            int lineStart = lines.position();
+            lines.consumeLine(lineEnd);
+
+            int end = lineEnd;
+            while (end > lineStart && isWhitespace(bytes[end - 1])) {
+                end--;
+            }
+            if (end == lineStart) {
+                continue;
+            }
+
+            int separator = lineStart;
+            while (separator < end && bytes[separator] != ',') {
+                separator++;
+            }
+            if (separator == end) {
+                throw new FileReaderException("Missing separator in line "
+                        + new String(bytes, lineStart, end - lineStart, StandardCharsets.UTF_8));
+            }
+            int valueStart = separator + 1;
+            while (valueStart < end && isWhitespace(bytes[valueStart])) {
+                valueStart++;
+            }
+
+            double value;
+            try {
+                value = NumberParser.parse(bytes, valueStart, end);
+            } catch (FileReaderException e) {
+                if (firstLine) {
+                    firstLine = false;
+                    continue;
+                }
+                throw e;
+            }
+            firstLine = false;
+            keys[offset + count] = key(lineStart, separator);
+            values[offset + count] = value;
+            count++;
+        }
+        return count == 0 && length > 0 ? -1 : count;
+    }
+
+    /**
+     * @return the key String of the bytes, the previous one if the bytes are the same
+     */
+    private String key(int from, int to) {
+        if (!Arrays.equals(bytes, from, to, lastKeyBytes, 0, lastKeyBytes.length)) {
+            lastKeyBytes = Arrays.copyOfRange(bytes, from, to);
+            lastKey = new String(lastKeyBytes, StandardCharsets.UTF_8);
+        }
+        return lastKey;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == '\r' || b == ' ' || b == '\t';
+    }
+
+    @Override
+    public void close() {
+        lines.close();
+    }
+}
@@ -0,0 +1,213 @@
+package wiest.median.filereader;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * One large reusable buffer the text readers scan in place. The bytes between the position and the limit
+ * are not consumed yet, {@link #fill()} keeps them and reads more behind them, so a line or token that crosses
+ * the end of the read data is never split.
+ *
+ * The scanning loops, the hot path of parsing, live here next to the position they move. The readers parse
+ * the bytes of the tokens and lines found and then consume them.
+ */
+final class LineBuffer {
+
+    private final byte[] bytes;
+    private int position = 0;
+    private int limit = 0;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer buffer;
+    private boolean endOfInput = false;
+    private long remainingBytes;
+    private long readBytes = 0;
+
+    /**
+     * @param maxBytes number of bytes to read from the channel at most, Long.MAX_VALUE to read until its end
+     */
+    LineBuffer(ReadableByteChannel channel, int bufferSize, long maxBytes) {
+        this.channel = channel;
+        this.bytes = new byte[bufferSize];
+        this.buffer = ByteBuffer.wrap(bytes);
+        this.remainingBytes = maxBytes;
+    }
+
+    static FileChannel openFile(String filename) {
+        try {
+            return FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new FileReaderException("File does not exist!", e);
+        } catch (IOException e) {
+            throw new FileReaderException("Cannot open file " + filename, e);
+        }
+    }
+
+    ReadableByteChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return the buffer the found tokens and lines are in, only valid until the next scan reads more data
+     */
+    byte[] bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return index of the first byte not consumed yet
+     */
+    int position() {
+        return position;
+    }
+
+    /**
+     * Consumes the bytes up to the exclusive end, which lies between the position and the end of the found token
+     */
+    void consumeTo(int end) {
+        position = end;
+    }
+
+    /**
+     * Consumes the line ending at the line break found by {@link #findLineEnd()}, including the line break
+     */
+    void consumeLine(int lineEnd) {
+        position = Math.min(limit, lineEnd + 1);
+    }
+
+    /**
+     * @return bytes read from the channel but not consumed yet
+     */
+    int unconsumedBytes() {
+        return limit - position;
+    }
+
+    /**
+     * Moves the position to the next byte that is no whitespace or line break, reading more data if necessary.
+     * @return true if there is another token available
+     */
+    boolean skipWhitespace() {
+        while (true) {
+            while (position < limit) {
+                if (!isWhitespace(bytes[position])) {
+                    return true;
+                }
+                position++;
+            }
+            if (!fill()) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Finds the exclusive end of the token starting at the current position.
+     * The token is moved to the start of the buffer if it crosses the end of the currently read data.
+     */
+    int findTokenEnd() {
+        int end = position;
+        while (true) {
+            while (end < limit) {
+                if (isWhitespace(bytes[end])) {
+                    return end;
+                }
+                end++;
+            }
+            int tokenLength = end - position;
+            if (!fill()) {
+                return limit;
+            }
+            end = position + tokenLength;
+        }
+    }
+
+    /**
+     * Finds the line break ending the line at the current position, reading more data if necessary.
+     * @return the index of the line break, limit for the last line without a line break, -1 at the end of the input
+     */
+    int findLineEnd() {
+        int end = position;
+        while (true) {
+            while (end < limit) {
+                if (bytes[end] == '\n') {
+                    return end;
+                }
+                end++;
+            }
+            int lineLength = end - position;
+            if (!fill()) {
+                return position < limit ? limit : -1;
+            }
+            end = position + lineLength;
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == '\n' || b == '\r' || b == ' ' || b == '\t';
+    }
+
+    /**
+     * @return bytes read from the channel so far, including the ones not consumed yet
+     */
+    long getReadBytes() {
+        return readBytes;
+    }
+
+    /**
+     * Keeps the unconsumed bytes, moves them to the start of the buffer and reads as much data as fits.
+     * @return false if no more data could be read
+     */
+    private boolean fill() {
+        if (endOfInput) {
+            return false;
+        }
+
+        int remaining = limit - position;
+        if (remaining == bytes.length) {
+            throw new FileReaderException("Line exceeds the read buffer size of " + bytes.length + " bytes");
+        }
+        System.arraycopy(bytes, position, bytes, 0, remaining);
+        position = 0;
+        limit = remaining;
+
+        if (remainingBytes <= 0) {
+            endOfInput = true;
+            return false;
+        }
+
+        try {
+            buffer.clear().position(limit);
+            if (remainingBytes < buffer.remaining()) {
+                buffer.limit(limit + (int) remainingBytes);
+            }
+            int read;
+            do {
+                read = channel.read(buffer);
+            } while (read == 0);
+
+            if (read < 0) {
+                endOfInput = true;
+                return false;
+            }
+            remainingBytes -= read;
+            readBytes += read;
+            limit = buffer.position();
+            return true;
+        } catch (IOException e) {
+            throw new FileReaderException("Error reading file", e);
+        }
+    }
+
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new FileReaderException("Error closing file", e);
+        }
+    }
+}
@@ -27,17 +27,29 @@ public class NumberFileReader implements DataSource {
 
     public double getNext() {
         if (hasNext()) {
-            var numStr = file.nextLine().replace(".", ",");
-            try {
-                return nf.parse(numStr).doubleValue();
-            } catch (ParseException e) {
-                throw new FileReaderException(String.format("Error reading value %s", numStr), e);
-            }
+            return parseNextLine();
         } else {
             throw new FileReaderException("End of file reached");
         }
     }
 
+    public int read(double[] buffer, int offset, int length) {
+        int count = 0;
+        while (count < length && file.hasNext()) {
+            buffer[offset + count++] = parseNextLine();
+        }
+        return count == 0 && length > 0 ? -1 : count;
+    }
+
+    private double parseNextLine() {
+        var numStr = file.nextLine().replace(".", ",");
+        try {
+            return nf.parse(numStr).doubleValue();
+        } catch (ParseException e) {
+            throw new FileReaderException(String.format("Error reading value %s", numStr), e);
+        }
+    }
+
     public void close() {
         file.close();
     }
@@ -0,0 +1,140 @@
+package wiest.median.filereader;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parses doubles directly from the bytes of a text line without creating intermediate Strings.
+ * Accepts '.' as well as ',' as decimal separator and an optional exponent (e.g. "-1,5E-3").
+ *
+ * Numbers with at most 15 significant digits and a small exponent (the vast majority of real world data)
+ * are converted exactly using a single floating point multiplication or division.
+ * Only longer numbers fall back to {@link Double#parseDouble(String)} to keep the result correctly rounded.
+ */
+public final class NumberParser {
+
+    private static final int MAX_FAST_DIGITS = 15;
+    private static final int MAX_MANTISSA_DIGITS = 19;
+    private static final int MAX_FAST_EXPONENT = 22;
+
+    private static final double[] POWERS_OF_TEN = new double[MAX_FAST_EXPONENT + 1];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+        }
+    }
+
+    private NumberParser() {
+    }
+
+    /**
+     * @param bytes buffer containing the number
+     * @param from inclusive start index of the number
+     * @param to exclusive end index of the number
+     * @return the parsed value
+     * @throws FileReaderException if the bytes do not contain a valid number
+     */
+    public static double parse(byte[] bytes, int from, int to) {
+        int pos = from;
+        boolean negative = false;
+
+        if (pos < to && (bytes[pos] == '-' || bytes[pos] == '+')) {
+            negative = bytes[pos] == '-';
+            pos++;
+        }
+
+        long mantissa = 0;
+        int significantDigits = 0;
+        int digitCount = 0;
+        int exponent = 0;
+        boolean truncated = false;
+        boolean separatorSeen = false;
+
+        for (; pos < to; pos++) {
+            int b = bytes[pos];
+            if (b >= '0' && b <= '9') {
+                digitCount++;
+                if (mantissa == 0 && b == '0') {
+                    // leading zeros are not significant, but they shift the exponent behind the separator
+                    if (separatorSeen) {
+                        exponent--;
+                    }
+                } else if (significantDigits < MAX_MANTISSA_DIGITS) {
+                    mantissa = mantissa * 10 + (b - '0');
+                    significantDigits++;
+                    if (separatorSeen) {
+                        exponent--;
+                    }
+                } else {
+                    truncated = true;
+                    if (!separatorSeen) {
+                        exponent++;
+                    }
+                }
+            } else if ((b == '.' || b == ',') && !separatorSeen) {
+                separatorSeen = true;
+            } else {
+                break;
+            }
+        }
+
+        if (digitCount == 0) {
+            throw invalidNumber(bytes, from, to);
+        }
+
+        if (pos < to && (bytes[pos] == 'e' || bytes[pos] == 'E')) {
+            pos++;
+            boolean negativeExponent = false;
+            if (pos < to && (bytes[pos] == '-' || bytes[pos] == '+')) {
+                negativeExponent = bytes[pos] == '-';
+                pos++;
+            }
+
+            int exponentStart = pos;
+            int explicitExponent = 0;
+            for (; pos < to && bytes[pos] >= '0' && bytes[pos] <= '9'; pos++) {
+                // Clamp to avoid overflows, anything this large is an infinity or zero anyway
+                if (explicitExponent < 100_000) {
+                    explicitExponent = explicitExponent * 10 + (bytes[pos] - '0');
+                }
+            }
+            if (pos == exponentStart) {
+                throw invalidNumber(bytes, from, to);
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        if (pos != to) {
+            throw invalidNumber(bytes, from, to);
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (!truncated && significantDigits <= MAX_FAST_DIGITS
+                && exponent >= -MAX_FAST_EXPONENT && exponent <= MAX_FAST_EXPONENT) {
+            value = exponent < 0
+                    ? mantissa / POWERS_OF_TEN[-exponent]
+                    : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            return parseSlow(bytes, from, to);
+        }
+
+        return negative ? -value : value;
+    }
+
+    private static double parseSlow(byte[] bytes, int from, int to) {
+        var numStr = new String(bytes, from, to - from, StandardCharsets.ISO_8859_1).replace(',', '.');
+        try {
+            return Double.parseDouble(numStr);
+        } catch (NumberFormatException e) {
+            throw new FileReaderException(String.format("Error reading value %s", numStr), e);
+        }
+    }
+
+    private static FileReaderException invalidNumber(byte[] bytes, int from, int to) {
+        return new FileReaderException(String.format("Error reading value %s",
+                new String(bytes, from, to - from, StandardCharsets.ISO_8859_1)));
+    }
+}
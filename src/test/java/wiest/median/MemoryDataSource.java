@@ -2,7 +2,7 @@ package wiest.median;
 
 import java.util.List;
 
-public class MemoryDataSource implements DataSource {
+public class MemoryDataSource implements ReopenableDataSource {
 
     private final List<Double> nums;
     private int index = 0;
@@ -21,6 +21,28 @@ public class MemoryDataSource implements DataSource {
         return nums.get(index++);
     }
 
+    @Override
+    public int read(double[] buffer, int offset, int length) {
+        if (index >= nums.size()) {
+            return -1;
+        }
+        int count = Math.min(length, nums.size() - index);
+        for (int i = 0; i < count; i++) {
+            buffer[offset + i] = nums.get(index++);
+        }
+        return count;
+    }
+
+    @Override
+    public long estimatedSize() {
+        return nums.size();
+    }
+
+    @Override
+    public DataSource reopen() {
+        return new MemoryDataSource(nums);
+    }
+
     @Override
     public void close() {
 
@@ -0,0 +1,224 @@
+package wiest.median.calculator.distributed;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import wiest.median.Application;
+import wiest.median.MemoryDataSource;
+import wiest.median.calculator.file.FileDataSetSettings;
+import wiest.median.calculator.file.FileMedianCalculator;
+import wiest.median.calculator.file.LocalFileTest;
+import wiest.median.calculator.file.StorageMode;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardCoordinatorTest extends LocalFileTest {
+
+    private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.75, 0.99, 1};
+
+    private final List<FileMedianCalculator> shards = new ArrayList<>();
+    private final List<ShardWorker> workers = new ArrayList<>();
+
+    @AfterEach
+    void stopWorkers() {
+        workers.forEach(ShardWorker::close);
+        shards.forEach(FileMedianCalculator::destroy);
+    }
+
+    /**
+     * Loads the shard into its own calculator and serves it on a free port of localhost
+     */
+    private InetSocketAddress startWorker(List<Double> shard, int maxDataInMemoryKb, FileDataSetSettings settings) {
+        var calc = new FileMedianCalculator(TEST_DATA_DIR, maxDataInMemoryKb, settings);
+        calc.loadSource(new MemoryDataSource(shard));
+        shards.add(calc);
+        var worker = new ShardWorker(calc, 0);
+        workers.add(worker);
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), worker.getPort());
+    }
+
+    private static double[] expectedQuantiles(List<Double> numbers, double... quantiles) {
+        var calc = new FileMedianCalculator(TEST_DATA_DIR, 64 * 1024);
+        calc.loadSource(new MemoryDataSource(numbers));
+        var result = calc.calculateQuantiles(quantiles);
+        calc.destroy();
+        return result;
+    }
+
+    private static List<Double> randomNumbers(int count, long seed) {
+        return new Random(seed).doubles(count).map(d -> (d - 0.3) * d * 1e6).boxed().collect(Collectors.toList());
+    }
+
+    @Test
+    void testQuantilesMatchSingleCalculator() {
+        List<Double> allNumbers = new ArrayList<>();
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (var mode : StorageMode.values()) {
+            // The small memory budget stores most of the shard on disk
+            var shard = randomNumbers(60_000, mode.ordinal());
+            allNumbers.addAll(shard);
+            addresses.add(startWorker(shard, 64, FileDataSetSettings.defaults().withStorageMode(mode)));
+        }
+        var inMemoryShard = randomNumbers(5_000, 7);
+        allNumbers.addAll(inMemoryShard);
+        addresses.add(startWorker(inMemoryShard, 64 * 1024, FileDataSetSettings.defaults()));
+        assertFalse(shards.get(0).isInMemory());
+
+        try (var coordinator = new ShardCoordinator(addresses)) {
+            assertEquals(allNumbers.size(), coordinator.getTotalSize());
+            assertArrayEquals(expectedQuantiles(allNumbers, QUANTILES), coordinator.calculateQuantiles(QUANTILES));
+            assertTrue(coordinator.getLastRoundCount() <= 8, "rounds: " + coordinator.getLastRoundCount());
+            assertEquals(expectedQuantiles(allNumbers, 0.5)[0], coordinator.calculateMedian());
+        }
+    }
+
+    @Test
+    void testDuplicatesAndSignedZeros() {
+        var first = List.of(-0.0, 0.0, 0.0, -1.0, 5.0, 5.0, Double.NEGATIVE_INFINITY);
+        var second = List.of(0.0, -0.0, 5.0, Double.MAX_VALUE, Double.POSITIVE_INFINITY, -Double.MIN_VALUE);
+        List<Double> allNumbers = new ArrayList<>(first);
+        allNumbers.addAll(second);
+
+        try (var coordinator = new ShardCoordinator(List.of(
+                startWorker(first, 1024, FileDataSetSettings.defaults()),
+                startWorker(second, 1024, FileDataSetSettings.defaults())))) {
+            assertArrayEquals(expectedQuantiles(allNumbers, QUANTILES), coordinator.calculateQuantiles(QUANTILES));
+            assertEquals(5, coordinator.countAtMost(-0.0));
+            assertEquals(8, coordinator.countAtMost(0.0));
+            assertArrayEquals(new long[] {2, 6, 3, 2}, coordinator.countRanges(new double[] {-1.0, 0.0, 5.0}));
+        }
+    }
+
+    @Test
+    void testEmptyShards() {
+        var shard = List.of(3.0, 1.0, 2.0);
+        try (var coordinator = new ShardCoordinator(List.of(
+                startWorker(List.of(), 1024, FileDataSetSettings.defaults()),
+                startWorker(shard, 1024, FileDataSetSettings.defaults())))) {
+            assertEquals(2.0, coordinator.calculateMedian());
+        }
+
+        try (var coordinator = new ShardCoordinator(List.of(
+                startWorker(List.of(), 1024, FileDataSetSettings.defaults())))) {
+            assertEquals(0, coordinator.calculateMedian());
+        }
+    }
+
+    @Test
+    void testWorkerErrorKeepsConnectionsUsable() {
+        try (var coordinator = new ShardCoordinator(List.of(
+                startWorker(List.of(1.0, 2.0), 1024, FileDataSetSettings.defaults()),
+                startWorker(List.of(3.0), 1024, FileDataSetSettings.defaults())))) {
+            var error = assertThrows(DistributedMedianException.class,
+                    () -> coordinator.countRanges(new double[] {2.0, 1.0}));
+            assertTrue(error.getMessage().contains("sorted ascending"), error.getMessage());
+            assertEquals(2.0, coordinator.calculateMedian());
+        }
+    }
+
+    /**
+     * Starts the workers and the coordinator as separate JVMs through the command line, like on separate hosts
+     */
+    @Test
+    void testWorkerProcessesMatchSingleProcess(@TempDir Path tempDir) throws IOException, InterruptedException {
+        var numbers = new Random(17).ints(40_001, -50_000, 50_000).mapToDouble(i -> i / 4.0).boxed().toList();
+        List<String> shardFiles = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            var shardFile = tempDir.resolve("shard-" + i + ".txt");
+            Files.write(shardFile, numbers.subList(i * 20_000, i == 0 ? 20_000 : numbers.size()).stream()
+                    .map(Object::toString).toList());
+            shardFiles.add(shardFile.toString());
+        }
+
+        List<Process> workerProcesses = new ArrayList<>();
+        try {
+            List<String> ports = new ArrayList<>();
+            for (int i = 0; i < shardFiles.size(); i++) {
+                var output = tempDir.resolve("worker-" + i + ".log");
+                var workerDir = Files.createDirectories(tempDir.resolve("worker-" + i));
+                workerProcesses.add(applicationProcess(workerDir, "--worker", "0", shardFiles.get(i))
+                        .redirectOutput(output.toFile())
+                        .start());
+                ports.add(awaitWorkerPort(output, workerProcesses.get(i)));
+            }
+
+            String addresses = "localhost:" + String.join(",localhost:", ports);
+            String distributed = runApplication(tempDir, "--coordinator", addresses, "--stop-workers");
+            String single = runApplication(tempDir, shardFiles.get(0), shardFiles.get(1));
+
+            String median = String.format("%f", expectedQuantiles(numbers, 0.5)[0]);
+            assertTrue(distributed.contains("Median of 2 workers is " + median), distributed);
+            assertTrue(single.contains(" is " + median), single);
+            for (var process : workerProcesses) {
+                assertTrue(process.waitFor(1, TimeUnit.MINUTES), "Worker did not stop");
+                assertEquals(0, process.exitValue());
+            }
+        } finally {
+            workerProcesses.forEach(Process::destroyForcibly);
+        }
+    }
+
+    private static ProcessBuilder applicationProcess(Path dir, String... args) {
+        List<String> command = new ArrayList<>(List.of(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                Application.class.getName()));
+        command.addAll(List.of(args));
+        return new ProcessBuilder(command).directory(dir.toFile());
+    }
+
+    /**
+     * @return the output of the application, fails if it does not finish successfully
+     */
+    private static String runApplication(Path dir, String... args) throws IOException, InterruptedException {
+        var process = applicationProcess(dir, args).redirectErrorStream(true).start();
+        String output = new String(process.getInputStream().readAllBytes());
+        assertTrue(process.waitFor(1, TimeUnit.MINUTES), "Application did not finish");
+        assertEquals(0, process.exitValue(), output);
+        return output;
+    }
+
+    /**
+     * Waits until the worker printed the port it listens on
+     */
+    private static String awaitWorkerPort(Path output, Process worker) throws IOException, InterruptedException {
+        var listening = Pattern.compile("Worker with \\d+ values listening on port (\\d+)");
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (System.nanoTime() < deadline) {
+            var matcher = listening.matcher(Files.readString(output));
+            if (matcher.find()) {
+                return matcher.group(1);
+            }
+            assertTrue(worker.isAlive(), Files.readString(output));
+            Thread.sleep(50);
+        }
+        throw new AssertionError("Worker did not report its port: " + Files.readString(output));
+    }
+
+    @Test
+    void testShutdownStopsWorkers() {
+        var address = startWorker(List.of(1.0), 1024, FileDataSetSettings.defaults());
+        var coordinator = new ShardCoordinator(List.of(address));
+        coordinator.shutdownWorkers();
+
+        // Returns right away as the worker is already stopped
+        workers.get(0).awaitShutdown();
+        assertThrows(DistributedMedianException.class, () -> new ShardCoordinator(List.of(address)));
+    }
+}
@@ -6,8 +6,11 @@ import org.junit.jupiter.api.Test;
 import wiest.median.calculator.file.FileDataSetContainer;
 
 import java.util.List;
+import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class FileDataSetContainerTest extends LocalFileTest {
 
@@ -15,11 +18,37 @@ class FileDataSetContainerTest extends LocalFileTest {
     @Test
     void trackingCacheData() {
         FileDataSetContainer container = new FileDataSetContainer(TEST_DATA_DIR, -10, 10);
-        container.increaseCacheEntryCount();
+        container.addToCache(1.);
 
         assertEquals(1, container.getCacheNumberCount());
     }
 
+    @Test
+    void testTakeCache() {
+        FileDataSetContainer container = new FileDataSetContainer(TEST_DATA_DIR, -10, 10);
+        container.addToCache(1.);
+        container.addToCache(2.);
+
+        var cacheData = container.takeCache();
+
+        assertEquals(List.of(1., 2.), cacheData);
+        assertEquals(0, container.getCacheNumberCount());
+        assertEquals(0, container.getTotalEntryCount());
+    }
+
+    @Test
+    void testFlushCache() {
+        FileDataSetContainer container = new FileDataSetContainer(TEST_DATA_DIR, -10, 10);
+        container.addToCache(3.);
+        container.addToCache(1.);
+
+        container.flushCache();
+
+        assertEquals(0, container.getCacheNumberCount());
+        assertEquals(2, container.getTotalEntryCount());
+        assertEquals(List.of(1., 3.), container.getMergedStorageData(DoubleList.of()));
+    }
+
     @Test
     void testInitStoreDataInFiles() {
         FileDataSetContainer container = new FileDataSetContainer(TEST_DATA_DIR, -10, 10, DoubleList.of(5));
@@ -116,4 +145,114 @@ class FileDataSetContainerTest extends LocalFileTest {
         assertEquals(4, secondContainer.getTotalEntryCount());
     }
 
-}
\ No newline at end of file
+    @Test
+    void testRawFormatMergeAndSplit() {
+        FileDataSetContainer container = new FileDataSetContainer(TEST_DATA_DIR, -20, 20, ContainerFormat.RAW);
+        container.mergeAndWriteToFile(DoubleArrayList.of(4., 2., 3.));
+        container.mergeAndWriteToFile(DoubleArrayList.of(1.));
+
+        assertEquals(List.of(1., 2., 3., 4.), container.getMergedStorageData(DoubleList.of()));
+        assertEquals(4 * Double.BYTES, container.getFileSizeBytes());
+
+        var result = container.splitInHalf(DoubleArrayList.of(5.));
+        assertEquals(List.of(1., 2.), result.getLowerContainer().getMergedStorageData(DoubleList.of()));
+        assertEquals(List.of(3., 4., 5.), result.getUpperContainer().getMergedStorageData(DoubleList.of()));
+    }
+
+    @Test
+    void testCompressedFormatKeepsSpecialValues() {
+        var values = DoubleArrayList.of(-Double.MAX_VALUE, Double.NEGATIVE_INFINITY, -1.5, -0., 0.,
+                Double.MIN_VALUE, 1e-300, 3.25, 1e300, Double.POSITIVE_INFINITY);
+        FileDataSetContainer container = new FileDataSetContainer(TEST_DATA_DIR, Double.NEGATIVE_INFINITY,
+                Double.POSITIVE_INFINITY, ContainerFormat.COMPRESSED);
+
+        container.mergeAndWriteToFile(values);
+
+        var expected = values.doubleStream().sorted().boxed().toList();
+        assertEquals(expected, container.getMergedStorageData(DoubleList.of()));
+    }
+
+    @Test
+    void testCompressedFormatOverMultipleBlocks() {
+        var random = new Random(1);
+        var values = new DoubleArrayList(random.doubles(10_000).map(d -> Math.round(d * 100) / 10.).toArray());
+        var expected = values.doubleStream().sorted().boxed().toList();
+        FileDataSetContainer raw = new FileDataSetContainer(TEST_DATA_DIR, -20, 20, ContainerFormat.RAW);
+        FileDataSetContainer compressed = new FileDataSetContainer(TEST_DATA_DIR, -20, 20, ContainerFormat.COMPRESSED);
+
+        raw.mergeAndWriteToFile(new DoubleArrayList(values));
+        compressed.mergeAndWriteToFile(new DoubleArrayList(values));
+
+        assertEquals(expected, compressed.getMergedStorageData(DoubleList.of()));
+        assertTrue(compressed.getFileSizeBytes() * 4 < raw.getFileSizeBytes(),
+                "Compressed " + compressed.getFileSizeBytes() + " bytes, raw " + raw.getFileSizeBytes() + " bytes");
+    }
+
+    @Test
+    void testEntryAtIndexWithoutLoadingFile() {
+        for (var format : ContainerFormat.values()) {
+            var random = new Random(5);
+            FileDataSetContainer container = new FileDataSetContainer(TEST_DATA_DIR, -20, 20, format);
+            container.mergeAndWriteToFile(new DoubleArrayList(random.doubles(9_000).map(d -> d * 10).toArray()));
+            random.doubles(500).map(d -> d * 10 - 5).forEach(container::addToCache);
+
+            var expected = container.getMergedStorageData(new DoubleArrayList(container.getCacheData()));
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getDouble(i), container.getEntryAtIndex(i), format + " index " + i);
+            }
+            container.deleteLocalStorage();
+        }
+    }
+
+    @Test
+    void testEntryAtIndexWithDuplicates() {
+        FileDataSetContainer container = new FileDataSetContainer(TEST_DATA_DIR, -20, 20, DoubleArrayList.of(1., 2., 2., 2., 3.));
+        container.addToCache(2.);
+        container.addToCache(0.);
+        container.addToCache(4.);
+
+        assertEquals(0., container.getEntryAtIndex(0));
+        assertEquals(1., container.getEntryAtIndex(1));
+        assertEquals(2., container.getEntryAtIndex(2));
+        assertEquals(2., container.getEntryAtIndex(5));
+        assertEquals(3., container.getEntryAtIndex(6));
+        assertEquals(4., container.getEntryAtIndex(7));
+    }
+
+
+    @Test
+    void testAppendModeKeepsFileUnsorted() {
+        var settings = FileDataSetSettings.defaults().withStorageMode(StorageMode.APPEND);
+        FileDataSetContainer container = new FileDataSetContainer(TEST_DATA_DIR, -20, 20, settings);
+        container.writeToFile(DoubleArrayList.of(4., 2.));
+        container.writeToFile(DoubleArrayList.of(3., 1.));
+        container.addToCache(0.);
+
+        assertEquals(4, container.getFileNumberCount());
+        assertEquals(4 * Double.BYTES, container.getWrittenBytes());
+        assertEquals(List.of(0., 1., 2., 3., 4.), container.getMergedStorageData(container.getCacheData()));
+        assertArrayEquals(new double[] {4., 0., 2.}, container.getEntriesAtIndices(new long[] {4, 0, 2}));
+    }
+
+    @Test
+    void testAppendModeSplit() {
+        var random = new Random(3);
+        var settings = FileDataSetSettings.defaults().withStorageMode(StorageMode.APPEND);
+        FileDataSetContainer container = new FileDataSetContainer(TEST_DATA_DIR, -20, 20, settings);
+        var values = new DoubleArrayList(random.doubles(1_001).map(d -> Math.round(d * 100) / 10.).toArray());
+        container.writeToFile(new DoubleArrayList(values));
+
+        var result = container.splitInHalf(DoubleArrayList.of(7.5));
+        var lower = result.getLowerContainer();
+        var upper = result.getUpperContainer();
+
+        var expected = new DoubleArrayList(values);
+        expected.add(7.5);
+        expected.sort(null);
+        assertEquals(501, lower.getTotalEntryCount());
+        assertEquals(StorageMode.APPEND, upper.getStorageMode());
+        assertEquals(expected.getDouble(501), upper.getInclusiveMin());
+        assertEquals(expected.subList(0, 501), lower.getMergedStorageData(DoubleList.of()));
+        assertEquals(expected.subList(501, 1002), upper.getMergedStorageData(DoubleList.of()));
+    }
+}
@@ -1,17 +1,36 @@
 package wiest.median.calculator.file;
 
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import wiest.median.DataSource;
+import wiest.median.LazyDataSource;
 import wiest.median.MedianCalculator;
 import wiest.median.MemoryDataSource;
+import wiest.median.filereader.ByteNumberFileReader;
 import wiest.median.filereader.NumberFileReader;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class FileMedianCalculatorTest extends LocalFileTest {
 
@@ -130,4 +149,522 @@ class FileMedianCalculatorTest extends LocalFileTest {
         assertEquals(2, calc.calculateMedian());
     }
 
-}
\ No newline at end of file
+    @Test
+    void testParallelChunkedFile() {
+        var chunks = ByteNumberFileReader.openChunks("src/test/resources/random_numbers.txt", 4);
+        MedianCalculator calc = new FileMedianCalculator(TEST_DATA_DIR,1);
+
+        calc.loadSources(chunks, 4);
+
+        assertEquals(6.1234, calc.calculateMedian());
+    }
+
+    @Test
+    void testParallelSourcesMatchSequential(@TempDir Path tempDir) throws IOException {
+        var numbers = IntStream.range(0, 200_000)
+                .mapToObj(i -> Double.toString(i * 0.5))
+                .collect(Collectors.toList());
+        Collections.shuffle(numbers);
+        var input = tempDir.resolve("numbers.txt");
+        Files.write(input, numbers);
+
+        MedianCalculator sequential = new FileMedianCalculator(TEST_DATA_DIR,100);
+        MedianCalculator parallel = new FileMedianCalculator(TEST_DATA_DIR,100);
+
+        sequential.loadSource(new ByteNumberFileReader(input.toString()));
+        parallel.loadSources(ByteNumberFileReader.openChunks(input.toString(), 8), 4);
+
+        assertEquals(sequential.calculateMedian(), parallel.calculateMedian());
+        assertEquals(49_999.75, parallel.calculateMedian());
+    }
+
+    @Test
+    void testParallelLoadingScalesWithThreads() {
+        // Sources that wait for every read like a slow disk or network, so the loaders can overlap on one core
+        var values = IntStream.range(0, 10_000).asDoubleStream().boxed().toList();
+        long[] nanos = new long[2];
+        double[] medians = new double[2];
+        int[] threads = {1, 4};
+        for (int run = 0; run < threads.length; run++) {
+            List<DataSource> sources = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                sources.add(new SlowDataSource(values));
+            }
+            // Sampling reads the sources one after another, only the loading is measured
+            var calc = new FileMedianCalculator(TEST_DATA_DIR, 256,
+                    FileDataSetSettings.defaults().withPrePartitioning(false));
+            long start = System.nanoTime();
+            calc.loadSources(sources, threads[run]);
+            nanos[run] = System.nanoTime() - start;
+            medians[run] = calc.calculateMedian();
+            calc.destroy();
+        }
+
+        assertEquals(medians[0], medians[1]);
+        assertTrue(nanos[1] < nanos[0] * 0.6,
+                "1 thread " + nanos[0] / 1_000_000 + " ms, 4 threads " + nanos[1] / 1_000_000 + " ms");
+    }
+
+    @Test
+    void testManyLazyFileSources(@TempDir Path tempDir) throws IOException {
+        var random = new Random(19);
+        List<LazyDataSource> sources = new ArrayList<>();
+        var openFiles = new AtomicInteger();
+        var maxOpenFiles = new AtomicInteger();
+        for (int file = 0; file < 300; file++) {
+            var input = tempDir.resolve("shard-" + file + ".txt");
+            Files.write(input, random.ints(500, 0, 100_000).mapToObj(Integer::toString).collect(Collectors.toList()));
+            sources.add(new LazyDataSource(() -> {
+                maxOpenFiles.accumulateAndGet(openFiles.incrementAndGet(), Math::max);
+                return new ByteNumberFileReader(input.toString()) {
+                    @Override
+                    public void close() {
+                        openFiles.decrementAndGet();
+                        super.close();
+                    }
+                };
+            }));
+        }
+        MedianCalculator sequential = new FileMedianCalculator(TEST_DATA_DIR,20);
+        MedianCalculator parallel = new FileMedianCalculator(TEST_DATA_DIR,20);
+
+        sequential.loadSources(sources.stream().map(LazyDataSource::reopen).toList(), 1);
+        parallel.loadSources(sources, 4);
+
+        assertEquals(sequential.calculateMedian(), parallel.calculateMedian());
+        assertEquals(0, openFiles.get());
+        // Sampled sources are closed again, so only the ones being read are open at the same time
+        assertTrue(maxOpenFiles.get() <= 4, "max open files " + maxOpenFiles.get());
+    }
+
+    @Test
+    void testAllSourcesAreClosedOnFailure() {
+        // The failing source throws while it is sampled or later while it is read
+        for (int failingRead : new int[] {1, 2}) {
+            for (int threads : new int[] {1, 3}) {
+                var openSources = new AtomicInteger();
+                List<MemoryDataSource> sources = new ArrayList<>();
+                for (int i = 0; i < 20; i++) {
+                    boolean failing = i == 1;
+                    openSources.incrementAndGet();
+                    sources.add(new MemoryDataSource(IntStream.range(0, 10_000).asDoubleStream().boxed().toList()) {
+                        private int reads = 0;
+
+                        @Override
+                        public int read(double[] buffer, int offset, int length) {
+                            if (failing && ++reads == failingRead) {
+                                throw new IllegalStateException("Broken source");
+                            }
+                            return super.read(buffer, offset, length);
+                        }
+
+                        @Override
+                        public void close() {
+                            openSources.decrementAndGet();
+                        }
+                    });
+                }
+                var calc = new FileMedianCalculator(TEST_DATA_DIR, 64);
+
+                assertThrows(IllegalStateException.class, () -> calc.loadSources(sources, threads));
+                assertEquals(0, openSources.get(), "read " + failingRead + " threads " + threads);
+                calc.destroy();
+            }
+        }
+    }
+
+    @Test
+    void testRawStorageFormat() {
+        var numbers = IntStream.range(0, 10_001).asDoubleStream().boxed().collect(Collectors.toList());
+        Collections.shuffle(numbers);
+        var settings = FileDataSetSettings.defaults().withContainerFormat(ContainerFormat.RAW);
+        MedianCalculator calc = new FileMedianCalculator(TEST_DATA_DIR,10, settings);
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        assertEquals(5_000, calc.calculateMedian());
+    }
+
+    @Test
+    void testQuantiles() {
+        // 0..1000 so the quantile q is exactly q * 1000
+        var numbers = IntStream.range(0, 1001).asDoubleStream().boxed().collect(Collectors.toList());
+        Collections.shuffle(numbers);
+        MedianCalculator calc = new FileMedianCalculator(TEST_DATA_DIR,1);
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        assertArrayEquals(new double[] {0, 500, 900, 990, 999, 1000},
+                calc.calculateQuantiles(0, 0.5, 0.9, 0.99, 0.999, 1));
+    }
+
+    @Test
+    void testQuantilesInterpolate() {
+        MedianCalculator calc = new FileMedianCalculator(TEST_DATA_DIR,1);
+
+        calc.loadSource(new MemoryDataSource(List.of(4., 1., 3., 2.)));
+
+        assertArrayEquals(new double[] {2.5, 3.25, 1.75}, calc.calculateQuantiles(0.5, 0.75, 0.25));
+        assertEquals(calc.calculateMedian(), calc.calculateQuantiles(0.5)[0]);
+    }
+
+    @Test
+    void testInvalidQuantile() {
+        MedianCalculator calc = new FileMedianCalculator(TEST_DATA_DIR,1);
+
+        calc.loadSource(new MemoryDataSource(List.of(1.)));
+
+        assertThrows(IllegalArgumentException.class, () -> calc.calculateQuantiles(1.5));
+    }
+
+    @Test
+    void testAppendStorageMode() {
+        var numbers = IntStream.range(0, 20_001).asDoubleStream().boxed().collect(Collectors.toList());
+        Collections.shuffle(numbers);
+        var settings = FileDataSetSettings.defaults().withStorageMode(StorageMode.APPEND);
+        MedianCalculator calc = new FileMedianCalculator(TEST_DATA_DIR,10, settings);
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        assertEquals(10_000, calc.calculateMedian());
+        assertArrayEquals(new double[] {0, 2_000, 19_800, 20_000}, calc.calculateQuantiles(0, 0.1, 0.99, 1));
+    }
+
+    @Test
+    void testCountAtMost() {
+        var numbers = new Random(11).doubles(50_000).map(d -> Math.round(d * 1000) - 500.0).boxed().collect(Collectors.toList());
+        double[] boundaries = {Double.NEGATIVE_INFINITY, -500, -123.5, 0, 1, 250, 499, 500, Double.POSITIVE_INFINITY};
+        long[] expected = new long[boundaries.length];
+        for (int i = 0; i < boundaries.length; i++) {
+            double boundary = boundaries[i];
+            expected[i] = numbers.stream().filter(number -> number <= boundary).count();
+        }
+
+        for (var mode : StorageMode.values()) {
+            for (int memoryKb : new int[] {16, 64 * 1024}) {
+                var calc = new FileMedianCalculator(TEST_DATA_DIR, memoryKb, FileDataSetSettings.defaults().withStorageMode(mode));
+                calc.loadSource(new MemoryDataSource(numbers));
+
+                assertEquals(memoryKb != 16, calc.isInMemory());
+                assertArrayEquals(expected, calc.countAtMost(boundaries), mode + " " + memoryKb);
+                assertThrows(IllegalArgumentException.class, () -> calc.countAtMost(1, 0));
+                calc.destroy();
+            }
+        }
+    }
+
+    @Test
+    void testAppendModeWritesLess() {
+        var random = new Random(7);
+        double[] numbers = random.doubles(100_000).toArray();
+        var sorted = new FileDataSet(TEST_DATA_DIR, 50, FileDataSetSettings.defaults()
+                .withContainerFormat(ContainerFormat.RAW));
+        var append = new FileDataSet(TEST_DATA_DIR, 50, FileDataSetSettings.defaults()
+                .withStorageMode(StorageMode.APPEND));
+
+        for (double number : numbers) {
+            sorted.addNumber(number);
+            append.addNumber(number);
+        }
+
+        assertEquals(sorted.getEntriesAtIndices(new long[] {50_000})[0], append.getEntriesAtIndices(new long[] {50_000})[0]);
+        assertTrue(append.getWriteAmplification() < sorted.getWriteAmplification(),
+                "append " + append.getWriteAmplification() + ", sorted " + sorted.getWriteAmplification());
+        sorted.destroy();
+        append.destroy();
+    }
+
+    @Test
+    void testPrePartitioningAvoidsSplits() {
+        var numbers = new Random(11).doubles(200_000).boxed().collect(Collectors.toList());
+        var withoutSampling = new FileMedianCalculator(TEST_DATA_DIR, 200,
+                FileDataSetSettings.defaults().withPrePartitioning(false));
+        var withSampling = new FileMedianCalculator(TEST_DATA_DIR, 200);
+
+        withoutSampling.loadSource(new MemoryDataSource(numbers));
+        withSampling.loadSource(new MemoryDataSource(numbers));
+
+        assertEquals(withoutSampling.calculateMedian(), withSampling.calculateMedian());
+        assertTrue(withSampling.getDataSet().getSplitCount() < withoutSampling.getDataSet().getSplitCount(),
+                "with sampling " + withSampling.getDataSet().getSplitCount()
+                        + ", without " + withoutSampling.getDataSet().getSplitCount());
+        withoutSampling.destroy();
+        withSampling.destroy();
+    }
+
+    @Test
+    void testPrePartitioningWithSkewedInput() {
+        // Sorted input makes the sample of the first values useless, the splits have to take over
+        var numbers = IntStream.range(0, 100_001).asDoubleStream().boxed().collect(Collectors.toList());
+        MedianCalculator calc = new FileMedianCalculator(TEST_DATA_DIR,20);
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        assertEquals(50_000, calc.calculateMedian());
+    }
+
+    @Test
+    void testAsyncFlushingMatchesSynchronous() {
+        var numbers = new Random(13).doubles(150_000).map(d -> Math.round(d * 1000)).boxed().collect(Collectors.toList());
+        for (var mode : StorageMode.values()) {
+            var settings = FileDataSetSettings.defaults().withStorageMode(mode).withPrePartitioning(false);
+            MedianCalculator sync = new FileMedianCalculator(TEST_DATA_DIR, 40, settings.withAsyncFlushing(false));
+            MedianCalculator async = new FileMedianCalculator(TEST_DATA_DIR, 40, settings.withAsyncFlushing(true));
+
+            sync.loadSource(new MemoryDataSource(numbers));
+            async.loadSource(new MemoryDataSource(numbers));
+
+            assertArrayEquals(sync.calculateQuantiles(0, 0.25, 0.5, 0.75, 1),
+                    async.calculateQuantiles(0, 0.25, 0.5, 0.75, 1), mode.toString());
+            sync.destroy();
+            async.destroy();
+        }
+    }
+
+    @Test
+    void testBatchAddMatchesSingleValues() {
+        double[] numbers = new Random(17).doubles(50_000).map(d -> Math.round(d * 500)).toArray();
+        var single = new FileDataSet(TEST_DATA_DIR, 20);
+        var batched = new FileDataSet(TEST_DATA_DIR, 20);
+
+        for (double number : numbers) {
+            single.addNumber(number);
+        }
+        for (int offset = 0; offset < numbers.length; offset += 777) {
+            batched.addNumbers(numbers, offset, Math.min(777, numbers.length - offset));
+        }
+
+        long[] ranks = {0, 12_345, 25_000, 49_999};
+        assertEquals(numbers.length, batched.getTotalSize());
+        assertArrayEquals(single.getEntriesAtIndices(ranks), batched.getEntriesAtIndices(ranks));
+        single.destroy();
+        batched.destroy();
+    }
+
+    @Test
+    void testSmallInputStaysInMemory() {
+        var storageDir = TEST_DATA_DIR + "/Median_unused";
+        var numbers = new Random(23).doubles(10_000).boxed().collect(Collectors.toList());
+        var calc = new FileMedianCalculator(storageDir, 1024);
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        var sorted = numbers.stream().sorted().toList();
+        assertEquals((sorted.get(4999) + sorted.get(5000)) / 2, calc.calculateMedian());
+        assertArrayEquals(new double[] {sorted.get(0), sorted.get(9999)}, calc.calculateQuantiles(0, 1));
+        assertTrue(calc.isInMemory());
+        assertFalse(new File(storageDir).exists());
+        calc.destroy();
+    }
+
+    @Test
+    void testSwitchToDiskKeepsValuesAddedInMemory() {
+        var random = new Random(29);
+        var inMemory = new FileMedianCalculator(TEST_DATA_DIR, 4096);
+        var switching = new FileMedianCalculator(TEST_DATA_DIR, 64);
+        for (int round = 0; round < 4; round++) {
+            var numbers = random.doubles(10_000).map(d -> Math.round(d * 1000)).boxed().collect(Collectors.toList());
+            inMemory.loadSource(new MemoryDataSource(numbers));
+            switching.loadSource(new MemoryDataSource(numbers));
+
+            // Queries in between reorder the values kept in memory
+            assertArrayEquals(inMemory.calculateQuantiles(0, 0.1, 0.5, 0.9, 1),
+                    switching.calculateQuantiles(0, 0.1, 0.5, 0.9, 1), "round " + round);
+        }
+
+        assertTrue(inMemory.isInMemory());
+        assertFalse(switching.isInMemory());
+        assertEquals(inMemory.calculateMedian(), switching.calculateMedian());
+        inMemory.destroy();
+        switching.destroy();
+    }
+
+    @Test
+    void testSwitchToDiskStaysWithinMemory() {
+        int memoryKb = 32 * 1024;
+        var heap = ManagementFactory.getMemoryMXBean();
+        var directPool = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals("direct"))
+                .findFirst()
+                .orElseThrow();
+        System.gc();
+        long heapBefore = heap.getHeapMemoryUsage().getUsed();
+        long directBefore = directPool.getMemoryUsed();
+        // Live heap is sampled after a garbage collection a few times while the values are kept in memory
+        // and once the data set is created, the arena never frees what it allocated
+        long[] maxHeapUsed = new long[1];
+        Runnable sampleHeap = () -> {
+            System.gc();
+            maxHeapUsed[0] = Math.max(maxHeapUsed[0], heap.getHeapMemoryUsage().getUsed() - heapBefore);
+        };
+        var calc = new FileMedianCalculator(TEST_DATA_DIR, memoryKb) {
+            @Override
+            FileDataSet newDataSet(List<DataSetManifest.ContainerEntry> sortedContainers) {
+                var dataSet = super.newDataSet(sortedContainers);
+                sampleHeap.run();
+                return dataSet;
+            }
+        };
+
+        long count = FileDataSet.entryCountOf(memoryKb) + 1000;
+        long sampleInterval = count / 16;
+        var random = new Random(30);
+        calc.loadSource(new DataSource() {
+            private long remaining = count;
+
+            @Override
+            public boolean hasNext() {
+                return remaining > 0;
+            }
+
+            @Override
+            public double getNext() {
+                if (remaining-- % sampleInterval == 0) {
+                    sampleHeap.run();
+                }
+                return random.nextDouble();
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+
+        assertFalse(calc.isInMemory());
+        assertEquals(count, calc.getTotalSize());
+        long budget = memoryKb * 1024L;
+        assertTrue(calc.getAllocatedBytes() <= budget, "Allocated off-heap " + calc.getAllocatedBytes());
+        long directUsed = directPool.getMemoryUsed() - directBefore;
+        // The values kept in memory live in the pages of the arena, not on the heap
+        assertTrue(maxHeapUsed[0] + directUsed < budget * 9 / 8,
+                "Heap " + maxHeapUsed[0] + " and direct memory " + directUsed);
+        calc.destroy();
+    }
+
+    @Test
+    void testMetrics() {
+        var random = new Random(31);
+        var numbers = random.doubles(100_000).boxed().collect(Collectors.toList());
+        var calc = new FileMedianCalculator(TEST_DATA_DIR, 64);
+        assertEquals(0, calc.getMetrics().entryCount());
+
+        calc.loadSource(new MemoryDataSource(numbers));
+        calc.calculateMedian();
+        var metrics = calc.getMetrics();
+
+        assertEquals(numbers.size(), metrics.entryCount());
+        assertTrue(metrics.valuesPerSecond() > 0);
+        assertTrue(metrics.flushCount() > 0);
+        assertEquals(calc.getDataSet().getSplitCount(), metrics.splitCount());
+        assertEquals(calc.getDataSet().getContainerCount(), metrics.containerCount());
+        assertTrue(metrics.minContainerSize() <= metrics.medianContainerSize());
+        assertTrue(metrics.medianContainerSize() <= metrics.maxContainerSize());
+        // The median lookup and every merge read from disk
+        assertTrue(metrics.readBytes() > 0);
+        assertEquals(calc.getDataSet().getWriteAmplification(), metrics.writeAmplification(), 1e-9);
+        assertTrue(metrics.cacheFillLevel() >= 0 && metrics.cacheFillLevel() <= 1);
+        calc.destroy();
+    }
+
+    @Test
+    void testMetricsListener() {
+        var numbers = new Random(37).doubles(200_000).boxed().collect(Collectors.toList());
+        var calc = new FileMedianCalculator(TEST_DATA_DIR, 64);
+        List<StorageMetrics> reported = new ArrayList<>();
+        calc.setMetricsListener(Duration.ZERO, reported::add);
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        // Reported after the sample and after every batch
+        assertTrue(reported.size() > 1);
+        for (int i = 1; i < reported.size(); i++) {
+            assertTrue(reported.get(i).entryCount() > reported.get(i - 1).entryCount());
+        }
+        assertEquals(numbers.size(), reported.get(reported.size() - 1).entryCount());
+        assertTrue(reported.get(reported.size() - 1).flushCount() > 0);
+        calc.destroy();
+    }
+
+    @Test
+    void testMetricsDoNotWaitForPendingFlush() {
+        var numbers = new Random(41).doubles(400_000).boxed().collect(Collectors.toList());
+        var settings = FileDataSetSettings.defaults().withAsyncFlushing(true);
+        var calc = new FileMedianCalculator(TEST_DATA_DIR, 64, settings);
+        var pendingAfterSnapshot = new AtomicInteger();
+        List<StorageMetrics> reported = new ArrayList<>();
+        calc.setMetricsListener(Duration.ZERO, metrics -> {
+            reported.add(metrics);
+            if (calc.getDataSet() != null && calc.getDataSet().hasPendingFlush()) {
+                pendingAfterSnapshot.incrementAndGet();
+            }
+        });
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        // The snapshot leaves the flush running in the background
+        assertTrue(pendingAfterSnapshot.get() > 0);
+        for (int i = 1; i < reported.size(); i++) {
+            assertTrue(reported.get(i).writtenBytes() >= reported.get(i - 1).writtenBytes());
+        }
+        assertEquals(numbers.size(), reported.get(reported.size() - 1).entryCount());
+        var sorted = numbers.stream().sorted().toList();
+        assertEquals((sorted.get(sorted.size() / 2 - 1) + sorted.get(sorted.size() / 2)) / 2, calc.calculateMedian());
+        calc.destroy();
+    }
+
+    @Test
+    void testStorageEventsAreRecorded(@TempDir Path tempDir) throws IOException {
+        var numbers = new Random(41).doubles(100_000).boxed().collect(Collectors.toList());
+        var recordingFile = tempDir.resolve("median.jfr");
+        try (var recording = new Recording()) {
+            for (var event : List.of("ContainerFlush", "ContainerSplit", "ContainerLoad", "MedianQuery")) {
+                recording.enable("wiest.median." + event);
+            }
+            recording.start();
+            for (var mode : StorageMode.values()) {
+                var calc = new FileMedianCalculator(TEST_DATA_DIR, 64,
+                        FileDataSetSettings.defaults().withStorageMode(mode).withPrePartitioning(false));
+                calc.loadSource(new MemoryDataSource(numbers));
+                calc.calculateMedian();
+                calc.destroy();
+            }
+            recording.stop();
+            recording.dump(recordingFile);
+        }
+
+        var eventCounts = RecordingFile.readAllEvents(recordingFile).stream()
+                .collect(Collectors.groupingBy(event -> event.getEventType().getName(), Collectors.counting()));
+        assertTrue(eventCounts.getOrDefault("wiest.median.ContainerFlush", 0L) > 0);
+        assertTrue(eventCounts.getOrDefault("wiest.median.ContainerSplit", 0L) > 0);
+        assertTrue(eventCounts.getOrDefault("wiest.median.ContainerLoad", 0L) > 0);
+        assertEquals(2, eventCounts.get("wiest.median.MedianQuery"));
+    }
+
+
+    private static class SlowDataSource extends MemoryDataSource {
+
+        private static final int READ_LENGTH = 1000;
+
+        private final List<Double> values;
+
+        SlowDataSource(List<Double> values) {
+            super(values);
+            this.values = values;
+        }
+
+        @Override
+        public int read(double[] buffer, int offset, int length) {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.read(buffer, offset, Math.min(length, READ_LENGTH));
+        }
+
+        @Override
+        public DataSource reopen() {
+            return new SlowDataSource(values);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package wiest.median.calculator.file;
+
+import org.junit.jupiter.api.Test;
+import wiest.median.KeyValueSource;
+import wiest.median.MedianCalculator;
+import wiest.median.MemoryDataSource;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GroupedFileMedianCalculatorTest extends LocalFileTest {
+
+    /**
+     * Returns the pairs in the given order in batches of random size
+     */
+    private record MemoryKeyValueSource(List<String> keys, List<Double> values, Random random) implements KeyValueSource {
+
+        MemoryKeyValueSource(List<String> keys, List<Double> values) {
+            this(new ArrayList<>(keys), new ArrayList<>(values), new Random(1));
+        }
+
+        @Override
+        public int read(String[] keyBuffer, double[] valueBuffer, int offset, int length) {
+            if (keys.isEmpty()) {
+                return -1;
+            }
+            int count = Math.min(keys.size(), 1 + random.nextInt(length));
+            for (int i = 0; i < count; i++) {
+                keyBuffer[offset + i] = keys.remove(keys.size() - 1);
+                valueBuffer[offset + i] = values.remove(values.size() - 1);
+            }
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    void testMedianPerKey() {
+        var calc = new GroupedFileMedianCalculator(TEST_DATA_DIR, 1);
+
+        calc.loadSource(new MemoryKeyValueSource(List.of("a", "b", "a", "c", "a", "b"), List.of(1., 10., 3., 7., 2., 20.)));
+
+        assertEquals(Map.of("a", 2., "b", 15., "c", 7.), calc.calculateMedians());
+        assertEquals(0, calc.calculateMedian("missing"));
+        calc.destroy();
+    }
+
+    @Test
+    void testGroupsMatchSeparateCalculators() {
+        var random = new Random(5);
+        List<String> keys = new ArrayList<>();
+        List<Double> values = new ArrayList<>();
+        Map<String, List<Double>> valuesByKey = new HashMap<>();
+        for (int i = 0; i < 200_000; i++) {
+            // A few large groups and many small ones
+            var key = "endpoint-" + (random.nextInt(4) == 0 ? random.nextInt(500) : random.nextInt(3));
+            double value = Math.round(random.nextGaussian() * 1000) / 10.;
+            keys.add(key);
+            values.add(value);
+            valuesByKey.computeIfAbsent(key, k -> new ArrayList<>()).add(value);
+        }
+
+        for (var mode : StorageMode.values()) {
+            var grouped = new GroupedFileMedianCalculator(TEST_DATA_DIR, 100,
+                    FileDataSetSettings.defaults().withStorageMode(mode));
+            grouped.loadSource(new MemoryKeyValueSource(keys, values));
+
+            assertEquals(valuesByKey.size(), grouped.getDataSet().getGroupCount());
+            assertTrue(grouped.getDataSet().getSpillCount() > 0, "the budget is too small to keep all groups in memory");
+            var quantiles = grouped.calculateQuantiles(0, 0.5, 0.99);
+            for (var entry : valuesByKey.entrySet()) {
+                MedianCalculator single = new FileMedianCalculator(TEST_DATA_DIR, 100);
+                single.loadSource(new MemoryDataSource(entry.getValue()));
+                assertArrayEquals(single.calculateQuantiles(0, 0.5, 0.99), quantiles.get(entry.getKey()), entry.getKey());
+                single.destroy();
+            }
+            grouped.destroy();
+        }
+    }
+
+    @Test
+    void testLargestGroupIsSpilledFirst() {
+        var calc = new GroupedFileMedianCalculator(TEST_DATA_DIR, 64);
+        var dataSet = calc.getDataSet();
+        var random = new Random(3);
+        for (int i = 0; i < 100; i++) {
+            dataSet.addNumber("small", random.nextDouble());
+        }
+        for (int i = 0; i < 100_000; i++) {
+            dataSet.addNumber("large", random.nextDouble());
+        }
+
+        assertTrue(dataSet.getSpillCount() > 0);
+        assertEquals(0, dataSet.getGroup("small").getWrittenBytes());
+        assertTrue(dataSet.getGroup("large").getWrittenBytes() > 0);
+        calc.destroy();
+    }
+}
@@ -0,0 +1,121 @@
+package wiest.median.calculator.file;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import wiest.median.DataSource;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class LargeDataSetTest extends LocalFileTest {
+
+    /**
+     * Generates count values, each of the values 0 to distinctValues - 1 appears count / distinctValues times.
+     * The values of every block of distinctValues are shuffled by an odd stride, so the sorted order is known
+     * without storing the values.
+     */
+    private static class GeneratedDataSource implements DataSource {
+
+        private static final long STRIDE = 7919;
+
+        private final long count;
+        private final int distinctValues;
+        private long next = 0;
+
+        GeneratedDataSource(long count, int distinctValues) {
+            this.count = count;
+            this.distinctValues = distinctValues;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < count;
+        }
+
+        @Override
+        public double getNext() {
+            return next++ * STRIDE % distinctValues;
+        }
+
+        @Override
+        public int read(double[] buffer, int offset, int length) {
+            int read = (int) Math.min(length, count - next);
+            for (int i = 0; i < read; i++) {
+                buffer[offset + i] = getNext();
+            }
+            return read == 0 && length > 0 ? -1 : read;
+        }
+
+        @Override
+        public long estimatedSize() {
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        double valueAtRank(long rank) {
+            return rank / (count / distinctValues);
+        }
+
+        double median() {
+            return (valueAtRank((count - 1) / 2) + valueAtRank(count / 2)) / 2;
+        }
+    }
+
+    @Test
+    void testBudgetAbove16GbIsSplitWithoutOverflow() {
+        int memoryKb = 20 * 1024 * 1024;
+        long entryCount = memoryKb * 1024L / Double.BYTES;
+
+        long sortedFile = FileDataSet.fileEntryCountOf(memoryKb, StorageMode.SORTED);
+        long sortedCache = FileDataSet.cacheEntryCountOf(memoryKb, StorageMode.SORTED);
+        assertEquals(entryCount, sortedFile + sortedCache);
+        assertEquals(entryCount / 2, sortedCache);
+
+        // Appended files are loaded into a single direct buffer, the rest of the budget goes to the cache
+        long appendFile = FileDataSet.fileEntryCountOf(memoryKb, StorageMode.APPEND);
+        long appendCache = FileDataSet.cacheEntryCountOf(memoryKb, StorageMode.APPEND);
+        assertEquals(Integer.MAX_VALUE / Double.BYTES, appendFile);
+        assertEquals(entryCount, appendFile + appendCache);
+    }
+
+    @Test
+    void testGeneratedValuesAcrossManyContainers() {
+        for (var mode : StorageMode.values()) {
+            var source = new GeneratedDataSource(3_000_000, 1000);
+            var calc = new FileMedianCalculator(TEST_DATA_DIR, 1024,
+                    FileDataSetSettings.defaults().withStorageMode(mode));
+
+            calc.loadSource(source);
+
+            assertFalse(calc.isInMemory(), mode.toString());
+            assertEquals(source.median(), calc.calculateMedian(), mode.toString());
+            assertArrayEquals(new double[] {source.valueAtRank(0), source.valueAtRank(2_999_999)},
+                    calc.calculateQuantiles(0, 1), mode.toString());
+            calc.getDataSet().destroy();
+        }
+    }
+
+    /**
+     * Stores about 16 GB in the test data directory, enabled with -Dmedian.largeTests=true.
+     * Appended files are not rewritten by every flush, which keeps the run time bearable.
+     */
+    @Test
+    @EnabledIfSystemProperty(named = "median.largeTests", matches = "true")
+    void testMoreValuesThanAnIntCanCount() {
+        int distinctValues = 1 << 16;
+        long count = (long) distinctValues * ((Integer.MAX_VALUE / distinctValues) + 2);
+        var source = new GeneratedDataSource(count, distinctValues);
+        var calc = new FileMedianCalculator(TEST_DATA_DIR, 256 * 1024,
+                FileDataSetSettings.defaults().withStorageMode(StorageMode.APPEND));
+
+        calc.loadSource(source);
+
+        assertEquals(count, calc.getDataSet().getTotalSize());
+        assertEquals(source.median(), calc.calculateMedian());
+        calc.getDataSet().destroy();
+    }
+}
@@ -6,7 +6,7 @@ import org.junit.jupiter.api.BeforeAll;
 import java.io.File;
 
 public class LocalFileTest {
-    static final String TEST_DATA_DIR = "./testDataDir";
+    protected static final String TEST_DATA_DIR = "./testDataDir";
 
     @BeforeAll
     static void prepare() {
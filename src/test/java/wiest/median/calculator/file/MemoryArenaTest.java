@@ -0,0 +1,152 @@
+package wiest.median.calculator.file;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryArenaTest extends LocalFileTest {
+
+    @Test
+    void testPagesAreTakenAndReturned() {
+        var arena = new MemoryArena(1024 * 16, 0);
+        var list = new PagedDoubleList(arena);
+
+        for (int i = 0; i < 40; i++) {
+            list.add(40 - i);
+        }
+
+        assertEquals(16, arena.getPageEntries());
+        assertEquals(3, list.getPageCount());
+        assertEquals(arena.getPageCount() - 3, arena.getFreePageCount());
+        list.release();
+        assertEquals(0, list.size());
+        assertEquals(arena.getPageCount(), arena.getFreePageCount());
+    }
+
+    @Test
+    void testSortInPlace() {
+        var arena = new MemoryArena(1024 * 16, 0);
+        var list = new PagedDoubleList(arena);
+        new Random(2).doubles(500).forEach(list::add);
+        list.add(-0.);
+        list.add(0.);
+
+        list.unstableSort(null);
+
+        for (int i = 1; i < list.size(); i++) {
+            assertTrue(Double.compare(list.getDouble(i - 1), list.getDouble(i)) <= 0);
+        }
+        assertEquals(List.of(-0., 0.), list.subList(0, 2));
+    }
+
+    @Test
+    void testArenaRunsOutOfPages() {
+        var arena = new MemoryArena(16, 0);
+        var list = new PagedDoubleList(arena);
+        for (int i = 0; i < 16; i++) {
+            list.add(i);
+        }
+
+        assertThrows(FileDataSetException.class, () -> list.add(16));
+    }
+
+    private static BufferPoolMXBean bufferPool(String name) {
+        return ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                .filter(pool -> pool.getName().equals(name))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    @Test
+    void testMemoryStaysWithinLimit() {
+        int memoryKb = 1024;
+        var directPool = bufferPool("direct");
+        var mappedPool = bufferPool("mapped");
+        for (var mode : StorageMode.values()) {
+            // Destroyed arenas are only freed by the garbage collector, so each mode needs its own baseline
+            long heapBefore = usedHeapAfterGc();
+            long directBefore = directPool.getMemoryUsed();
+            long mappedBefore = mappedPool.getMemoryUsed();
+            var dataSet = new FileDataSet(TEST_DATA_DIR, memoryKb,
+                    FileDataSetSettings.defaults().withStorageMode(mode));
+            var arena = dataSet.getArena();
+            assertTrue(arena.getReservedBytes() <= memoryKb * 1024L, "Reserved " + arena.getReservedBytes());
+
+            var random = new Random(4);
+            for (int i = 0; i < 1_000_000; i++) {
+                dataSet.addNumber(random.nextGaussian());
+            }
+            dataSet.getEntriesAtIndices(new long[] {500_000});
+
+            // Besides the arena only a few fixed size buffers for reading and writing files are allocated
+            long directUsed = directPool.getMemoryUsed() - directBefore;
+            assertTrue(directUsed <= memoryKb * 1024L + 512 * 1024, mode + " used " + directUsed + " bytes off-heap");
+            // The values take 8 MB, on the heap only the containers and their fixed size buffers are left.
+            // Lookups only map windows of the files.
+            long heapUsed = usedHeapAfterGc() - heapBefore;
+            assertTrue(heapUsed <= 2 * memoryKb * 1024L, mode + " used " + heapUsed + " bytes of heap");
+            long mappedUsed = mappedPool.getMemoryUsed() - mappedBefore;
+            assertTrue(mappedUsed <= memoryKb * 1024L, mode + " mapped " + mappedUsed + " bytes");
+            dataSet.destroy();
+        }
+    }
+
+    /**
+     * Runs {@link LimitedMemoryScenario} in a JVM whose heap and direct memory are limited to the memory of the
+     * data set, so any allocation beyond it fails the run, also a short peak between two measurements.
+     */
+    @Test
+    void testMemoryLimitHoldsInLimitedJvm() throws IOException, InterruptedException {
+        int memoryMb = LimitedMemoryScenario.MEMORY_KB / 1024;
+        var process = new ProcessBuilder(
+                Path.of(System.getProperty("java.home"), "bin", "java").toString(),
+                "-Xmx" + memoryMb + "m",
+                // The fixed size read and write buffers of the files come on top
+                "-XX:MaxDirectMemorySize=" + (memoryMb + 1) + "m",
+                "-cp", System.getProperty("java.class.path"),
+                LimitedMemoryScenario.class.getName(), TEST_DATA_DIR)
+                .redirectErrorStream(true)
+                .start();
+        String output = new String(process.getInputStream().readAllBytes());
+        assertTrue(process.waitFor(2, TimeUnit.MINUTES), "Scenario did not finish");
+        assertEquals(0, process.exitValue(), output);
+        assertTrue(output.contains(LimitedMemoryScenario.DONE), output);
+    }
+
+    /**
+     * Adds more values than the memory holds to a data set of every storage mode and looks up the median
+     */
+    static class LimitedMemoryScenario {
+
+        static final int MEMORY_KB = 16 * 1024;
+        static final String DONE = "Scenario completed";
+
+        public static void main(String[] args) {
+            for (var mode : StorageMode.values()) {
+                var dataSet = new FileDataSet(args[0], MEMORY_KB, FileDataSetSettings.defaults().withStorageMode(mode));
+                var random = new Random(5);
+                for (int i = 0; i < 4_000_000; i++) {
+                    dataSet.addNumber(random.nextGaussian());
+                }
+                dataSet.getEntriesAtIndices(new long[] {1_999_999, 2_000_000});
+                dataSet.destroy();
+            }
+            System.out.println(DONE);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package wiest.median.calculator.file;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import wiest.median.MemoryDataSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PersistentDataSetTest {
+
+    private static List<Double> randomNumbers(int count, long seed) {
+        return new Random(seed).doubles(count).map(d -> Math.round(d * 100_000)).boxed().collect(Collectors.toList());
+    }
+
+    private static double[] quantiles(List<Double> numbers) {
+        var calc = new FileMedianCalculator("unused", 64 * 1024);
+        calc.loadSource(new MemoryDataSource(numbers));
+        var result = calc.calculateQuantiles(0, 0.25, 0.5, 0.75, 1);
+        calc.destroy();
+        return result;
+    }
+
+    @Test
+    void testReopenAndAppend(@TempDir Path dir) {
+        for (var mode : StorageMode.values()) {
+            var datasetDir = dir.resolve(mode.name()).toString();
+            var settings = FileDataSetSettings.defaults().withStorageMode(mode);
+            var firstDay = randomNumbers(50_000, 1);
+            var secondDay = randomNumbers(30_000, 2);
+
+            var calc = FileMedianCalculator.open(datasetDir, 64, settings);
+            calc.loadSource(new MemoryDataSource(firstDay));
+            calc.close();
+
+            // Queried again without reading the input
+            calc = FileMedianCalculator.open(datasetDir, 64, settings);
+            assertArrayEquals(quantiles(firstDay), calc.calculateQuantiles(0, 0.25, 0.5, 0.75, 1), mode.toString());
+            calc.loadSource(new MemoryDataSource(secondDay));
+            calc.close();
+
+            List<Double> allDays = new ArrayList<>(firstDay);
+            allDays.addAll(secondDay);
+            calc = FileMedianCalculator.open(datasetDir, 64, settings);
+            assertEquals(allDays.size(), calc.getDataSet().getTotalSize(), mode.toString());
+            assertArrayEquals(quantiles(allDays), calc.calculateQuantiles(0, 0.25, 0.5, 0.75, 1), mode.toString());
+            calc.destroy();
+            assertFalse(Files.exists(Path.of(datasetDir, DataSetManifest.FILE_NAME)));
+        }
+    }
+
+    @Test
+    void testReopenAppendedWithLessMemory(@TempDir Path dir) throws IOException {
+        var settings = FileDataSetSettings.defaults().withStorageMode(StorageMode.APPEND);
+        var firstDay = randomNumbers(20_000, 4);
+        var calc = FileMedianCalculator.open(dir.toString(), 64, settings);
+        calc.loadSource(new MemoryDataSource(firstDay));
+        calc.close();
+        long maxFileEntryCount = FileDataSet.fileEntryCountOf(16, StorageMode.APPEND);
+        assertTrue(DataSetManifest.read(dir).containers().stream()
+                .anyMatch(container -> container.fileNumberCount() > maxFileEntryCount));
+
+        // The containers written with 64 KB do not fit into the work buffer of 16 KB
+        calc = FileMedianCalculator.open(dir.toString(), 16, settings);
+        assertArrayEquals(quantiles(firstDay), calc.calculateQuantiles(0, 0.25, 0.5, 0.75, 1));
+        var secondDay = randomNumbers(10_000, 5);
+        calc.loadSource(new MemoryDataSource(secondDay));
+        calc.close();
+
+        var manifest = DataSetManifest.read(dir);
+        assertTrue(manifest.containers().stream()
+                .allMatch(container -> container.fileNumberCount() <= maxFileEntryCount));
+        try (var files = Files.list(dir)) {
+            assertEquals(manifest.containers().size(),
+                    files.filter(file -> file.getFileName().toString().startsWith("Median_")).count());
+        }
+        List<Double> allDays = new ArrayList<>(firstDay);
+        allDays.addAll(secondDay);
+        calc = FileMedianCalculator.open(dir.toString(), 16, settings);
+        assertArrayEquals(quantiles(allDays), calc.calculateQuantiles(0, 0.25, 0.5, 0.75, 1));
+        calc.destroy();
+    }
+
+    @Test
+    void testStorageModeIsTakenFromManifest(@TempDir Path dir) {
+        var dataSet = FileDataSet.open(dir.toString(), 64, FileDataSetSettings.defaults().withStorageMode(StorageMode.APPEND));
+        for (double value : randomNumbers(20_000, 3)) {
+            dataSet.addNumber(value);
+        }
+        dataSet.close();
+
+        var manifest = DataSetManifest.read(dir);
+        assertEquals(StorageMode.APPEND, manifest.storageMode());
+        assertEquals(ContainerFormat.RAW, manifest.containerFormat());
+        dataSet = FileDataSet.open(dir.toString(), 64, FileDataSetSettings.defaults());
+        assertEquals(20_000, dataSet.getTotalSize());
+        assertEquals(manifest.containers().size(), dataSet.getContainerCount());
+        dataSet.destroy();
+    }
+
+    @Test
+    void testRecoversToLastFlushAfterCrash(@TempDir Path dir) {
+        for (var mode : StorageMode.values()) {
+            var datasetDir = dir.resolve(mode.name()).toString();
+            var settings = FileDataSetSettings.defaults().withStorageMode(mode).withAsyncFlushing(false);
+            var crashed = FileDataSet.open(datasetDir, 64, settings);
+            for (double value : randomNumbers(50_000, 4)) {
+                crashed.addNumber(value);
+            }
+            // The cached values were never written, the process dies without closing the data set
+            long flushedCount = crashed.getTotalSize() - crashed.getCachedEntryCount();
+            assertTrue(flushedCount > 0 && flushedCount < 50_000, mode.toString());
+
+            var recovered = FileDataSet.open(datasetDir, 64, settings);
+            assertEquals(flushedCount, recovered.getTotalSize(), mode.toString());
+            double[] values = recovered.getEntriesAtIndices(new long[] {0, flushedCount / 2, flushedCount - 1});
+            assertTrue(values[0] <= values[1] && values[1] <= values[2], mode.toString());
+            recovered.destroy();
+        }
+    }
+
+    @Test
+    void testIncompleteWritesAreDiscardedOnReopen(@TempDir Path dir) throws IOException {
+        var settings = FileDataSetSettings.defaults().withStorageMode(StorageMode.APPEND);
+        var numbers = randomNumbers(20_000, 5);
+        var dataSet = FileDataSet.open(dir.toString(), 64, settings);
+        for (double value : numbers) {
+            dataSet.addNumber(value);
+        }
+        dataSet.close();
+
+        // An append and a merge that were still running when the process died
+        var manifest = DataSetManifest.read(dir);
+        var appendedFile = dir.resolve(manifest.containers().get(0).fileName());
+        Files.write(appendedFile, new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9}, StandardOpenOption.APPEND);
+        var orphan = dir.resolve("Median_unfinished");
+        Files.write(orphan, new byte[] {1, 2, 3});
+
+        var calc = FileMedianCalculator.open(dir.toString(), 64, settings);
+        assertFalse(Files.exists(orphan));
+        assertEquals(manifest.containers().get(0).fileSizeBytes(), Files.size(appendedFile));
+        assertEquals(numbers.size(), calc.getDataSet().getTotalSize());
+        assertEquals(quantiles(numbers)[2], calc.calculateMedian());
+        calc.destroy();
+    }
+
+    @Test
+    void testReplacedFilesAreDeleted(@TempDir Path dir) throws IOException {
+        var dataSet = FileDataSet.open(dir.toString(), 64, FileDataSetSettings.defaults());
+        for (double value : randomNumbers(50_000, 6)) {
+            dataSet.addNumber(value);
+        }
+        dataSet.close();
+
+        var manifest = DataSetManifest.read(dir);
+        try (var files = Files.list(dir)) {
+            // Only the files of the manifest are left after all the merges and splits
+            assertEquals(manifest.containers().size(), files.filter(file -> file.getFileName().toString()
+                    .startsWith("Median_")).count());
+        }
+        assertTrue(manifest.generation() > 1);
+        FileDataSet.open(dir.toString(), 64, FileDataSetSettings.defaults()).destroy();
+    }
+}
@@ -0,0 +1,221 @@
+package wiest.median.calculator.radix;
+
+import org.junit.jupiter.api.Test;
+import wiest.median.DataSource;
+import wiest.median.LazyDataSource;
+import wiest.median.MedianCalculator;
+import wiest.median.MemoryDataSource;
+import wiest.median.calculator.file.FileMedianCalculator;
+import wiest.median.calculator.file.LocalFileTest;
+import wiest.median.filereader.ByteNumberFileReader;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RadixMedianCalculatorTest extends LocalFileTest {
+
+    @Test
+    void testEmpty() {
+        MedianCalculator calc = new RadixMedianCalculator(TEST_DATA_DIR, 1);
+
+        calc.loadSource(new MemoryDataSource(List.of()));
+
+        assertEquals(0, calc.calculateMedian());
+    }
+
+    @Test
+    void testGetMedianEven() {
+        MedianCalculator calc = new RadixMedianCalculator(TEST_DATA_DIR, 1);
+
+        calc.loadSource(new MemoryDataSource(List.of(1., 2., 3., 4., 5., 6.)));
+
+        assertEquals(3.5, calc.calculateMedian());
+    }
+
+    @Test
+    void testGetMedianUneven() {
+        MedianCalculator calc = new RadixMedianCalculator(TEST_DATA_DIR, 1);
+
+        calc.loadSource(new MemoryDataSource(List.of(5., 1., 4., 2., 3.)));
+
+        assertEquals(3, calc.calculateMedian());
+    }
+
+    @Test
+    void testMedianWithNegativeNumbers() {
+        var numbers = IntStream.range(-10, 11).asDoubleStream().boxed().collect(Collectors.toList());
+        Collections.shuffle(numbers);
+        MedianCalculator calc = new RadixMedianCalculator(TEST_DATA_DIR, 1);
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        assertEquals(0, calc.calculateMedian());
+    }
+
+    @Test
+    void testRandomFile() {
+        MedianCalculator calc = new RadixMedianCalculator(TEST_DATA_DIR, 1);
+
+        calc.loadSource(new ByteNumberFileReader("src/test/resources/random_numbers.txt"));
+
+        assertEquals(6.1234, calc.calculateMedian());
+    }
+
+    @Test
+    void testMedianSimilarNumbers() {
+        List<Double> dataList = new ArrayList<>();
+        dataList.addAll(Collections.nCopies(1000, 1.));
+        dataList.addAll(Collections.nCopies(2000, 2.));
+        dataList.addAll(Collections.nCopies(1000, 3.));
+        dataList.addAll(IntStream.range(-100, 110).asDoubleStream().boxed().toList());
+        MedianCalculator calc = new RadixMedianCalculator(TEST_DATA_DIR, 1);
+
+        calc.loadSource(new MemoryDataSource(dataList));
+
+        assertEquals(2, calc.calculateMedian());
+    }
+
+    @Test
+    void testReopenableSourceIsNotSpilledWhenBucketFitsIntoMemory() {
+        var numbers = new Random(42).doubles(100_001).boxed().toList();
+        var calc = new RadixMedianCalculator(TEST_DATA_DIR, 2048);
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        assertEquals(getSortedMedian(numbers), calc.calculateMedian());
+        assertEquals(0, calc.getSpilledBytes());
+    }
+
+    @Test
+    void testOnlyNarrowedBucketIsSpilled() {
+        var random = new Random(7);
+        var numbers = random.doubles(200_000).map(d -> d * 1000 - 500).boxed().toList();
+        // Tiny memory budget forces several narrowing passes
+        var calc = new RadixMedianCalculator(TEST_DATA_DIR, 1);
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        assertEquals(getSortedMedian(numbers), calc.calculateMedian());
+        assertTrue(calc.getSpilledBytes() < numbers.size() * (long) Double.BYTES,
+                "Spilled " + calc.getSpilledBytes() + " bytes");
+        calc.destroy();
+    }
+
+    @Test
+    void testChannelReaderIsSpilled() throws IOException {
+        var input = Files.newByteChannel(Path.of("src/test/resources/random_numbers.txt"));
+        var calc = new RadixMedianCalculator(TEST_DATA_DIR, 1);
+
+        // Implements ReopenableDataSource, but a channel cannot be read a second time
+        calc.loadSource(new ByteNumberFileReader(input, 4096));
+
+        assertEquals(6.1234, calc.calculateMedian());
+        assertTrue(calc.getSpilledBytes() > 0);
+        calc.destroy();
+    }
+
+    @Test
+    void testBothMiddleRanksShareTheirPasses() {
+        var numbers = new Random(5).doubles(200_000).map(d -> d * 1000 - 500).boxed().toList();
+        var opened = new AtomicInteger();
+        var calc = new RadixMedianCalculator(TEST_DATA_DIR, 1);
+
+        calc.loadSource(new LazyDataSource(() -> {
+            opened.incrementAndGet();
+            return new MemoryDataSource(numbers);
+        }));
+
+        assertEquals(getSortedMedian(numbers), calc.calculateMedian());
+        // Once for loading and once for the first pass, later passes read the spilled buckets
+        assertEquals(2, opened.get());
+        assertTrue(calc.getLastPassCount() <= 3, "passes " + calc.getLastPassCount());
+        calc.destroy();
+    }
+
+    @Test
+    void testQuantilesShareTheirPasses() {
+        var numbers = new Random(13).doubles(100_000).boxed().toList();
+        var calc = new RadixMedianCalculator(TEST_DATA_DIR, 4096);
+        MedianCalculator file = new FileMedianCalculator(TEST_DATA_DIR, 4096);
+        calc.loadSource(new MemoryDataSource(numbers));
+        file.loadSource(new MemoryDataSource(numbers));
+
+        double[] quantiles = new double[101];
+        Arrays.setAll(quantiles, i -> i / 100.);
+
+        assertArrayEquals(file.calculateQuantiles(quantiles), calc.calculateQuantiles(quantiles));
+        assertTrue(calc.getLastPassCount() <= 3, "passes " + calc.getLastPassCount());
+        calc.destroy();
+        file.destroy();
+    }
+
+    @Test
+    void testSameResultAsFileMedianCalculator() {
+        var random = new Random(3);
+        var numbers = random.doubles(50_001).map(d -> Math.round(d * 1000) / 10.).boxed().toList();
+        MedianCalculator radix = new RadixMedianCalculator(TEST_DATA_DIR, 64);
+        MedianCalculator file = new FileMedianCalculator(TEST_DATA_DIR, 64);
+
+        // Hide the reopen capability so the input has to be spilled
+        radix.loadSource(notReopenable(new MemoryDataSource(numbers)));
+        file.loadSource(new MemoryDataSource(numbers));
+
+        assertEquals(file.calculateMedian(), radix.calculateMedian());
+        radix.destroy();
+        file.destroy();
+    }
+
+    @Test
+    void testQuantilesSameAsFileMedianCalculator() {
+        var numbers = new Random(11).doubles(20_000).boxed().toList();
+        MedianCalculator radix = new RadixMedianCalculator(TEST_DATA_DIR, 1);
+        MedianCalculator file = new FileMedianCalculator(TEST_DATA_DIR, 16);
+
+        radix.loadSource(new MemoryDataSource(numbers));
+        file.loadSource(new MemoryDataSource(numbers));
+
+        double[] quantiles = {0, 0.1, 0.5, 0.9, 0.99, 0.999, 1};
+        assertArrayEquals(file.calculateQuantiles(quantiles), radix.calculateQuantiles(quantiles));
+        file.destroy();
+    }
+
+    private static double getSortedMedian(List<Double> numbers) {
+        var sorted = numbers.stream().sorted().toList();
+        int size = sorted.size();
+        return size % 2 == 1
+                ? sorted.get(size / 2)
+                : (sorted.get(size / 2 - 1) + sorted.get(size / 2)) / 2;
+    }
+
+    private static DataSource notReopenable(DataSource source) {
+        return new DataSource() {
+            @Override
+            public boolean hasNext() {
+                return source.hasNext();
+            }
+
+            @Override
+            public double getNext() {
+                return source.getNext();
+            }
+
+            @Override
+            public void close() {
+                source.close();
+            }
+        };
+    }
+}
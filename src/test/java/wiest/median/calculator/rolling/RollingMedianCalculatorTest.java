@@ -0,0 +1,187 @@
+package wiest.median.calculator.rolling;
+
+import org.junit.jupiter.api.Test;
+import wiest.median.MemoryDataSource;
+import wiest.median.calculator.file.LocalFileTest;
+
+import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RollingMedianCalculatorTest extends LocalFileTest {
+
+    private static double medianOf(List<Double> values, int from, int to) {
+        double[] window = values.subList(from, to).stream().mapToDouble(Double::doubleValue).toArray();
+        Arrays.sort(window);
+        int size = window.length;
+        return size % 2 == 1 ? window[size / 2] : (window[size / 2 - 1] + window[size / 2]) / 2;
+    }
+
+    private static List<Double> emittedMedians(RollingMedianCalculator calc, List<Double> values) {
+        List<Double> medians = new ArrayList<>();
+        calc.loadSource(new MemoryDataSource(values), (count, median) -> medians.add(median));
+        calc.destroy();
+        return medians;
+    }
+
+    @Test
+    void testCountWindowMatchesSorting() {
+        var values = new Random(1).doubles(3000).map(d -> Math.round(d * 200)).boxed().collect(Collectors.toList());
+        for (int windowSize : new int[] {1, 2, 100, 101, 5000}) {
+            var medians = emittedMedians(new RollingMedianCalculator(TEST_DATA_DIR,
+                    RollingMedianSettings.countWindow(windowSize)), values);
+
+            assertEquals(values.size(), medians.size());
+            for (int i = 0; i < values.size(); i++) {
+                assertEquals(medianOf(values, Math.max(0, i + 1 - windowSize), i + 1), medians.get(i),
+                        "window " + windowSize + " at " + i);
+            }
+        }
+    }
+
+    @Test
+    void testStride() {
+        var values = new Random(2).doubles(1000).boxed().collect(Collectors.toList());
+        List<Long> counts = new ArrayList<>();
+        var calc = new RollingMedianCalculator(TEST_DATA_DIR, RollingMedianSettings.countWindow(50).withStride(100));
+
+        calc.loadSource(new MemoryDataSource(values), (count, median) -> {
+            counts.add(count);
+            assertEquals(medianOf(values, (int) count - 50, (int) count), median);
+        });
+
+        assertEquals(List.of(100L, 200L, 300L, 400L, 500L, 600L, 700L, 800L, 900L, 1000L), counts);
+        assertEquals(50, calc.getWindowCount());
+        calc.destroy();
+    }
+
+    @Test
+    void testTimeWindow() {
+        var clock = new AtomicLong(0);
+        var calc = new RollingMedianCalculator(TEST_DATA_DIR, RollingMedianSettings.timeWindow(Duration.ofSeconds(10)),
+                clock::get);
+
+        for (int second = 0; second < 20; second++) {
+            clock.set(second * 1000L);
+            calc.add(second);
+        }
+
+        // The values of the seconds 10 to 19 are in the window
+        assertEquals(10, calc.getWindowCount());
+        assertEquals(14.5, calc.getMedian());
+        clock.set(25_000);
+        assertEquals(17.5, calc.getMedian());
+        clock.set(60_000);
+        assertEquals(0, calc.getMedian());
+        assertEquals(0, calc.getWindowCount());
+        calc.destroy();
+    }
+
+    @Test
+    void testSpillingMatchesMemory() {
+        var random = new Random(3);
+        // Drifting values, so the median leaves the band in memory again and again
+        var values = new ArrayList<Double>();
+        for (int i = 0; i < 60_000; i++) {
+            values.add(Math.round(random.nextGaussian() * 100 + i / 10.0) / 4.0);
+        }
+        var settings = RollingMedianSettings.countWindow(20_000).withStride(7);
+
+        var inMemory = emittedMedians(new RollingMedianCalculator(TEST_DATA_DIR, settings), values);
+        var spillingCalc = new RollingMedianCalculator(TEST_DATA_DIR, settings.withMaxValuesInMemory(1000));
+        List<Double> spilled = new ArrayList<>();
+        spillingCalc.loadSource(new MemoryDataSource(values), (count, median) -> spilled.add(median));
+
+        assertEquals(inMemory, spilled);
+        assertTrue(((SpillingMedianWindow) spillingCalc.getWindow()).getRebuildCount() > 1);
+        spillingCalc.destroy();
+        assertEquals(0, new File(TEST_DATA_DIR).listFiles((dir, name) -> name.startsWith("Median_rolling_")).length);
+    }
+
+    @Test
+    void testSpillingWithRepeatedValues() {
+        var values = new Random(4).ints(20_000, 0, 3).asDoubleStream().boxed().collect(Collectors.toList());
+        var settings = RollingMedianSettings.countWindow(5000).withStride(13);
+
+        var inMemory = emittedMedians(new RollingMedianCalculator(TEST_DATA_DIR, settings), values);
+        var spilled = emittedMedians(new RollingMedianCalculator(TEST_DATA_DIR, settings.withMaxValuesInMemory(100)), values);
+
+        assertEquals(inMemory, spilled);
+    }
+
+    @Test
+    void testTimeWindowSpillsOnlyWhenExceedingMemory() {
+        var clock = new AtomicLong(0);
+        var settings = RollingMedianSettings.timeWindow(Duration.ofSeconds(1)).withMaxValuesInMemory(100);
+        var inMemory = new RollingMedianCalculator(TEST_DATA_DIR, RollingMedianSettings.timeWindow(Duration.ofSeconds(1)),
+                clock::get);
+        var calc = new RollingMedianCalculator(TEST_DATA_DIR, settings, clock::get);
+        var random = new Random(5);
+
+        // A slow stream keeps the window small
+        for (int i = 0; i < 500; i++) {
+            clock.set(i * 100L);
+            double value = random.nextInt(1000);
+            inMemory.add(value);
+            calc.add(value);
+            assertEquals(inMemory.getMedian(), calc.getMedian());
+        }
+        assertTrue(calc.getWindow() instanceof MemoryMedianWindow);
+
+        // A burst exceeds the memory and the window moves to disk
+        for (int i = 0; i < 1000; i++) {
+            clock.set(50_000 + i);
+            double value = random.nextInt(1000);
+            inMemory.add(value);
+            calc.add(value);
+            assertEquals(inMemory.getMedian(), calc.getMedian());
+        }
+        assertTrue(calc.getWindow() instanceof SpillingMedianWindow);
+        assertEquals(inMemory.getWindowCount(), calc.getWindowCount());
+        inMemory.destroy();
+        calc.destroy();
+    }
+
+    @Test
+    void testMemoryBytesCoverTheWholeFootprint() {
+        var settings = RollingMedianSettings.countWindow(10).withMemoryBytes(48_000);
+
+        assertEquals(1000, settings.maxValuesInMemory());
+    }
+
+    @Test
+    void testMovingDrainsTheMemoryWindow() {
+        var memoryWindow = new MemoryMedianWindow();
+        var random = new Random(6);
+        for (int i = 0; i < 5000; i++) {
+            memoryWindow.add(i, random.nextInt(1000));
+        }
+        double median = memoryWindow.median();
+        var spillingWindow = new SpillingMedianWindow(TEST_DATA_DIR, 1000);
+
+        memoryWindow.moveTo(spillingWindow);
+
+        assertEquals(0, memoryWindow.size());
+        assertEquals(0, memoryWindow.median());
+        assertEquals(5000, spillingWindow.size());
+        assertEquals(median, spillingWindow.median());
+        spillingWindow.destroy();
+    }
+
+    @Test
+    void testInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> RollingMedianSettings.countWindow(0));
+        assertThrows(IllegalArgumentException.class, () -> RollingMedianSettings.timeWindow(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> RollingMedianSettings.countWindow(10).withStride(0));
+        assertThrows(IllegalArgumentException.class, () -> RollingMedianSettings.countWindow(10).withMaxValuesInMemory(8));
+    }
+}
@@ -0,0 +1,108 @@
+package wiest.median.calculator.sketch;
+
+import org.junit.jupiter.api.Test;
+import wiest.median.MedianCalculator;
+import wiest.median.MemoryDataSource;
+import wiest.median.calculator.file.FileMedianCalculator;
+import wiest.median.calculator.file.LocalFileTest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SketchMedianCalculatorTest extends LocalFileTest {
+
+    private static final double EPSILON = 0.01;
+    private static final double[] QUANTILES = {0.01, 0.1, 0.25, 0.5, 0.75, 0.9, 0.99};
+
+    @Test
+    void testEmpty() {
+        MedianCalculator calc = new SketchMedianCalculator(EPSILON);
+
+        calc.loadSource(new MemoryDataSource(List.of()));
+
+        assertEquals(0, calc.calculateMedian());
+    }
+
+    @Test
+    void testExactWhileSketchIsNotFull() {
+        MedianCalculator calc = new SketchMedianCalculator(EPSILON);
+
+        calc.loadSource(new MemoryDataSource(List.of(5., 1., 4., 2., 3.)));
+
+        assertEquals(3, calc.calculateMedian());
+        assertArrayEquals(new double[] {1, 5}, calc.calculateQuantiles(0, 1));
+    }
+
+    @Test
+    void testRankErrorWithinBound() {
+        var numbers = new Random(17).doubles(300_000).map(d -> d * d * 1000).boxed().toList();
+        var sketch = new KllSketch(KllSketch.kForEpsilon(EPSILON), new Random(1));
+        var calc = new SketchMedianCalculator(sketch);
+
+        calc.loadSource(new MemoryDataSource(numbers));
+
+        assertWithinRankError(numbers, calc.calculateQuantiles(QUANTILES));
+        assertTrue(sketch.getRetainedCount() < 4 * sketch.getK(), "Retained " + sketch.getRetainedCount());
+    }
+
+    @Test
+    void testMergedSketchesWithinBound() {
+        var random = new Random(23);
+        var first = random.doubles(150_000).boxed().toList();
+        var second = random.doubles(150_000).map(d -> d + 0.5).boxed().toList();
+        int k = KllSketch.kForEpsilon(EPSILON);
+        var firstRun = new SketchMedianCalculator(new KllSketch(k, new Random(2)));
+        var secondRun = new SketchMedianCalculator(new KllSketch(k, new Random(3)));
+
+        firstRun.loadSource(new MemoryDataSource(first));
+        secondRun.loadSource(new MemoryDataSource(second));
+        firstRun.merge(serializeAndRead(secondRun.getSketch()));
+
+        var numbers = new ArrayList<>(first);
+        numbers.addAll(second);
+        assertEquals(numbers.size(), firstRun.getSketch().getCount());
+        assertWithinRankError(numbers, firstRun.calculateQuantiles(QUANTILES));
+    }
+
+    @Test
+    void testSerializationKeepsResults() {
+        var sketch = new KllSketch(200, new Random(4));
+        new Random(5).doubles(50_000).forEach(sketch::update);
+
+        var copy = serializeAndRead(sketch);
+
+        assertEquals(sketch.getCount(), copy.getCount());
+        assertArrayEquals(sketch.getQuantiles(QUANTILES), copy.getQuantiles(QUANTILES));
+    }
+
+    /**
+     * Every approximate quantile has to lie between the exact quantiles epsilon below and above it
+     */
+    private static void assertWithinRankError(List<Double> numbers, double[] approximations) {
+        var exact = new FileMedianCalculator(TEST_DATA_DIR, 1024);
+        exact.loadSource(new MemoryDataSource(numbers));
+        for (int i = 0; i < QUANTILES.length; i++) {
+            var bounds = exact.calculateQuantiles(
+                    Math.max(0, QUANTILES[i] - EPSILON), Math.min(1, QUANTILES[i] + EPSILON));
+            assertTrue(bounds[0] <= approximations[i] && approximations[i] <= bounds[1],
+                    "Quantile " + QUANTILES[i] + " approximated as " + approximations[i]
+                            + " outside of [" + bounds[0] + ", " + bounds[1] + "]");
+        }
+        exact.destroy();
+    }
+
+    private static KllSketch serializeAndRead(KllSketch sketch) {
+        var bytes = new ByteArrayOutputStream();
+        sketch.writeTo(new DataOutputStream(bytes));
+        return KllSketch.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
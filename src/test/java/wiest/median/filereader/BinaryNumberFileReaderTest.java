@@ -0,0 +1,128 @@
+package wiest.median.filereader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import wiest.median.DataSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryNumberFileReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path write(BinaryFormat format, ByteOrder byteOrder, long... values) throws IOException {
+        var buffer = ByteBuffer.allocate(values.length * format.getValueSize()).order(byteOrder);
+        for (long value : values) {
+            switch (format) {
+                case DOUBLE -> buffer.putDouble(value);
+                case FLOAT -> buffer.putFloat(value);
+                case INT32 -> buffer.putInt((int) value);
+                case INT64 -> buffer.putLong(value);
+            }
+        }
+        var file = tempDir.resolve(format + "_" + byteOrder + ".bin");
+        Files.write(file, buffer.array());
+        return file;
+    }
+
+    private static List<Double> readAll(DataSource source) {
+        List<Double> values = new ArrayList<>();
+        while (source.hasNext()) {
+            values.add(source.getNext());
+        }
+        source.close();
+        return values;
+    }
+
+    @Test
+    void testAllFormatsAndByteOrders() throws IOException {
+        for (var format : BinaryFormat.values()) {
+            for (var byteOrder : List.of(ByteOrder.LITTLE_ENDIAN, ByteOrder.BIG_ENDIAN)) {
+                var file = write(format, byteOrder, 3, -1, 1_000_000);
+                var reader = new BinaryNumberFileReader(file.toString(), format, byteOrder);
+
+                assertEquals(3, reader.estimatedSize());
+                assertEquals(List.of(3., -1., 1_000_000.), readAll(reader), format + " " + byteOrder);
+            }
+        }
+    }
+
+    @Test
+    void testReadAcrossWindows() throws IOException {
+        long[] values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i;
+        }
+        var file = write(BinaryFormat.DOUBLE, ByteOrder.LITTLE_ENDIAN, values);
+
+        // 100 bytes only hold 12 whole doubles, the windows have to be aligned to values
+        var reader = new BinaryNumberFileReader(file.toString(), BinaryFormat.DOUBLE, ByteOrder.LITTLE_ENDIAN,
+                0, -1, 100);
+        double[] buffer = new double[37];
+        int read = 0;
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) > 0) {
+            for (int i = 0; i < count; i++) {
+                assertEquals(read + i, buffer[i]);
+            }
+            read += count;
+        }
+        reader.close();
+
+        assertEquals(1000, read);
+    }
+
+    @Test
+    void testChunksContainEveryValueOnce() throws IOException {
+        var file = write(BinaryFormat.INT32, ByteOrder.BIG_ENDIAN, 1, 2, 3, 4, 5, 6, 7);
+
+        for (int chunkCount = 1; chunkCount <= 10; chunkCount++) {
+            List<Double> actual = new ArrayList<>();
+            for (var chunk : BinaryNumberFileReader.openChunks(file.toString(), BinaryFormat.INT32,
+                    ByteOrder.BIG_ENDIAN, chunkCount)) {
+                actual.addAll(readAll(chunk));
+            }
+            assertEquals(List.of(1., 2., 3., 4., 5., 6., 7.), actual, "Chunk count " + chunkCount);
+        }
+    }
+
+    @Test
+    void testReopen() throws IOException {
+        var file = write(BinaryFormat.INT64, ByteOrder.LITTLE_ENDIAN, 5, 6, 7);
+        var reader = new BinaryNumberFileReader(file.toString(), BinaryFormat.INT64, ByteOrder.LITTLE_ENDIAN, 1, 3);
+
+        var values = readAll(reader);
+
+        assertEquals(List.of(6., 7.), values);
+        assertEquals(values, readAll(reader.reopen()));
+    }
+
+    @Test
+    void testTruncatedFile() throws IOException {
+        var file = tempDir.resolve("truncated.bin");
+        Files.write(file, new byte[] {1, 2, 3});
+
+        assertThrows(FileReaderException.class,
+                () -> new BinaryNumberFileReader(file.toString(), BinaryFormat.FLOAT, ByteOrder.LITTLE_ENDIAN));
+    }
+
+    @Test
+    void testEndOfFile() throws IOException {
+        var file = write(BinaryFormat.FLOAT, ByteOrder.LITTLE_ENDIAN, 1);
+        var reader = new BinaryNumberFileReader(file.toString(), BinaryFormat.FLOAT, ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals(1, reader.getNext());
+        assertFalse(reader.hasNext());
+        assertThrows(FileReaderException.class, reader::getNext);
+        assertEquals(-1, reader.read(new double[1], 0, 1));
+    }
+}
@@ -0,0 +1,169 @@
+package wiest.median.filereader;
+
+import org.junit.jupiter.api.Test;
+import wiest.median.DataSource;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteNumberFileReaderTest {
+
+    @Test
+    void testOpenValidFile() {
+        assertDoesNotThrow(
+                () -> new ByteNumberFileReader("src/test/resources/random_numbers.txt")
+        );
+    }
+
+    @Test
+    void testMissingFile() {
+        assertThrows(FileReaderException.class,
+                () -> new ByteNumberFileReader("does_not_exist.txt")
+        );
+    }
+
+    @Test
+    void testNextElementDoesNotExist() {
+        ByteNumberFileReader fileReader = new ByteNumberFileReader("src/test/resources/random_numbers.txt");
+        while (fileReader.hasNext()) {
+            fileReader.getNext();
+        }
+
+        assertThrows(FileReaderException.class, fileReader::getNext);
+    }
+
+    @Test
+    void testGetNext() {
+        ByteNumberFileReader fileReader = new ByteNumberFileReader("src/test/resources/defined_numbers.txt");
+
+        assertEquals(1, fileReader.getNext());
+        assertEquals(2, fileReader.getNext());
+        assertEquals(3, fileReader.getNext());
+    }
+
+    @Test
+    void testNoNextElement() {
+        ByteNumberFileReader fileReader = new ByteNumberFileReader("src/test/resources/defined_numbers.txt");
+
+        fileReader.getNext();
+        fileReader.getNext();
+        fileReader.getNext();
+
+        assertFalse(fileReader.hasNext());
+    }
+
+    @Test
+    void testReadInvalidFile() {
+        ByteNumberFileReader fileReader = new ByteNumberFileReader("src/test/resources/invalid_input.txt");
+        assertThrows(FileReaderException.class,
+                () -> {
+                    while (fileReader.hasNext()) {
+                        fileReader.getNext();
+                    }
+                }
+        );
+    }
+
+    @Test
+    void testSameResultsAsNumberFileReader() {
+        var expected = readAll(new NumberFileReader("src/test/resources/random_numbers.txt"));
+        var actual = readAll(new ByteNumberFileReader("src/test/resources/random_numbers.txt"));
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testSmallBufferSameResults() throws Exception {
+        var channel = FileChannel.open(Path.of("src/test/resources/random_numbers.txt"));
+        var expected = readAll(new NumberFileReader("src/test/resources/random_numbers.txt"));
+        var actual = readAll(new ByteNumberFileReader(channel, 64));
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void testSeparatorsAndExponents() {
+        var values = readAll(new ByteNumberFileReader("src/test/resources/formatted_numbers.txt"));
+
+        assertEquals(List.of(1.5, 2.5, -300., 0.45, 6., 7., 0.000123, 12345678901234567890.), values);
+    }
+
+    @Test
+    void testLineLongerThanBuffer() throws Exception {
+        var channel = FileChannel.open(Path.of("src/test/resources/random_numbers.txt"));
+        ByteNumberFileReader fileReader = new ByteNumberFileReader(channel, 16);
+
+        assertThrows(FileReaderException.class,
+                () -> {
+                    while (fileReader.hasNext()) {
+                        fileReader.getNext();
+                    }
+                }
+        );
+    }
+
+    private static List<Double> readAll(DataSource source) {
+        List<Double> values = new ArrayList<>();
+        while (source.hasNext()) {
+            values.add(source.getNext());
+        }
+        source.close();
+        return values;
+    }
+
+    @Test
+    void testChunksContainEveryLineOnce() {
+        var expected = readAll(new ByteNumberFileReader("src/test/resources/random_numbers.txt"));
+
+        for (int chunkCount = 1; chunkCount <= 30; chunkCount++) {
+            List<Double> actual = new ArrayList<>();
+            for (var chunk : ByteNumberFileReader.openChunks("src/test/resources/random_numbers.txt", chunkCount)) {
+                actual.addAll(readAll(chunk));
+            }
+            assertEquals(expected, actual, "Chunk count " + chunkCount);
+        }
+    }
+
+    @Test
+    void testEstimatedSize() {
+        var expectedCount = readAll(new ByteNumberFileReader("src/test/resources/random_numbers.txt")).size();
+        ByteNumberFileReader fileReader = new ByteNumberFileReader("src/test/resources/random_numbers.txt");
+
+        assertEquals(-1, fileReader.estimatedSize());
+        for (int i = 0; i < 10; i++) {
+            fileReader.getNext();
+        }
+        long estimate = fileReader.estimatedSize();
+        assertTrue(estimate >= 10 && estimate <= 3 * expectedCount, "Estimate " + estimate);
+
+        while (fileReader.hasNext()) {
+            fileReader.getNext();
+        }
+        assertEquals(expectedCount, fileReader.estimatedSize());
+        fileReader.close();
+    }
+
+    @Test
+    void testReadBatchesMatchSingleValues() {
+        var expected = readAll(new ByteNumberFileReader("src/test/resources/random_numbers.txt"));
+        ByteNumberFileReader fileReader = new ByteNumberFileReader("src/test/resources/random_numbers.txt");
+
+        List<Double> actual = new ArrayList<>();
+        double[] buffer = new double[5];
+        int count;
+        while ((count = fileReader.read(buffer, 0, buffer.length)) > 0) {
+            for (int i = 0; i < count; i++) {
+                actual.add(buffer[i]);
+            }
+        }
+
+        assertEquals(expected, actual);
+        assertEquals(-1, fileReader.read(buffer, 0, buffer.length));
+        assertEquals(expected.size(), fileReader.estimatedSize());
+    }
+
+}
@@ -0,0 +1,105 @@
+package wiest.median.filereader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import wiest.median.DataSource;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GzipNumberFileReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    private static void writeMember(Path file, String content) throws IOException {
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND))) {
+            output.write(content.getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static List<Double> readAll(DataSource source) {
+        List<Double> values = new ArrayList<>();
+        while (source.hasNext()) {
+            values.add(source.getNext());
+        }
+        source.close();
+        return values;
+    }
+
+    @Test
+    void testDetectGzip() throws IOException {
+        var file = tempDir.resolve("numbers.gz");
+        writeMember(file, "1\n");
+
+        assertTrue(GzipNumberFileReader.isGzipFile(file.toString()));
+        assertFalse(GzipNumberFileReader.isGzipFile("src/test/resources/random_numbers.txt"));
+    }
+
+    @Test
+    void testReadMultipleMembers() throws IOException {
+        var file = tempDir.resolve("numbers.gz");
+        writeMember(file, "1\n2,5\n");
+        writeMember(file, "3\n\n4e1\n");
+
+        assertEquals(List.of(1., 2.5, 3., 40.), readAll(new GzipNumberFileReader(file.toString())));
+    }
+
+    @Test
+    void testReadLargeFileInBatches() throws IOException {
+        var content = new StringBuilder();
+        for (int i = 0; i < 300_000; i++) {
+            content.append(i).append('\n');
+        }
+        var file = tempDir.resolve("large.gz");
+        writeMember(file, content.toString());
+
+        var reader = new GzipNumberFileReader(file.toString());
+        double[] buffer = new double[10_000];
+        long expected = 0;
+        int count;
+        while ((count = reader.read(buffer, 0, buffer.length)) > 0) {
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected++, buffer[i]);
+            }
+            assertTrue(reader.estimatedSize() >= expected);
+        }
+        reader.close();
+
+        assertEquals(300_000, expected);
+        assertEquals(List.of(0., 1.), readAll(reader.reopen()).subList(0, 2));
+    }
+
+    @Test
+    void testInvalidValue() throws IOException {
+        var file = tempDir.resolve("invalid.gz");
+        writeMember(file, "1\nabc\n");
+
+        var reader = new GzipNumberFileReader(file.toString());
+
+        assertThrows(FileReaderException.class, () -> readAll(reader));
+    }
+
+    @Test
+    void testTruncatedFile() throws IOException {
+        var file = tempDir.resolve("truncated.gz");
+        writeMember(file, "1\n2\n3\n");
+        var bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 6));
+
+        var reader = new GzipNumberFileReader(file.toString());
+
+        assertThrows(FileReaderException.class, () -> readAll(reader));
+    }
+}
@@ -0,0 +1,62 @@
+package wiest.median.filereader;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InputFilesTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path createFile(String name) throws IOException {
+        var file = tempDir.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "1\n");
+        return file;
+    }
+
+    @Test
+    void testResolveFile() throws IOException {
+        var file = createFile("values.txt");
+        assertEquals(List.of(file), InputFiles.resolve(file.toString()));
+    }
+
+    @Test
+    void testResolveDirectory() throws IOException {
+        var b = createFile("shards/b.txt");
+        var a = createFile("shards/a.txt");
+        var nested = createFile("shards/2024/c.txt");
+        assertEquals(List.of(nested, a, b), InputFiles.resolve(tempDir.resolve("shards").toString()));
+    }
+
+    @Test
+    void testResolveGlob() throws IOException {
+        var first = createFile("shards/2024-01/part-0.txt");
+        var second = createFile("shards/2024-02/part-0.txt");
+        createFile("shards/2024-02/part-0.log");
+        createFile("shards/2023-12/part-0.txt");
+
+        assertEquals(List.of(first, second), InputFiles.resolve(tempDir + "/shards/2024-*/*.txt"));
+        assertEquals(List.of(first, second), InputFiles.resolve(tempDir + "/shards/2024-0{1,2}/part-?.txt"));
+    }
+
+    @Test
+    void testResolveMultipleArguments() throws IOException {
+        var a = createFile("a.txt");
+        var b = createFile("b.txt");
+        assertEquals(List.of(b, a), InputFiles.resolve(List.of(b.toString(), a.toString())));
+    }
+
+    @Test
+    void testMissingInput() {
+        assertThrows(FileReaderException.class, () -> InputFiles.resolve(tempDir.resolve("missing.txt").toString()));
+        assertThrows(FileReaderException.class, () -> InputFiles.resolve(tempDir + "/*.missing"));
+    }
+}
@@ -0,0 +1,57 @@
+package wiest.median.filereader;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyValueFileReaderTest {
+
+    private static KeyValueFileReader readerOf(String content, int bufferSize) {
+        var input = new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+        return new KeyValueFileReader(Channels.newChannel(input), bufferSize);
+    }
+
+    private static List<String> readAll(KeyValueFileReader reader, int batchSize) {
+        String[] keys = new String[batchSize];
+        double[] values = new double[batchSize];
+        List<String> pairs = new ArrayList<>();
+        int count;
+        while ((count = reader.read(keys, values, 0, batchSize)) > 0) {
+            for (int i = 0; i < count; i++) {
+                pairs.add(keys[i] + "=" + values[i]);
+            }
+        }
+        reader.close();
+        return pairs;
+    }
+
+    @Test
+    void testReadPairs() {
+        var reader = readerOf("endpoint,latency\n/users,12.5\r\n\n/orders, 3\n/users,1,5e1\n/orders,-2", 64);
+
+        assertEquals(List.of("/users=12.5", "/orders=3.0", "/users=15.0", "/orders=-2.0"), readAll(reader, 3));
+    }
+
+    @Test
+    void testKeysAreReusedForConsecutiveLines() {
+        var reader = readerOf("a,1\na,2\nb,3\n", 16);
+        String[] keys = new String[3];
+
+        assertEquals(3, reader.read(keys, new double[3], 0, 3));
+        assertSame(keys[0], keys[1]);
+        assertEquals("b", keys[2]);
+        assertEquals(-1, reader.read(keys, new double[3], 0, 3));
+    }
+
+    @Test
+    void testInvalidLines() {
+        assertThrows(FileReaderException.class, () -> readAll(readerOf("a,1\nno separator\n", 64), 8));
+        assertThrows(FileReaderException.class, () -> readAll(readerOf("a,1\nb,x\n", 64), 8));
+    }
+}
@@ -81,4 +81,16 @@ class NumberFileReaderTest {
         );
     }
 
-}
\ No newline at end of file
+    @Test
+    void testReadBatch() {
+        NumberFileReader fileReader = new NumberFileReader("src/test/resources/defined_numbers.txt");
+        double[] buffer = new double[5];
+
+        assertEquals(2, fileReader.read(buffer, 1, 2));
+        assertArrayEquals(new double[] {0, 1, 2, 0, 0}, buffer);
+        assertEquals(1, fileReader.read(buffer, 0, 5));
+        assertEquals(3, buffer[0]);
+        assertEquals(-1, fileReader.read(buffer, 0, 5));
+    }
+
+}